@@ -0,0 +1,217 @@
+/*************************************************************************
+ *  Compilation:  javac AStarSP.java
+ *  Execution:    java AStarSP lab2.osm.txt queries
+ *  Dependencies: CSRDigraph.java DistanceHeuristic.java GreatCircleHeuristic.java
+ *                SearchWorkspace.java IndexDoubleMinPQ.java DijkstraSP.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  A* search for a single source-target pair.
+ *  The test client compares the settled vertices and running time of
+ *  early-exit Dijkstra and A* with the great-circle heuristic over
+ *  random pairs of vertices.
+ *
+ *  % java AStarSP lab2.osm.txt 2000
+ *
+ *************************************************************************/
+
+import java.util.Random;
+
+/**
+ *  The <tt>AStarSP</tt> class finds a shortest path from <tt>s</tt> to
+ *  <tt>t</tt> with the A* algorithm: Dijkstra's algorithm with each vertex
+ *  <tt>v</tt> keyed by its distance from <tt>s</tt> plus a
+ *  {@link DistanceHeuristic} lower bound on its distance to <tt>t</tt>.
+ *  The search stops when <tt>t</tt> is removed from the priority queue.
+ *  <p>
+ *  The result is exact for any heuristic that never overestimates. If the
+ *  heuristic is not consistent a vertex whose distance improves after it
+ *  was settled is simply queued again, so correctness does not depend on
+ *  consistency; with a consistent heuristic this never happens.
+ */
+public class AStarSP {
+    private final CSRDigraph G;
+    private final SearchWorkspace ws; // best known s->v distance, its last edge, and the pq
+                                      // of vertices keyed by that distance + lower bound to t
+    private final int generation;     // the workspace generation this search wrote
+    private final int t;
+    private int settled;
+
+    /**
+     * Computes a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @param G the edge-weighted digraph
+     * @param s the source vertex
+     * @param t the target vertex
+     * @param h a lower bound on the distance from any vertex to <tt>t</tt>
+     * @throws IllegalArgumentException if an edge weight is negative
+     * @throws IllegalArgumentException unless both vertices are between 0 and <tt>V</tt> - 1
+     */
+    public AStarSP(CSRDigraph G, int s, int t, DistanceHeuristic h) {
+        this(G, s, t, h, new SearchWorkspace(G.V()));
+    }
+
+    /**
+     * Computes a shortest path from <tt>s</tt> to <tt>t</tt> in the buffers
+     * of <tt>ws</tt>. The results can be read until the next search starts
+     * on <tt>ws</tt>.
+     * @param G the edge-weighted digraph
+     * @param s the source vertex
+     * @param t the target vertex
+     * @param h a lower bound on the distance from any vertex to <tt>t</tt>
+     * @param ws the workspace, sized for <tt>G</tt>
+     * @throws IllegalArgumentException if an edge weight is negative or
+     *    <tt>ws</tt> has the wrong size
+     * @throws IllegalArgumentException unless both vertices are between 0 and <tt>V</tt> - 1
+     */
+    public AStarSP(CSRDigraph G, int s, int t, DistanceHeuristic h, SearchWorkspace ws) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        if (s < 0 || s >= G.V())
+            throw new IllegalArgumentException("vertex " + s + " is not between 0 and " + (G.V()-1));
+        if (t < 0 || t >= G.V())
+            throw new IllegalArgumentException("vertex " + t + " is not between 0 and " + (G.V()-1));
+        if (ws.V() != G.V())
+            throw new IllegalArgumentException("workspace is not sized for this digraph");
+        this.G = G;
+        this.t = t;
+        this.ws = ws;
+        this.generation = ws.begin();
+        ws.set(s, 0.0, -1);
+
+        IndexDoubleMinPQ pq = ws.pq();
+        double bound = h.lowerBound(s, t);
+        if (bound < Double.POSITIVE_INFINITY) pq.insert(s, bound);
+        while (!pq.isEmpty()) {
+            int v = pq.delMin();
+            settled++;
+            if (v == t) break;
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                double dist = ws.distTo(v) + G.weight(e);
+                if (ws.distTo(w) > dist) {
+                    ws.set(w, dist, e);
+                    double key = dist + h.lowerBound(w, t);
+                    if (key == Double.POSITIVE_INFINITY) continue;   // t is unreachable from w
+                    if (pq.contains(w)) pq.decreaseKey(w, key);
+                    else                pq.insert(w, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the length of a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @return the length of a shortest path, or
+     *    <tt>Double.POSITIVE_INFINITY</tt> if there is none
+     */
+    public double distance() {
+        check();
+        return ws.distTo(t);
+    }
+
+    // the results live in the workspace; make sure no later search overwrote them
+    private void check() {
+        if (ws.generation() != generation)
+            throw new IllegalStateException("workspace was reused by a later search");
+    }
+
+    /**
+     * Is there a path from <tt>s</tt> to <tt>t</tt>?
+     * @return <tt>true</tt> if there is a path
+     */
+    public boolean hasPath() {
+        return distance() < Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the number of vertices removed from the priority queue.
+     * @return the number of settled vertices
+     */
+    public int settled() {
+        return settled;
+    }
+
+    /**
+     * Returns the vertices on a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @return the vertices <tt>s</tt>, ..., <tt>t</tt> in order, and
+     *    <tt>null</tt> if there is no path
+     */
+    public int[] path() {
+        if (!hasPath()) return null;
+        int n = 1;
+        for (int x = t; ws.edgeTo(x) != -1; x = G.from(ws.edgeTo(x)))
+            n++;
+        int[] path = new int[n];
+        int x = t;
+        for (int i = n - 1; i > 0; i--) {
+            path[i] = x;
+            x = G.from(ws.edgeTo(x));
+        }
+        path[0] = x;
+        return path;
+    }
+
+    /**
+     * Returns the edges on a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @return the CSR indices of the edges in path order, and <tt>null</tt>
+     *    if there is no path
+     */
+    public int[] pathEdges() {
+        if (!hasPath()) return null;
+        int n = 0;
+        for (int x = t; ws.edgeTo(x) != -1; x = G.from(ws.edgeTo(x)))
+            n++;
+        int[] edges = new int[n];
+        int x = t;
+        for (int i = n - 1; i >= 0; i--) {
+            edges[i] = ws.edgeTo(x);
+            x = G.from(edges[i]);
+        }
+        return edges;
+    }
+
+    /**
+     * Compares early-exit Dijkstra with A* on random pairs of vertices
+     * with at least one edge.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        CSRDigraph G = map.graph();
+        GreatCircleHeuristic h = new GreatCircleHeuristic(map);
+        System.out.printf("calibration factor %.6f%n", h.calibration());
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        int[] s = new int[queries], t = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            s[i] = vertices[random.nextInt(n)];
+            t[i] = vertices[random.nextInt(n)];
+        }
+
+        for (int round = 0; round < 2; round++) {   // the first round warms up the JIT
+            long settledDijkstra = 0, settledAStar = 0, timeDijkstra = 0, timeAStar = 0;
+            int mismatches = 0;
+            for (int i = 0; i < queries; i++) {
+                long start = System.nanoTime();
+                DijkstraSP dijkstra = new DijkstraSP(G, s[i], t[i]);
+                timeDijkstra += System.nanoTime() - start;
+                start = System.nanoTime();
+                AStarSP astar = new AStarSP(G, s[i], t[i], h);
+                timeAStar += System.nanoTime() - start;
+                settledDijkstra += dijkstra.settled();
+                settledAStar += astar.settled();
+                double expected = dijkstra.distTo(t[i]), found = astar.distance();
+                if (expected != found && Math.abs(expected - found) > 1e-9)
+                    mismatches++;
+            }
+            if (round == 0) continue;
+            System.out.printf("%d queries, %d mismatches%n", queries, mismatches);
+            System.out.printf("early-exit Dijkstra %8.1f settled/query %8.1f us/query%n",
+                    (double) settledDijkstra / queries, timeDijkstra / 1e3 / queries);
+            System.out.printf("A* great-circle     %8.1f settled/query %8.1f us/query%n",
+                    (double) settledAStar / queries, timeAStar / 1e3 / queries);
+        }
+    }
+}
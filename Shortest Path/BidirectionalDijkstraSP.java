@@ -0,0 +1,244 @@
+/*************************************************************************
+ *  Compilation:  javac BidirectionalDijkstraSP.java
+ *  Execution:    java BidirectionalDijkstraSP lab2.osm.txt queries
+ *  Dependencies: CSRDigraph.java SearchWorkspace.java IndexDoubleMinPQ.java DijkstraSP.java
+ *                MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Bidirectional Dijkstra for a single source-target pair.
+ *  The test client compares the settled vertices and running time of
+ *  a full DijkstraSP, an early-exit DijkstraSP and a bidirectional
+ *  search over random pairs of vertices.
+ *
+ *  % java BidirectionalDijkstraSP lab2.osm.txt 1000
+ *
+ *************************************************************************/
+
+import java.util.Random;
+
+/**
+ *  The <tt>BidirectionalDijkstraSP</tt> class finds a shortest path from
+ *  <tt>s</tt> to <tt>t</tt> by running Dijkstra's algorithm forward from
+ *  <tt>s</tt> in the digraph and backward from <tt>t</tt> in its reverse,
+ *  always advancing the side whose next vertex is closer. The searches stop
+ *  once the two smallest keys add up to at least the best <tt>s</tt>-<tt>t</tt>
+ *  distance seen so far, which is then the shortest. On road networks the
+ *  two balls around <tt>s</tt> and <tt>t</tt> together settle far fewer
+ *  vertices than one ball around <tt>s</tt> reaching <tt>t</tt>.
+ *  <p>
+ *  The path found has the same length as the one {@link DijkstraSP} finds,
+ *  but when several shortest paths exist it may be a different one.
+ */
+public class BidirectionalDijkstraSP {
+    private final CSRDigraph G, R;
+    private final SearchWorkspace wsF, wsR;  // distances and last edges from s in G, from t in R
+    private final int genF, genR;            // the workspace generations this search wrote
+    private double best = Double.POSITIVE_INFINITY;
+    private int meet = -1;               // vertex where the shortest path crosses over
+    private int settled;
+
+    /**
+     * Computes a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @param G the edge-weighted digraph
+     * @param R the reverse of <tt>G</tt>, as returned by <tt>G.reverse()</tt>
+     * @param s the source vertex
+     * @param t the target vertex
+     * @throws IllegalArgumentException if an edge weight is negative, if
+     *    <tt>R</tt> does not have the size of <tt>G</tt>, or unless both
+     *    vertices are between 0 and <tt>V</tt> - 1
+     */
+    public BidirectionalDijkstraSP(CSRDigraph G, CSRDigraph R, int s, int t) {
+        this(G, R, s, t, new SearchWorkspace(G.V()), new SearchWorkspace(G.V()));
+    }
+
+    /**
+     * Computes a shortest path from <tt>s</tt> to <tt>t</tt> in the buffers
+     * of two workspaces, one per direction. The results can be read until
+     * the next search starts on either workspace.
+     * @param G the edge-weighted digraph
+     * @param R the reverse of <tt>G</tt>, as returned by <tt>G.reverse()</tt>
+     * @param s the source vertex
+     * @param t the target vertex
+     * @param forward the workspace for the search from <tt>s</tt>
+     * @param backward the workspace for the search from <tt>t</tt>
+     * @throws IllegalArgumentException if an edge weight is negative, if
+     *    <tt>R</tt> does not have the size of <tt>G</tt>, if the workspaces
+     *    are the same or have the wrong size, or unless both vertices are
+     *    between 0 and <tt>V</tt> - 1
+     */
+    public BidirectionalDijkstraSP(CSRDigraph G, CSRDigraph R, int s, int t,
+                                   SearchWorkspace forward, SearchWorkspace backward) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        if (R.V() != G.V() || R.E() != G.E())
+            throw new IllegalArgumentException("R is not the reverse of G");
+        if (s < 0 || s >= G.V())
+            throw new IllegalArgumentException("vertex " + s + " is not between 0 and " + (G.V()-1));
+        if (t < 0 || t >= G.V())
+            throw new IllegalArgumentException("vertex " + t + " is not between 0 and " + (G.V()-1));
+        if (forward == backward)
+            throw new IllegalArgumentException("the two directions need separate workspaces");
+        if (forward.V() != G.V() || backward.V() != G.V())
+            throw new IllegalArgumentException("workspace is not sized for this digraph");
+        this.G = G;
+        this.R = R;
+        this.wsF = forward;
+        this.wsR = backward;
+        this.genF = forward.begin();
+        this.genR = backward.begin();
+
+        IndexDoubleMinPQ pqF = wsF.pq(), pqR = wsR.pq();
+        wsF.set(s, 0.0, -1);
+        wsR.set(t, 0.0, -1);
+        pqF.insert(s, 0.0);
+        pqR.insert(t, 0.0);
+        if (s == t) {
+            best = 0.0;
+            meet = s;
+            return;
+        }
+
+        while (!pqF.isEmpty() && !pqR.isEmpty()) {
+            double minF = pqF.minKey();
+            double minR = pqR.minKey();
+            if (minF + minR >= best) break;
+            if (minF <= minR) scan(G, wsF, wsR);
+            else              scan(R, wsR, wsF);
+        }
+    }
+
+    // settle the next vertex of one side and relax its edges
+    private void scan(CSRDigraph H, SearchWorkspace ws, SearchWorkspace other) {
+        IndexDoubleMinPQ pq = ws.pq();
+        int v = pq.delMin();
+        settled++;
+        for (int e = H.begin(v); e < H.end(v); e++) {
+            int w = H.to(e);
+            double d = ws.distTo(v) + H.weight(e);
+            if (ws.distTo(w) > d) {
+                ws.set(w, d, e);
+                if (pq.contains(w)) pq.decreaseKey(w, d);
+                else                pq.insert(w, d);
+            }
+            double through = ws.distTo(w) + other.distTo(w);
+            if (through < best) {
+                best = through;
+                meet = w;
+            }
+        }
+    }
+
+    // the results live in the workspaces; make sure no later search overwrote them
+    private void check() {
+        if (wsF.generation() != genF || wsR.generation() != genR)
+            throw new IllegalStateException("workspace was reused by a later search");
+    }
+
+    /**
+     * Returns the length of a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @return the length of a shortest path, or
+     *    <tt>Double.POSITIVE_INFINITY</tt> if there is none
+     */
+    public double distance() {
+        check();
+        return best;
+    }
+
+    /**
+     * Is there a path from <tt>s</tt> to <tt>t</tt>?
+     * @return <tt>true</tt> if there is a path
+     */
+    public boolean hasPath() {
+        check();
+        return meet != -1;
+    }
+
+    /**
+     * Returns the number of vertices settled by the two searches together.
+     * @return the number of settled vertices
+     */
+    public int settled() {
+        return settled;
+    }
+
+    /**
+     * Returns the vertices on a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @return the vertices <tt>s</tt>, ..., <tt>t</tt> in order, and
+     *    <tt>null</tt> if there is no path
+     */
+    public int[] path() {
+        if (!hasPath()) return null;
+        int n = 1;
+        for (int x = meet; wsF.edgeTo(x) != -1; x = G.from(wsF.edgeTo(x))) n++;
+        for (int x = meet; wsR.edgeTo(x) != -1; x = R.from(wsR.edgeTo(x))) n++;
+        int[] path = new int[n];
+        int i = 0;
+        for (int x = meet; ; x = G.from(wsF.edgeTo(x))) {
+            path[i++] = x;
+            if (wsF.edgeTo(x) == -1) break;
+        }
+        // the forward half was collected from meet back to s
+        for (int lo = 0, hi = i - 1; lo < hi; lo++, hi--) {
+            int swap = path[lo];
+            path[lo] = path[hi];
+            path[hi] = swap;
+        }
+        for (int x = meet; wsR.edgeTo(x) != -1; ) {
+            x = R.from(wsR.edgeTo(x));
+            path[i++] = x;
+        }
+        return path;
+    }
+
+    /**
+     * Compares full, early-exit and bidirectional Dijkstra on random pairs
+     * of vertices with at least one edge.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        CSRDigraph G = map.graph();
+        CSRDigraph R = G.reverse();
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        int[] s = new int[queries], t = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            s[i] = vertices[random.nextInt(n)];
+            t[i] = vertices[random.nextInt(n)];
+        }
+
+        for (int round = 0; round < 2; round++) {   // the first round warms up the JIT
+            long settledFull = 0, settledEarly = 0, settledBi = 0;
+            long timeFull = 0, timeEarly = 0, timeBi = 0;
+            int mismatches = 0;
+            for (int i = 0; i < queries; i++) {
+                long start = System.nanoTime();
+                DijkstraSP full = new DijkstraSP(G, s[i]);
+                timeFull += System.nanoTime() - start;
+                start = System.nanoTime();
+                DijkstraSP early = new DijkstraSP(G, s[i], t[i]);
+                timeEarly += System.nanoTime() - start;
+                start = System.nanoTime();
+                BidirectionalDijkstraSP bi = new BidirectionalDijkstraSP(G, R, s[i], t[i]);
+                timeBi += System.nanoTime() - start;
+                settledFull += full.settled();
+                settledEarly += early.settled();
+                settledBi += bi.settled();
+                if (!java.util.Arrays.equals(full.verticesTo(t[i]), early.verticesTo(t[i]))
+                        || Math.abs(full.distTo(t[i]) - bi.distance()) > 1e-9)
+                    mismatches++;
+            }
+            if (round == 0) continue;
+            System.out.printf("%d queries, %d mismatches%n", queries, mismatches);
+            System.out.printf("full DijkstraSP     %8.1f settled/query %8.1f us/query%n",
+                    (double) settledFull / queries, timeFull / 1e3 / queries);
+            System.out.printf("early-exit          %8.1f settled/query %8.1f us/query%n",
+                    (double) settledEarly / queries, timeEarly / 1e3 / queries);
+            System.out.printf("bidirectional       %8.1f settled/query %8.1f us/query%n",
+                    (double) settledBi / queries, timeBi / 1e3 / queries);
+        }
+    }
+}
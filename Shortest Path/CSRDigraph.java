@@ -0,0 +1,313 @@
+/*************************************************************************
+ *  Compilation:  javac CSRDigraph.java
+ *  Dependencies: EdgeWeightedDigraph.java DirectedEdge.java
+ *
+ *  An edge-weighted digraph with fixed structure, implemented using the
+ *  compressed-sparse-row (CSR) representation.
+ *
+ *************************************************************************/
+
+/**
+ *  The <tt>CSRDigraph</tt> class represents an edge-weighted digraph of
+ *  vertices named 0 through <em>V</em> - 1. Instead of one
+ *  {@link Bag} of {@link DirectedEdge} objects per vertex, the edges are
+ *  stored in three parallel primitive arrays grouped by tail vertex:
+ *  the edges incident from <tt>v</tt> are the indices <tt>e</tt> with
+ *  <tt>begin(v)</tt> &le; <tt>e</tt> &lt; <tt>end(v)</tt>, and
+ *  <tt>to(e)</tt> and <tt>weight(e)</tt> give the head and weight of each.
+ *  <p>
+ *  Edges are numbered twice: by their position in the CSR arrays
+ *  (used by all the accessors) and by their position in the input,
+ *  which is returned by <tt>edgeID(e)</tt> so that data kept alongside the
+ *  input edges can be found again from the CSR index.
+ *  <p>
+ *  The vertices and edges never change. Edge weights can be changed in
+ *  place, within the package, for traffic updates and closures; that is
+ *  not synchronized, and {@link RouteIndex} does it under a write lock
+ *  that keeps every search out meanwhile.
+ *  <p>
+ *  Construction takes time proportional to <em>E</em> + <em>V</em>.
+ *  All other operations take constant time except <tt>from()</tt>, which
+ *  takes time proportional to log <em>V</em>.
+ */
+public class CSRDigraph {
+    private final int V;
+    private final int E;
+    private final int[] offset;     // edges from v are offset[v] .. offset[v+1]-1
+    private final int[] target;     // target[e] = head vertex of edge e
+    private final double[] weight;  // weight[e] = weight of edge e
+    private final int[] edgeID;     // edgeID[e] = index of edge e in the input
+    private final boolean negative; // does any edge have a negative weight?
+
+    /**
+     * Initializes a CSR digraph from the edges of <tt>G</tt>. Edge IDs
+     * follow the order of <tt>G.edges()</tt>.
+     * @param G the edge-weighted digraph to copy
+     */
+    public CSRDigraph(EdgeWeightedDigraph G) {
+        this(G.V(), tails(G), heads(G), weights(G));
+    }
+
+    /**
+     * Initializes a CSR digraph with <tt>V</tt> vertices from parallel edge
+     * arrays, as produced by a loader. Edge <tt>i</tt> goes from
+     * <tt>from[i]</tt> to <tt>to[i]</tt> with weight <tt>weight[i]</tt> and
+     * gets edge ID <tt>i</tt>; edges from the same vertex keep their
+     * input order.
+     * @param V the number of vertices
+     * @param from the tail vertex of each edge
+     * @param to the head vertex of each edge
+     * @param weight the weight of each edge
+     * @throws java.lang.IllegalArgumentException if <tt>V</tt> &lt; 0, if the
+     *    arrays have different lengths, or if a weight is <tt>NaN</tt>
+     * @throws java.lang.IndexOutOfBoundsException unless every endpoint is
+     *    between 0 and V-1
+     */
+    public CSRDigraph(int V, int[] from, int[] to, double[] weight) {
+        if (V < 0) throw new IllegalArgumentException("Number of vertices in a Digraph must be nonnegative");
+        if (from.length != to.length || from.length != weight.length)
+            throw new IllegalArgumentException("Edge arrays must have the same length");
+        this.V = V;
+        this.E = from.length;
+        this.offset = new int[V + 1];
+        this.target = new int[E];
+        this.weight = new double[E];
+        this.edgeID = new int[E];
+
+        // counting sort of the edges by tail vertex, stable in input order
+        boolean neg = false;
+        for (int i = 0; i < E; i++) {
+            validateVertex(from[i]);
+            validateVertex(to[i]);
+            if (Double.isNaN(weight[i])) throw new IllegalArgumentException("Weight is NaN");
+            if (weight[i] < 0) neg = true;
+            offset[from[i] + 1]++;
+        }
+        for (int v = 0; v < V; v++)
+            offset[v + 1] += offset[v];
+        int[] next = new int[V];
+        System.arraycopy(offset, 0, next, 0, V);
+        for (int i = 0; i < E; i++) {
+            int e = next[from[i]]++;
+            this.target[e] = to[i];
+            this.weight[e] = weight[i];
+            this.edgeID[e] = i;
+        }
+        this.negative = neg;
+    }
+
+    /**
+     * Initializes a CSR digraph directly from its arrays, as written by
+     * {@link GraphSnapshot}. The arrays are kept, not copied.
+     */
+    CSRDigraph(int[] offset, int[] target, double[] weight, int[] edgeID) {
+        if (offset.length == 0 || target.length != weight.length || target.length != edgeID.length
+                || offset[offset.length - 1] != target.length)
+            throw new IllegalArgumentException("Inconsistent CSR arrays");
+        this.V = offset.length - 1;
+        this.E = target.length;
+        this.offset = offset;
+        this.target = target;
+        this.weight = weight;
+        this.edgeID = edgeID;
+        boolean neg = false;
+        for (int e = 0; e < E; e++)
+            if (weight[e] < 0) neg = true;
+        this.negative = neg;
+    }
+
+    // the tail, head and weight of each edge of G, in the order of G.edges()
+    private static int[] tails(EdgeWeightedDigraph G) {
+        int[] from = new int[G.E()];
+        int i = 0;
+        for (DirectedEdge e : G.edges()) from[i++] = e.from();
+        return from;
+    }
+
+    private static int[] heads(EdgeWeightedDigraph G) {
+        int[] to = new int[G.E()];
+        int i = 0;
+        for (DirectedEdge e : G.edges()) to[i++] = e.to();
+        return to;
+    }
+
+    private static double[] weights(EdgeWeightedDigraph G) {
+        double[] weight = new double[G.E()];
+        int i = 0;
+        for (DirectedEdge e : G.edges()) weight[i++] = e.weight();
+        return weight;
+    }
+
+    /**
+     * Returns the number of vertices in the digraph.
+     * @return the number of vertices in the digraph
+     */
+    public int V() {
+        return V;
+    }
+
+    /**
+     * Returns the number of edges in the digraph.
+     * @return the number of edges in the digraph
+     */
+    public int E() {
+        return E;
+    }
+
+    // throw an IndexOutOfBoundsException unless 0 <= v < V
+    private void validateVertex(int v) {
+        if (v < 0 || v >= V)
+            throw new IndexOutOfBoundsException("vertex " + v + " is not between 0 and " + (V-1));
+    }
+
+    /**
+     * Returns the index of the first edge incident from vertex <tt>v</tt>.
+     * @param v the vertex
+     * @return the index of the first edge incident from <tt>v</tt>
+     */
+    public int begin(int v) {
+        return offset[v];
+    }
+
+    /**
+     * Returns one past the index of the last edge incident from vertex <tt>v</tt>.
+     * @param v the vertex
+     * @return one past the index of the last edge incident from <tt>v</tt>
+     */
+    public int end(int v) {
+        return offset[v + 1];
+    }
+
+    /**
+     * Returns the number of directed edges incident from vertex <tt>v</tt>.
+     * @param v the vertex
+     * @return the outdegree of vertex <tt>v</tt>
+     * @throws java.lang.IndexOutOfBoundsException unless 0 <= v < V
+     */
+    public int outdegree(int v) {
+        validateVertex(v);
+        return offset[v + 1] - offset[v];
+    }
+
+    /**
+     * Returns the head vertex of edge <tt>e</tt>.
+     * @param e the CSR index of the edge
+     * @return the head vertex of edge <tt>e</tt>
+     */
+    public int to(int e) {
+        return target[e];
+    }
+
+    /**
+     * Returns the tail vertex of edge <tt>e</tt>.
+     * @param e the CSR index of the edge
+     * @return the tail vertex of edge <tt>e</tt>
+     * @throws java.lang.IndexOutOfBoundsException unless 0 <= e < E
+     */
+    public int from(int e) {
+        if (e < 0 || e >= E)
+            throw new IndexOutOfBoundsException("edge " + e + " is not between 0 and " + (E-1));
+        // largest v with offset[v] <= e
+        int lo = 0, hi = V - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offset[mid] <= e) lo = mid;
+            else                  hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the weight of edge <tt>e</tt>.
+     * @param e the CSR index of the edge
+     * @return the weight of edge <tt>e</tt>
+     */
+    public double weight(int e) {
+        return weight[e];
+    }
+
+    /**
+     * Changes the weight of edge <tt>e</tt> in place. Positive infinity
+     * closes the edge: searches then never take it.
+     * @param e the CSR index of the edge
+     * @param w the new weight
+     * @throws IllegalArgumentException if <tt>w</tt> is negative or <tt>NaN</tt>
+     */
+    void setWeight(int e, double w) {
+        if (!(w >= 0)) throw new IllegalArgumentException("weight must be nonnegative, not " + w);
+        weight[e] = w;
+    }
+
+    /**
+     * Returns the input position of edge <tt>e</tt>.
+     * @param e the CSR index of the edge
+     * @return the index of edge <tt>e</tt> in the arrays (or edge order)
+     *    this digraph was built from
+     */
+    public int edgeID(int e) {
+        return edgeID[e];
+    }
+
+    /**
+     * Does any edge of the digraph have a negative weight?
+     * @return <tt>true</tt> if some edge weight is negative
+     */
+    public boolean hasNegativeWeights() {
+        return negative;
+    }
+
+    /**
+     * Returns edge <tt>e</tt> as a {@link DirectedEdge}.
+     * @param e the CSR index of the edge
+     * @return a new directed edge with the endpoints and weight of <tt>e</tt>
+     */
+    public DirectedEdge edge(int e) {
+        return new DirectedEdge(from(e), target[e], weight[e]);
+    }
+
+    /**
+     * Returns the reverse of the digraph, with every edge turned around.
+     * Each reversed edge keeps the edge ID of the edge it came from.
+     * @return the reverse of the digraph
+     */
+    public CSRDigraph reverse() {
+        int[] from = new int[E];
+        int[] to = new int[E];
+        double[] w = new double[E];
+        for (int v = 0; v < V; v++) {
+            for (int e = offset[v]; e < offset[v + 1]; e++) {
+                int id = edgeID[e];
+                from[id] = target[e];
+                to[id] = v;
+                w[id] = weight[e];
+            }
+        }
+        return new CSRDigraph(V, from, to, w);
+    }
+
+    // the backing arrays, for GraphSnapshot; callers must not modify them
+    int[] offsets()   { return offset; }
+    int[] targets()   { return target; }
+    double[] weights() { return weight; }
+    int[] edgeIDs()   { return edgeID; }
+
+    /**
+     * Returns a string representation of the digraph.
+     * This method takes time proportional to <em>E</em> + <em>V</em>.
+     * @return the number of vertices <em>V</em>, followed by the number of edges <em>E</em>,
+     *   followed by the <em>V</em> adjacency lists of edges
+     */
+    public String toString() {
+        String NEWLINE = System.getProperty("line.separator");
+        StringBuilder s = new StringBuilder();
+        s.append(V + " " + E + NEWLINE);
+        for (int v = 0; v < V; v++) {
+            s.append(v + ": ");
+            for (int e = offset[v]; e < offset[v + 1]; e++) {
+                s.append(v + "->" + target[e] + " " + String.format("%5.2f", weight[e]) + "  ");
+            }
+            s.append(NEWLINE);
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,731 @@
+/*************************************************************************
+ *  Compilation:  javac ContractionHierarchy.java
+ *  Execution:    java ContractionHierarchy lab2.osm.txt lab2.osm.ch queries
+ *  Dependencies: CSRDigraph.java EdgeWeightedDigraph.java IndexDoubleMinPQ.java
+ *                DijkstraSP.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Contraction Hierarchies: offline preprocessing of a static road
+ *  graph, and bidirectional upward queries on the result.
+ *  The test client builds (or loads) a hierarchy, saves it, and compares
+ *  its queries with early-exit Dijkstra on random pairs of vertices.
+ *
+ *  % java ContractionHierarchy lab2.osm.txt lab2.osm.ch 10000
+ *
+ *************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ *  The <tt>ContractionHierarchy</tt> class answers shortest-path queries on
+ *  a static {@link CSRDigraph} after a one-time preprocessing step.
+ *  <p>
+ *  Preprocessing removes ("contracts") the vertices one at a time, least
+ *  important first. Whenever the only shortest path between two remaining
+ *  neighbors <tt>u</tt> and <tt>x</tt> of the removed vertex <tt>v</tt>
+ *  went through <tt>v</tt>, a shortcut edge <tt>u</tt>-&gt;<tt>x</tt> is
+ *  added that remembers the two edges it replaces. A bounded local Dijkstra
+ *  search (the witness search) decides whether another path exists.
+ *  Importance is the edge difference (shortcuts added minus edges removed)
+ *  plus the number of neighbors already contracted, kept up to date lazily.
+ *  The initial importance of every vertex, and the new importance of the
+ *  neighbors of each contracted vertex, are computed in parallel.
+ *  <p>
+ *  A query runs Dijkstra's algorithm forward from <tt>s</tt> and backward
+ *  from <tt>t</tt>, each only along edges that lead to a vertex contracted
+ *  later. The two searches meet at the most important vertex of a
+ *  shortest path, and each stops once its smallest key reaches the best
+ *  distance found. The path is then unpacked, shortcut by shortcut, into
+ *  edges of the original digraph. Each thread keeps its own query buffers,
+ *  so queries allocate nothing proportional to <em>V</em> and can run
+ *  concurrently.
+ *  <p>
+ *  The path found has the same length as a Dijkstra path, but when
+ *  several shortest paths exist it may be a different one.
+ *  A hierarchy can be saved to a file and loaded for the same digraph.
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x4F534D43;      // "OSMC"
+    private static final int VERSION = 1;
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final int V;
+    private final int originalE;        // number of edges of the digraph it was built for
+    private final int[] rank;           // rank[v] = order in which v was contracted
+
+    // the edges of the hierarchy: the original edges (0..originalE-1, by
+    // CSR index) followed by the shortcuts
+    private final int[] edgeFrom, edgeTo;
+    private final double[] edgeWeight;
+    private final int[] edgeFirst, edgeSecond;  // halves of a shortcut; -1 for an original edge
+
+    // upward graphs: up edges leave v for a higher rank, down edges enter
+    // v from a higher rank (and are followed backward)
+    private final int[] upOffset, upEdge;
+    private final int[] downOffset, downEdge;
+
+    private final ThreadLocal<Query> queries = new ThreadLocal<Query>() {
+        protected Query initialValue() {
+            return new Query(V);
+        }
+    };
+
+    /**
+     * Builds a contraction hierarchy for <tt>G</tt>. Edges in paths are
+     * reported by their index in <tt>new CSRDigraph(G)</tt>.
+     * @param G the edge-weighted digraph
+     * @throws IllegalArgumentException if an edge weight is negative
+     */
+    public ContractionHierarchy(EdgeWeightedDigraph G) {
+        this(new CSRDigraph(G));
+    }
+
+    /**
+     * Builds a contraction hierarchy for <tt>G</tt>.
+     * @param G the edge-weighted digraph
+     * @throws IllegalArgumentException if an edge weight is negative
+     */
+    public ContractionHierarchy(CSRDigraph G) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        Builder b = new Builder(G);
+        b.contractAll();
+        this.V = G.V();
+        this.originalE = G.E();
+        this.rank = b.rank;
+        this.edgeFrom = Arrays.copyOf(b.from, b.E);
+        this.edgeTo = Arrays.copyOf(b.to, b.E);
+        this.edgeWeight = Arrays.copyOf(b.weight, b.E);
+        this.edgeFirst = Arrays.copyOf(b.first, b.E);
+        this.edgeSecond = Arrays.copyOf(b.second, b.E);
+        this.upOffset = new int[V + 1];
+        this.downOffset = new int[V + 1];
+        int[][] up = upwardGraphs();
+        this.upEdge = up[0];
+        this.downEdge = up[1];
+    }
+
+    // a hierarchy read back by load()
+    private ContractionHierarchy(int V, int originalE, int[] rank, int[] edgeFrom, int[] edgeTo,
+                                 double[] edgeWeight, int[] edgeFirst, int[] edgeSecond) {
+        this.V = V;
+        this.originalE = originalE;
+        this.rank = rank;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeWeight = edgeWeight;
+        this.edgeFirst = edgeFirst;
+        this.edgeSecond = edgeSecond;
+        this.upOffset = new int[V + 1];
+        this.downOffset = new int[V + 1];
+        int[][] up = upwardGraphs();
+        this.upEdge = up[0];
+        this.downEdge = up[1];
+    }
+
+    // fill upOffset and downOffset and return {upEdge, downEdge}, grouped by vertex
+    private int[][] upwardGraphs() {
+        int E = edgeFrom.length;
+        for (int e = 0; e < E; e++) {
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]) upOffset[edgeFrom[e] + 1]++;
+            else                                     downOffset[edgeTo[e] + 1]++;
+        }
+        for (int v = 0; v < V; v++) {
+            upOffset[v + 1] += upOffset[v];
+            downOffset[v + 1] += downOffset[v];
+        }
+        int[] up = new int[upOffset[V]];
+        int[] down = new int[downOffset[V]];
+        int[] nextUp = Arrays.copyOf(upOffset, V);
+        int[] nextDown = Arrays.copyOf(downOffset, V);
+        for (int e = 0; e < E; e++) {
+            if (rank[edgeFrom[e]] < rank[edgeTo[e]]) up[nextUp[edgeFrom[e]]++] = e;
+            else                                     down[nextDown[edgeTo[e]]++] = e;
+        }
+        return new int[][] { up, down };
+    }
+
+    /**
+     * Returns the number of vertices.
+     * @return the number of vertices
+     */
+    public int V() {
+        return V;
+    }
+
+    /**
+     * Returns the number of shortcut edges added by preprocessing.
+     * @return the number of shortcuts
+     */
+    public int shortcuts() {
+        return edgeFrom.length - originalE;
+    }
+
+    /**
+     * Returns the length of a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @param s the source vertex
+     * @param t the target vertex
+     * @return the length of a shortest path, or
+     *    <tt>Double.POSITIVE_INFINITY</tt> if there is none
+     */
+    public double distance(int s, int t) {
+        Query q = queries.get();
+        q.run(s, t);
+        return q.best;
+    }
+
+    /**
+     * Returns the vertices on a shortest path from <tt>s</tt> to <tt>t</tt>.
+     * @param s the source vertex
+     * @param t the target vertex
+     * @return the vertices <tt>s</tt>, ..., <tt>t</tt> in order, and
+     *    <tt>null</tt> if there is no path
+     */
+    public int[] path(int s, int t) {
+        int[] edges = pathEdges(s, t);
+        if (edges == null) return null;
+        int[] path = new int[edges.length + 1];
+        path[0] = s;
+        for (int i = 0; i < edges.length; i++)
+            path[i + 1] = edgeTo[edges[i]];
+        return path;
+    }
+
+    /**
+     * Returns the edges of the original digraph on a shortest path from
+     * <tt>s</tt> to <tt>t</tt>, with all shortcuts unpacked.
+     * @param s the source vertex
+     * @param t the target vertex
+     * @return the CSR indices of the edges in path order, and <tt>null</tt>
+     *    if there is no path
+     */
+    public int[] pathEdges(int s, int t) {
+        Query q = queries.get();
+        q.run(s, t);
+        if (q.meet == -1) return null;
+
+        // hierarchy edges from s up to the meeting vertex and down to t
+        IntList top = new IntList();
+        for (int x = q.meet; q.parentF[x] != -1; x = edgeFrom[q.parentF[x]])
+            top.add(q.parentF[x]);
+        top.reverse();
+        for (int x = q.meet; q.parentB[x] != -1; x = edgeTo[q.parentB[x]])
+            top.add(q.parentB[x]);
+
+        // unpack shortcuts depth-first, left half first
+        IntList path = new IntList();
+        IntList stack = new IntList();
+        for (int i = top.size() - 1; i >= 0; i--)
+            stack.add(top.get(i));
+        while (stack.size() > 0) {
+            int e = stack.pop();
+            if (edgeFirst[e] == -1) path.add(e);
+            else {
+                stack.add(edgeSecond[e]);
+                stack.add(edgeFirst[e]);
+            }
+        }
+        return path.toArray();
+    }
+
+    /**
+     * Writes the hierarchy to the named file.
+     * @param filename the file to write
+     * @throws IOException if writing fails
+     */
+    public void save(String filename) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(V);
+            out.writeInt(originalE);
+            out.writeInt(edgeFrom.length);
+            for (int v = 0; v < V; v++) out.writeInt(rank[v]);
+            for (int e = 0; e < edgeFrom.length; e++) {
+                out.writeInt(edgeFrom[e]);
+                out.writeInt(edgeTo[e]);
+                out.writeDouble(edgeWeight[e]);
+                out.writeInt(edgeFirst[e]);
+                out.writeInt(edgeSecond[e]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by {@link #save} for the digraph <tt>G</tt>.
+     * @param filename the file to read
+     * @param G the digraph the hierarchy was built for
+     * @return the hierarchy
+     * @throws IOException if reading fails, if the file is not a hierarchy of
+     *    this version, or if it was built for a digraph of another size
+     */
+    public static ContractionHierarchy load(String filename, CSRDigraph G) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException(filename + ": not a contraction hierarchy");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException(filename + ": hierarchy version " + version + ", expected " + VERSION);
+            int V = in.readInt(), originalE = in.readInt(), E = in.readInt();
+            if (V != G.V() || originalE != G.E())
+                throw new IOException(filename + ": hierarchy was built for a different graph");
+            int[] rank = new int[V];
+            for (int v = 0; v < V; v++) rank[v] = in.readInt();
+            int[] from = new int[E], to = new int[E], first = new int[E], second = new int[E];
+            double[] weight = new double[E];
+            for (int e = 0; e < E; e++) {
+                from[e] = in.readInt();
+                to[e] = in.readInt();
+                weight[e] = in.readDouble();
+                first[e] = in.readInt();
+                second[e] = in.readInt();
+            }
+            for (int e = 0; e < originalE; e++) {
+                if (from[e] != G.from(e) || to[e] != G.to(e) || weight[e] != G.weight(e))
+                    throw new IOException(filename + ": hierarchy was built for a different graph");
+            }
+            return new ContractionHierarchy(V, originalE, rank, from, to, weight, first, second);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*************************************************************************
+     *  Query: bidirectional Dijkstra over the upward graphs. The buffers
+     *  are reset by bumping a generation number instead of refilling them.
+     *************************************************************************/
+
+    private final class Query {
+        private final double[] distF, distB;
+        private final int[] parentF, parentB;   // hierarchy edge that reached v
+        private final int[] stampF, stampB;     // distX[v] is valid iff stampX[v] == gen
+        private int gen;
+        private final IndexDoubleMinPQ heapF, heapB;
+        double best;
+        int meet;
+
+        Query(int V) {
+            heapF = new IndexDoubleMinPQ(V);
+            heapB = new IndexDoubleMinPQ(V);
+            distF = new double[V];
+            distB = new double[V];
+            parentF = new int[V];
+            parentB = new int[V];
+            stampF = new int[V];
+            stampB = new int[V];
+        }
+
+        private double distF(int v) { return stampF[v] == gen ? distF[v] : Double.POSITIVE_INFINITY; }
+        private double distB(int v) { return stampB[v] == gen ? distB[v] : Double.POSITIVE_INFINITY; }
+
+        void run(int s, int t) {
+            if (s < 0 || s >= V) throw new IllegalArgumentException("vertex " + s + " is not between 0 and " + (V-1));
+            if (t < 0 || t >= V) throw new IllegalArgumentException("vertex " + t + " is not between 0 and " + (V-1));
+            if (++gen == 0) {
+                Arrays.fill(stampF, 0);
+                Arrays.fill(stampB, 0);
+                gen = 1;
+            }
+            heapF.clear();
+            heapB.clear();
+            best = Double.POSITIVE_INFINITY;
+            meet = -1;
+            reachF(s, 0.0, -1);
+            reachB(t, 0.0, -1);
+            heapF.insert(s, 0.0);
+            heapB.insert(t, 0.0);
+            if (s == t) {
+                best = 0.0;
+                meet = s;
+                return;
+            }
+
+            while (true) {
+                boolean forward = !heapF.isEmpty() && heapF.minKey() < best;
+                boolean backward = !heapB.isEmpty() && heapB.minKey() < best;
+                if (!forward && !backward) break;
+                if (forward && (!backward || heapF.minKey() <= heapB.minKey())) {
+                    double d = heapF.minKey();
+                    int v = heapF.delMin();
+                    if (d + distB(v) < best) {
+                        best = d + distB(v);
+                        meet = v;
+                    }
+                    for (int i = upOffset[v]; i < upOffset[v + 1]; i++) {
+                        int e = upEdge[i], w = edgeTo[e];
+                        double dist = d + edgeWeight[e];
+                        if (dist < distF(w)) {
+                            reachF(w, dist, e);
+                            if (heapF.contains(w)) heapF.decreaseKey(w, dist);
+                            else                   heapF.insert(w, dist);
+                        }
+                    }
+                }
+                else {
+                    double d = heapB.minKey();
+                    int v = heapB.delMin();
+                    if (d + distF(v) < best) {
+                        best = d + distF(v);
+                        meet = v;
+                    }
+                    for (int i = downOffset[v]; i < downOffset[v + 1]; i++) {
+                        int e = downEdge[i], w = edgeFrom[e];
+                        double dist = d + edgeWeight[e];
+                        if (dist < distB(w)) {
+                            reachB(w, dist, e);
+                            if (heapB.contains(w)) heapB.decreaseKey(w, dist);
+                            else                   heapB.insert(w, dist);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void reachF(int v, double d, int e) {
+            stampF[v] = gen;
+            distF[v] = d;
+            parentF[v] = e;
+        }
+
+        private void reachB(int v, double d, int e) {
+            stampB[v] = gen;
+            distB[v] = d;
+            parentB[v] = e;
+        }
+    }
+
+    /*************************************************************************
+     *  Preprocessing.
+     *************************************************************************/
+
+    private static final class Builder {
+        final int V;
+        int E;                                    // hierarchy edges so far
+        int[] from, to, first, second;
+        double[] weight;
+        final IntList[] out, in;                  // hierarchy edges leaving / entering each vertex
+        final boolean[] contracted;
+        final int[] contractedNeighbors;
+        final int[] rank;
+        final ThreadLocal<Witness> witnesses;
+
+        Builder(final CSRDigraph G) {
+            V = G.V();
+            int capacity = Math.max(16, 2 * G.E());
+            from = new int[capacity];
+            to = new int[capacity];
+            first = new int[capacity];
+            second = new int[capacity];
+            weight = new double[capacity];
+            out = new IntList[V];
+            in = new IntList[V];
+            for (int v = 0; v < V; v++) {
+                out[v] = new IntList();
+                in[v] = new IntList();
+            }
+            for (int v = 0; v < V; v++) {
+                for (int e = G.begin(v); e < G.end(v); e++)
+                    addEdge(v, G.to(e), G.weight(e), -1, -1);
+            }
+            contracted = new boolean[V];
+            contractedNeighbors = new int[V];
+            rank = new int[V];
+            witnesses = new ThreadLocal<Witness>() {
+                protected Witness initialValue() {
+                    return new Witness(V);
+                }
+            };
+        }
+
+        private void addEdge(int u, int x, double w, int e1, int e2) {
+            if (E == from.length) {
+                int n = 2 * E;
+                from = Arrays.copyOf(from, n);
+                to = Arrays.copyOf(to, n);
+                first = Arrays.copyOf(first, n);
+                second = Arrays.copyOf(second, n);
+                weight = Arrays.copyOf(weight, n);
+            }
+            from[E] = u;
+            to[E] = x;
+            weight[E] = w;
+            first[E] = e1;
+            second[E] = e2;
+            out[u].add(E);
+            in[x].add(E);
+            E++;
+        }
+
+        void contractAll() {
+            final double[] priority = new double[V];
+            IntStream.range(0, V).parallel().forEach(v -> priority[v] = priority(v));
+            IndexDoubleMinPQ pq = new IndexDoubleMinPQ(V);
+            for (int v = 0; v < V; v++)
+                pq.insert(v, priority[v]);
+
+            int next = 0;
+            while (!pq.isEmpty()) {
+                int v = pq.delMin();
+                // lazy update: if v got more important, put it back
+                double p = priority(v);
+                if (!pq.isEmpty() && p > pq.minKey()) {
+                    pq.insert(v, p);
+                    continue;
+                }
+                contract(v, witnesses.get(), true);
+                contracted[v] = true;
+                rank[v] = next++;
+
+                final int[] neighbors = neighbors(v);
+                for (int u : neighbors)
+                    contractedNeighbors[u]++;
+                final double[] updated = new double[neighbors.length];
+                IntStream.range(0, neighbors.length).parallel()
+                         .forEach(i -> updated[i] = priority(neighbors[i]));
+                for (int i = 0; i < neighbors.length; i++)
+                    pq.changeKey(neighbors[i], updated[i]);
+            }
+        }
+
+        // distinct uncontracted neighbors of v
+        private int[] neighbors(int v) {
+            IntList list = new IntList();
+            Witness w = witnesses.get();
+            w.newMark();
+            for (int i = 0; i < out[v].size(); i++) {
+                int u = to[out[v].get(i)];
+                if (!contracted[u] && u != v && w.mark(u)) list.add(u);
+            }
+            for (int i = 0; i < in[v].size(); i++) {
+                int u = from[in[v].get(i)];
+                if (!contracted[u] && u != v && w.mark(u)) list.add(u);
+            }
+            return list.toArray();
+        }
+
+        private double priority(int v) {
+            Witness w = witnesses.get();
+            int shortcuts = contract(v, w, false);
+            int removed = 0;
+            for (int i = 0; i < out[v].size(); i++)
+                if (!contracted[to[out[v].get(i)]]) removed++;
+            for (int i = 0; i < in[v].size(); i++)
+                if (!contracted[from[in[v].get(i)]]) removed++;
+            return shortcuts - removed + contractedNeighbors[v];
+        }
+
+        // count (and if add is true, insert) the shortcuts needed to contract v
+        private int contract(int v, Witness w, boolean add) {
+            // cheapest edge from each uncontracted predecessor and to each successor
+            int nIn = w.collect(in[v], from, weight, contracted, v, true);
+            int nOut = w.collect(out[v], to, weight, contracted, v, false);
+            if (nIn == 0 || nOut == 0) return 0;
+            double maxOut = 0.0;
+            for (int j = 0; j < nOut; j++)
+                maxOut = Math.max(maxOut, w.outW[j]);
+
+            int shortcuts = 0;
+            for (int i = 0; i < nIn; i++) {
+                int u = w.inV[i];
+                w.search(this, u, v, w.inW[i] + maxOut);
+                for (int j = 0; j < nOut; j++) {
+                    int x = w.outV[j];
+                    if (x == u) continue;
+                    double via = w.inW[i] + w.outW[j];
+                    if (w.distance(x) <= via) continue;   // witness path avoids v
+                    shortcuts++;
+                    if (add) addEdge(u, x, via, w.inE[i], w.outE[j]);
+                }
+            }
+            return shortcuts;
+        }
+    }
+
+    // per-thread scratch space for witness searches and neighbor collection
+    private static final class Witness {
+        final double[] dist;
+        final int[] stamp;
+        int gen;
+        final int[] mark;            // mark[v] == markGen: v already collected
+        int markGen;
+        final int[] slot;            // slot[v] = index of v in inV / outV
+        final IndexDoubleMinPQ heap;
+        int[] inV = new int[8], outV = new int[8], inE = new int[8], outE = new int[8];
+        double[] inW = new double[8], outW = new double[8];
+
+        Witness(int V) {
+            heap = new IndexDoubleMinPQ(V);
+            dist = new double[V];
+            stamp = new int[V];
+            mark = new int[V];
+            slot = new int[V];
+        }
+
+        void newMark() {
+            if (++markGen == 0) {
+                Arrays.fill(mark, 0);
+                markGen = 1;
+            }
+        }
+
+        boolean mark(int v) {
+            if (mark[v] == markGen) return false;
+            mark[v] = markGen;
+            return true;
+        }
+
+        // gather the cheapest edge per uncontracted neighbor into the in or out arrays
+        int collect(IntList edges, int[] end, double[] weight, boolean[] contracted, int v, boolean incoming) {
+            newMark();
+            int n = 0;
+            for (int i = 0; i < edges.size(); i++) {
+                int e = edges.get(i), u = end[e];
+                if (contracted[u] || u == v) continue;
+                if (mark(u)) {
+                    if (n == inV.length || n == outV.length) grow(2 * n);
+                    slot[u] = n++;
+                    if (incoming) { inV[slot[u]] = u; inW[slot[u]] = weight[e]; inE[slot[u]] = e; }
+                    else          { outV[slot[u]] = u; outW[slot[u]] = weight[e]; outE[slot[u]] = e; }
+                }
+                else if (incoming && weight[e] < inW[slot[u]])  { inW[slot[u]] = weight[e]; inE[slot[u]] = e; }
+                else if (!incoming && weight[e] < outW[slot[u]]) { outW[slot[u]] = weight[e]; outE[slot[u]] = e; }
+            }
+            return n;
+        }
+
+        private void grow(int n) {
+            inV = Arrays.copyOf(inV, n);
+            outV = Arrays.copyOf(outV, n);
+            inE = Arrays.copyOf(inE, n);
+            outE = Arrays.copyOf(outE, n);
+            inW = Arrays.copyOf(inW, n);
+            outW = Arrays.copyOf(outW, n);
+        }
+
+        double distance(int v) {
+            return stamp[v] == gen ? dist[v] : Double.POSITIVE_INFINITY;
+        }
+
+        // Dijkstra from u among uncontracted vertices other than v, up to limit
+        void search(Builder b, int u, int v, double limit) {
+            if (++gen == 0) {
+                Arrays.fill(stamp, 0);
+                gen = 1;
+            }
+            heap.clear();
+            stamp[u] = gen;
+            dist[u] = 0.0;
+            heap.insert(u, 0.0);
+            int settled = 0;
+            while (!heap.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                double d = heap.minKey();
+                int x = heap.delMin();
+                if (d > limit) break;
+                settled++;
+                IntList edges = b.out[x];
+                for (int i = 0; i < edges.size(); i++) {
+                    int e = edges.get(i), y = b.to[e];
+                    if (y == v || b.contracted[y]) continue;
+                    double dy = d + b.weight[e];
+                    if (dy < distance(y)) {
+                        stamp[y] = gen;
+                        dist[y] = dy;
+                        if (heap.contains(y)) heap.decreaseKey(y, dy);
+                        else                  heap.insert(y, dy);
+                    }
+                }
+            }
+        }
+    }
+
+    // growable array of ints
+    private static final class IntList {
+        private int[] a = new int[4];
+        private int N;
+
+        int size()        { return N; }
+        int get(int i)    { return a[i]; }
+        int pop()         { return a[--N]; }
+        int[] toArray()   { return Arrays.copyOf(a, N); }
+
+        void add(int x) {
+            if (N == a.length) a = Arrays.copyOf(a, 2 * N);
+            a[N++] = x;
+        }
+
+        void reverse() {
+            for (int i = 0, j = N - 1; i < j; i++, j--) {
+                int swap = a[i];
+                a[i] = a[j];
+                a[j] = swap;
+            }
+        }
+    }
+
+    /**
+     * Builds or loads a hierarchy for a map file, saves it, and compares its
+     * queries with early-exit Dijkstra on random pairs of vertices.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        CSRDigraph G = map.graph();
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        long start = System.nanoTime();
+        ContractionHierarchy ch;
+        if (args.length > 1 && new java.io.File(args[1]).exists()) {
+            ch = load(args[1], G);
+            System.out.printf("loaded %s in %.1f ms%n", args[1], (System.nanoTime() - start) / 1e6);
+        }
+        else {
+            ch = new ContractionHierarchy(G);
+            System.out.printf("built hierarchy in %.1f ms: %d shortcuts for %d edges%n",
+                    (System.nanoTime() - start) / 1e6, ch.shortcuts(), G.E());
+            if (args.length > 1) ch.save(args[1]);
+        }
+
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        int[] s = new int[queries], t = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            s[i] = vertices[random.nextInt(n)];
+            t[i] = vertices[random.nextInt(n)];
+        }
+        for (int round = 0; round < 2; round++) {
+            long timeDijkstra = 0, timeCH = 0;
+            int mismatches = 0;
+            for (int i = 0; i < queries; i++) {
+                long t0 = System.nanoTime();
+                DijkstraSP dijkstra = new DijkstraSP(G, s[i], t[i]);
+                timeDijkstra += System.nanoTime() - t0;
+                t0 = System.nanoTime();
+                int[] path = ch.path(s[i], t[i]);
+                timeCH += System.nanoTime() - t0;
+                double expected = dijkstra.distTo(t[i]);
+                double found = ch.distance(s[i], t[i]);
+                if ((path == null) != !dijkstra.hasPathTo(t[i])
+                        || (expected != found && Math.abs(expected - found) > 1e-9))
+                    mismatches++;
+            }
+            if (round == 0) continue;
+            System.out.printf("%d queries, %d mismatches%n", queries, mismatches);
+            System.out.printf("early-exit Dijkstra %8.1f us/query%n", timeDijkstra / 1e3 / queries);
+            System.out.printf("contraction query   %8.1f us/query (with path unpacking)%n", timeCH / 1e3 / queries);
+        }
+    }
+}
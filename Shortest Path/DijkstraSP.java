@@ -1,7 +1,8 @@
 /*************************************************************************
  *  Compilation:  javac DijkstraSP.java
  *  Execution:    java DijkstraSP input.txt s
- *  Dependencies: EdgeWeightedDigraph.java IndexMinPQ.java Stack.java DirectedEdge.java
+ *  Dependencies: EdgeWeightedDigraph.java CSRDigraph.java SearchWorkspace.java IndexDoubleMinPQ.java
+ *                Stack.java DirectedEdge.java
  *  Data files:   http://algs4.cs.princeton.edu/44sp/tinyEWD.txt
  *                http://algs4.cs.princeton.edu/44sp/mediumEWD.txt
  *                http://algs4.cs.princeton.edu/44sp/largeEWD.txt
@@ -35,7 +36,11 @@
  *  single-source shortest paths problem in edge-weighted digraphs
  *  where the edge weights are nonnegative.
  *  <p>
- *  This implementation uses Dijkstra's algorithm with a binary heap.
+ *  This implementation uses Dijkstra's algorithm with a 4-ary heap of
+ *  primitive <tt>double</tt> keys ({@link IndexDoubleMinPQ}).
+ *  The search runs over a {@link CSRDigraph}; an {@link EdgeWeightedDigraph}
+ *  is converted to one first. The arrays and priority queue can come from
+ *  a {@link SearchWorkspace} that is reused from one search to the next.
  *  The constructor takes time proportional to <em>E</em> log <em>V</em>,
  *  where <em>V</em> is the number of vertices and <em>E</em> is the number of edges.
  *  Afterwards, the <tt>distTo()</tt> and <tt>hasPathTo()</tt> methods take
@@ -49,9 +54,10 @@
  *  @author Kevin Wayne
  */
 public class DijkstraSP {
-    private double[] distTo;          // distTo[v] = distance  of shortest s->v path
-    private DirectedEdge[] edgeTo;    // edgeTo[v] = last edge on shortest s->v path
-    private IndexMinPQ<Double> pq;    // priority queue of vertices
+    private final CSRDigraph G;       // the digraph the search ran on
+    private final SearchWorkspace ws; // distTo, edgeTo (CSR index of last edge) and pq
+    private final int generation;     // the workspace generation this search wrote
+    private int settled;              // number of vertices removed from pq
 
     /**
      * Computes a shortest paths tree from <tt>s</tt> to every other vertex in
@@ -62,38 +68,104 @@ public class DijkstraSP {
      * @throws IllegalArgumentException unless 0 &le; <tt>s</tt> &le; <tt>V</tt> - 1
      */
     public DijkstraSP(EdgeWeightedDigraph G, int s) {
-        for (DirectedEdge e : G.edges()) {
-            if (e.weight() < 0)
-                throw new IllegalArgumentException("edge " + e + " has negative weight");
-        }
+        this(new CSRDigraph(G), s);
+    }
+
+    /**
+     * Computes a shortest paths tree from <tt>s</tt> to every other vertex in
+     * the CSR digraph <tt>G</tt>. No edge objects are created during the search.
+     * @param G the edge-weighted digraph
+     * @param s the source vertex
+     * @throws IllegalArgumentException if an edge weight is negative
+     * @throws IllegalArgumentException unless 0 &le; <tt>s</tt> &le; <tt>V</tt> - 1
+     */
+    public DijkstraSP(CSRDigraph G, int s) {
+        this(G, s, -1);
+    }
+
+    /**
+     * Computes a shortest path from <tt>s</tt> to <tt>t</tt> in the CSR
+     * digraph <tt>G</tt>, stopping as soon as <tt>t</tt> is removed from the
+     * priority queue. Up to that point the search is the same as the full one,
+     * so <tt>distTo(t)</tt> and <tt>pathTo(t)</tt> give the same result;
+     * for other vertices they are only exact if the vertex was settled first.
+     * @param G the edge-weighted digraph
+     * @param s the source vertex
+     * @param t the target vertex, or -1 to search the whole digraph
+     * @throws IllegalArgumentException if an edge weight is negative
+     * @throws IllegalArgumentException unless 0 &le; <tt>s</tt> &le; <tt>V</tt> - 1
+     *    and -1 &le; <tt>t</tt> &le; <tt>V</tt> - 1
+     */
+    public DijkstraSP(CSRDigraph G, int s, int t) {
+        this(G, s, t, new SearchWorkspace(G.V()));
+    }
 
-        distTo = new double[G.V()];
-        edgeTo = new DirectedEdge[G.V()];
-        for (int v = 0; v < G.V(); v++)
-            distTo[v] = Double.POSITIVE_INFINITY;
-        distTo[s] = 0.0;
+    /**
+     * Computes a shortest path from <tt>s</tt> to <tt>t</tt> (or a shortest
+     * paths tree, if <tt>t</tt> is -1) as above, in the buffers of
+     * <tt>ws</tt> instead of newly allocated ones. The results can be read
+     * until the next search starts on <tt>ws</tt>.
+     * @param G the edge-weighted digraph
+     * @param s the source vertex
+     * @param t the target vertex, or -1 to search the whole digraph
+     * @param ws the workspace, sized for <tt>G</tt>
+     * @throws IllegalArgumentException if an edge weight is negative, if
+     *    <tt>ws</tt> has the wrong size, or unless 0 &le; <tt>s</tt> &le;
+     *    <tt>V</tt> - 1 and -1 &le; <tt>t</tt> &le; <tt>V</tt> - 1
+     */
+    public DijkstraSP(CSRDigraph G, int s, int t, SearchWorkspace ws) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        if (s < 0 || s >= G.V())
+            throw new IllegalArgumentException("vertex " + s + " is not between 0 and " + (G.V()-1));
+        if (t < -1 || t >= G.V())
+            throw new IllegalArgumentException("vertex " + t + " is not between 0 and " + (G.V()-1));
+        if (ws.V() != G.V())
+            throw new IllegalArgumentException("workspace is not sized for this digraph");
+
+        this.G = G;
+        this.ws = ws;
+        this.generation = ws.begin();
+        ws.set(s, 0.0, -1);
 
         // relax vertices in order of distance from s
-        pq = new IndexMinPQ<Double>(G.V());
-        pq.insert(s, distTo[s]);
+        IndexDoubleMinPQ pq = ws.pq();
+        pq.insert(s, 0.0);
         while (!pq.isEmpty()) {
             int v = pq.delMin();
-            for (DirectedEdge e : G.adj(v))
-                relax(e);
+            settled++;
+            if (v == t) break;
+            for (int e = G.begin(v); e < G.end(v); e++)
+                relax(pq, v, e);
         }
     }
 
-    // relax edge e and update pq if changed
-    private void relax(DirectedEdge e) {
-        int v = e.from(), w = e.to();
-        if (distTo[w] > distTo[v] + e.weight()) {
-            distTo[w] = distTo[v] + e.weight();
-            edgeTo[w] = e;
-            if (pq.contains(w)) pq.decreaseKey(w, distTo[w]);
-            else                pq.insert(w, distTo[w]);
+    // relax edge e from v and update pq if changed
+    private void relax(IndexDoubleMinPQ pq, int v, int e) {
+        int w = G.to(e);
+        double dist = ws.distTo(v) + G.weight(e);
+        if (ws.distTo(w) > dist) {
+            ws.set(w, dist, e);
+            if (pq.contains(w)) pq.decreaseKey(w, dist);
+            else                pq.insert(w, dist);
         }
     }
 
+    // the results live in the workspace; make sure no later search overwrote them
+    private void check() {
+        if (ws.generation() != generation)
+            throw new IllegalStateException("workspace was reused by a later search");
+    }
+
+    /**
+     * Returns the number of vertices the search settled (removed from the
+     * priority queue).
+     * @return the number of settled vertices
+     */
+    public int settled() {
+        return settled;
+    }
+
     /**
      * Returns the length of a shortest path from the source vertex <tt>s</tt> to vertex <tt>v</tt>.
      * @param v the destination vertex
@@ -101,7 +173,8 @@ public class DijkstraSP {
      *    <tt>Double.POSITIVE_INFINITY</tt> if no such path
      */
     public double distTo(int v) {
-        return distTo[v];
+        check();
+        return ws.distTo(v);
     }
 
     /**
@@ -111,7 +184,8 @@ public class DijkstraSP {
      *    <tt>s</tt> to vertex <tt>v</tt>, and <tt>false</tt> otherwise
      */
     public boolean hasPathTo(int v) {
-        return distTo[v] < Double.POSITIVE_INFINITY;
+        check();
+        return ws.distTo(v) < Double.POSITIVE_INFINITY;
     }
 
     /**
@@ -123,9 +197,31 @@ public class DijkstraSP {
     public Iterable<DirectedEdge> pathTo(int v) {
         if (!hasPathTo(v)) return null;
         Stack<DirectedEdge> path = new Stack<DirectedEdge>();
-        for (DirectedEdge e = edgeTo[v]; e != null; e = edgeTo[e.from()]) {
-            path.push(e);
+        for (int e = ws.edgeTo(v); e != -1; e = ws.edgeTo(G.from(e))) {
+            path.push(G.edge(e));
+        }
+        return path;
+    }
+
+    /**
+     * Returns the vertices on a shortest path from the source vertex <tt>s</tt>
+     * to vertex <tt>v</tt>, without creating any edge objects.
+     * @param v the destination vertex
+     * @return the vertices <tt>s</tt>, ..., <tt>v</tt> of a shortest path in order,
+     *    and <tt>null</tt> if no such path
+     */
+    public int[] verticesTo(int v) {
+        if (!hasPathTo(v)) return null;
+        int n = 1;
+        for (int x = v; ws.edgeTo(x) != -1; x = G.from(ws.edgeTo(x)))
+            n++;
+        int[] path = new int[n];
+        int x = v;
+        for (int i = n - 1; i > 0; i--) {
+            path[i] = x;
+            x = G.from(ws.edgeTo(x));
         }
+        path[0] = x;
         return path;
     }
 }
@@ -0,0 +1,17 @@
+/**
+ *  The <tt>DistanceHeuristic</tt> interface gives a goal-directed search
+ *  such as {@link AStarSP} a lower bound on the remaining distance to the
+ *  target. A bound that never overestimates keeps the search exact; one
+ *  that also satisfies the triangle inequality along every edge lets
+ *  each vertex be settled only once.
+ */
+public interface DistanceHeuristic {
+
+    /**
+     * Returns a lower bound on the length of any path from <tt>v</tt> to <tt>t</tt>.
+     * @param v the vertex
+     * @param t the target vertex
+     * @return a lower bound on the distance from <tt>v</tt> to <tt>t</tt>
+     */
+    double lowerBound(int v, int t);
+}
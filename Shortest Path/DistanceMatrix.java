@@ -0,0 +1,233 @@
+/*************************************************************************
+ *  Compilation:  javac DistanceMatrix.java
+ *  Execution:    java DistanceMatrix lab2.osm.txt n1 n2 ...
+ *  Dependencies: CSRDigraph.java SearchWorkspace.java IndexDoubleMinPQ.java
+ *                DijkstraSP.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Many-to-many shortest-path distances.
+ *  The test client computes n-by-n tables between random vertices for
+ *  each size given, reports throughput, and spot-checks entries against
+ *  DijkstraSP.
+ *
+ *  % java DistanceMatrix lab2.osm.txt 100 1000
+ *
+ *************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ *  The <tt>DistanceMatrix</tt> class computes the shortest-path distance
+ *  from each of <em>N</em> sources to each of <em>M</em> targets, row-major
+ *  in one <tt>double[]</tt>: entry <tt>i*M + j</tt> is the distance from
+ *  <tt>sources[i]</tt> to <tt>targets[j]</tt>, and
+ *  <tt>Double.POSITIVE_INFINITY</tt> if there is no path.
+ *  <p>
+ *  Each distinct source gets one Dijkstra search, so repeated sources cost
+ *  nothing extra; their rows are copied. A search stops as soon as it has
+ *  settled every distinct target, so a table over a small area does not
+ *  explore the whole map. Searches run as tasks on an executor, a few
+ *  sources per task, and each worker thread reuses one
+ *  {@link SearchWorkspace}. A caller that computes many tables passes in
+ *  workspaces it keeps, one per thread, so that they are also reused from
+ *  one table to the next.
+ */
+public class DistanceMatrix {
+    private static final int SOURCES_PER_TASK = 4;
+
+    // static methods only
+    private DistanceMatrix() { }
+
+    /**
+     * Computes the distance table in the common fork-join pool.
+     * @param G the edge-weighted digraph
+     * @param sources the source vertices
+     * @param targets the target vertices
+     * @return the <tt>sources.length</tt>-by-<tt>targets.length</tt> table, row-major
+     * @throws IllegalArgumentException if an edge weight is negative or a
+     *    vertex is not between 0 and <tt>V</tt> - 1
+     */
+    public static double[] compute(CSRDigraph G, int[] sources, int[] targets) {
+        return compute(G, sources, targets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Computes the distance table with the searches running on <tt>pool</tt>.
+     * @param G the edge-weighted digraph
+     * @param sources the source vertices
+     * @param targets the target vertices
+     * @param pool the executor to run the searches on
+     * @return the <tt>sources.length</tt>-by-<tt>targets.length</tt> table, row-major
+     * @throws IllegalArgumentException if an edge weight is negative or a
+     *    vertex is not between 0 and <tt>V</tt> - 1
+     * @throws IllegalStateException if the calling thread is interrupted
+     *    or a search fails
+     */
+    public static double[] compute(final CSRDigraph G, int[] sources, int[] targets,
+                                   ExecutorService pool) {
+        final ThreadLocal<SearchWorkspace> workspaces = new ThreadLocal<SearchWorkspace>() {
+            protected SearchWorkspace initialValue() {
+                return new SearchWorkspace(G.V());
+            }
+        };
+        return compute(G, sources, targets, pool, workspaces::get);
+    }
+
+    /**
+     * Computes the distance table with the searches running on
+     * <tt>pool</tt>, in workspaces of the caller's, such as one per thread
+     * from a <tt>ThreadLocal</tt>.
+     * @param G the edge-weighted digraph
+     * @param sources the source vertices
+     * @param targets the target vertices
+     * @param pool the executor to run the searches on
+     * @param workspaces gives the calling thread a workspace sized for
+     *    <tt>G</tt> that no other thread is using
+     * @return the <tt>sources.length</tt>-by-<tt>targets.length</tt> table, row-major
+     * @throws IllegalArgumentException if an edge weight is negative or a
+     *    vertex is not between 0 and <tt>V</tt> - 1
+     * @throws IllegalStateException if the calling thread is interrupted
+     *    or a search fails
+     */
+    public static double[] compute(final CSRDigraph G, int[] sources, final int[] targets,
+                                   ExecutorService pool, final Supplier<SearchWorkspace> workspaces) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        final int V = G.V();
+        for (int v : sources)
+            if (v < 0 || v >= V) throw new IllegalArgumentException("vertex " + v + " is not between 0 and " + (V-1));
+        for (int v : targets)
+            if (v < 0 || v >= V) throw new IllegalArgumentException("vertex " + v + " is not between 0 and " + (V-1));
+        final int M = targets.length;
+        final double[] matrix = new double[sources.length * M];
+        if (M == 0 || sources.length == 0) return matrix;
+
+        // distinct targets; the searches only read this
+        final boolean[] isTarget = new boolean[V];
+        int distinctTargets = 0;
+        for (int t : targets) {
+            if (!isTarget[t]) distinctTargets++;
+            isTarget[t] = true;
+        }
+        final int T = distinctTargets;
+
+        // distinct sources, each with the first row it fills
+        int[] firstRow = new int[V];
+        Arrays.fill(firstRow, -1);
+        int[] distinct = new int[sources.length];
+        int n = 0;
+        for (int i = 0; i < sources.length; i++) {
+            if (firstRow[sources[i]] == -1) {
+                firstRow[sources[i]] = i;
+                distinct[n++] = i;
+            }
+        }
+
+        final int[] rows = distinct;
+        final int[] src = sources;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int lo = 0; lo < n; lo += SOURCES_PER_TASK) {
+            final int from = lo, to = Math.min(n, lo + SOURCES_PER_TASK);
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    SearchWorkspace ws = workspaces.get();
+                    for (int k = from; k < to; k++) {
+                        int row = rows[k];
+                        search(G, src[row], isTarget, T, ws);
+                        for (int j = 0; j < M; j++)
+                            matrix[row * M + j] = ws.distTo(targets[j]);
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks))
+                f.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while computing a distance matrix", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("distance matrix search failed", e.getCause());
+        }
+
+        // rows of repeated sources
+        for (int i = 0; i < sources.length; i++) {
+            int first = firstRow[sources[i]];
+            if (first != i) System.arraycopy(matrix, first * M, matrix, i * M, M);
+        }
+        return matrix;
+    }
+
+    // Dijkstra from s in ws until all T distinct targets are settled
+    private static void search(CSRDigraph G, int s, boolean[] isTarget, int T, SearchWorkspace ws) {
+        ws.begin();
+        IndexDoubleMinPQ pq = ws.pq();
+        ws.set(s, 0.0, -1);
+        pq.insert(s, 0.0);
+        int settledTargets = 0;
+        while (!pq.isEmpty()) {
+            int v = pq.delMin();
+            if (isTarget[v] && ++settledTargets == T) return;
+            double dv = ws.distTo(v);
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                double dist = dv + G.weight(e);
+                if (ws.distTo(w) > dist) {
+                    ws.set(w, dist, e);
+                    if (pq.contains(w)) pq.decreaseKey(w, dist);
+                    else                pq.insert(w, dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes random n-by-n tables for each size given, reports entries per
+     * second, and checks some entries against DijkstraSP.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        CSRDigraph G = map.graph();
+        int[] vertices = new int[G.V()];
+        int count = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[count++] = v;
+        Random random = new Random(311);
+
+        for (int a = 1; a < Math.max(2, args.length); a++) {
+            int n = args.length > 1 ? Integer.parseInt(args[a]) : 100;
+            int[] s = new int[n], t = new int[n];
+            for (int i = 0; i < n; i++) {
+                s[i] = vertices[random.nextInt(count)];
+                t[i] = vertices[random.nextInt(count)];
+            }
+            double[] matrix = null;
+            long time = 0;
+            for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+                long start = System.nanoTime();
+                matrix = compute(G, s, t);
+                time = System.nanoTime() - start;
+            }
+            int mismatches = 0;
+            for (int k = 0; k < 100; k++) {
+                int i = random.nextInt(n), j = random.nextInt(n);
+                double expected = new DijkstraSP(G, s[i], t[j]).distTo(t[j]);
+                if (expected != matrix[i * n + j] && Math.abs(expected - matrix[i * n + j]) > 1e-9) mismatches++;
+            }
+            System.out.printf("%5d x %-5d %9.1f ms %12.0f entries/s  %d of 100 checks wrong%n",
+                    n, n, time / 1e6, (double) n * n / (time / 1e9), mismatches);
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*************************************************************************
+ *  Compilation:  javac GraphDiameter.java
+ *  Execution:    java GraphDiameter lab2.osm.txt
+ *  Dependencies: CSRDigraph.java SearchWorkspace.java IndexDoubleMinPQ.java
+ *                DijkstraSP.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Weighted diameter of a digraph: exactly, with one Dijkstra search per
+ *  source spread over a fork-join pool, or approximately, with a double
+ *  sweep that brackets it between a lower and an upper bound.
+ *
+ *  % java GraphDiameter lab2.osm.txt
+ *
+ *************************************************************************/
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  The <tt>GraphDiameter</tt> class finds the longest of all shortest
+ *  paths in an edge-weighted digraph, over the pairs of vertices that
+ *  have a path at all.
+ *  <p>
+ *  {@link #exact} runs Dijkstra's algorithm from every vertex that has an
+ *  outgoing edge. The sources are split into ranges that a
+ *  {@link ForkJoinPool} hands out to its workers; each worker thread keeps
+ *  one {@link SearchWorkspace}, so a search costs time in the vertices it
+ *  reaches and nothing is allocated per source. Dijkstra's algorithm
+ *  settles vertices in order of distance, so the last vertex a search
+ *  settles is the farthest one reachable from its source, and the ranges
+ *  reduce by keeping the largest. Progress is reported through a
+ *  {@link Progress} callback, and {@link #cancel} stops the workers at the
+ *  next source.
+ *  <p>
+ *  {@link #approximate} runs three searches instead of one per vertex. From
+ *  a hub vertex <tt>r</tt> it finds the farthest vertex <tt>b</tt> that
+ *  reaches <tt>r</tt> and the eccentricity of <tt>b</tt>; the longer of
+ *  the paths found from <tt>r</tt> and from <tt>b</tt> is a lower bound.
+ *  Every path <tt>x</tt>-&gt;<tt>y</tt> is at most
+ *  <tt>d(x, r)</tt> + <tt>d(r, y)</tt>, so the largest distance into
+ *  <tt>r</tt> plus the largest distance out of it is an upper bound, valid
+ *  when every vertex with an edge reaches <tt>r</tt> and is reached from
+ *  it; otherwise the upper bound is infinite.
+ */
+public class GraphDiameter {
+    private static final int LEAF = 8;      // sources per fork-join leaf
+
+    /**
+     * Receives progress reports from {@link GraphDiameter#exact}. Reports
+     * come from worker threads, about once per percent of the sources.
+     */
+    public interface Progress {
+        /**
+         * Reports that <tt>done</tt> of <tt>total</tt> sources have been searched.
+         * @param done the number of sources searched so far
+         * @param total the number of sources
+         */
+        void update(int done, int total);
+    }
+
+    /**
+     * The longest shortest path found, or the bounds around it.
+     */
+    public static final class Result {
+        private final CSRDigraph G;
+        private final int source, target;
+        private final double distance, upperBound;
+
+        private Result(CSRDigraph G, int source, int target, double distance, double upperBound) {
+            this.G = G;
+            this.source = source;
+            this.target = target;
+            this.distance = distance;
+            this.upperBound = upperBound;
+        }
+
+        /**
+         * Returns the first vertex of the path, or -1 if the digraph has no edges.
+         * @return the source of the path
+         */
+        public int source()     { return source; }
+
+        /**
+         * Returns the last vertex of the path, or -1 if the digraph has no edges.
+         * @return the target of the path
+         */
+        public int target()     { return target; }
+
+        /**
+         * Returns the length of the path: the diameter for an exact result,
+         * a lower bound on it for an approximate one.
+         * @return the length of the path, or 0.0 if the digraph has no edges
+         */
+        public double distance()   { return distance; }
+
+        /**
+         * Returns an upper bound on the diameter; the same as
+         * <tt>distance()</tt> for an exact result.
+         * @return an upper bound on the diameter, possibly infinite
+         */
+        public double upperBound() { return upperBound; }
+
+        /**
+         * Returns the vertices of a shortest path from <tt>source()</tt> to
+         * <tt>target()</tt>.
+         * @return the vertices of the path in order, or an empty array if
+         *    the digraph has no edges
+         */
+        public int[] path() {
+            if (source == -1) return new int[0];
+            return new DijkstraSP(G, source, target).verticesTo(target);
+        }
+    }
+
+    private final CSRDigraph G;
+    private final int[] sources;            // vertices with an outgoing edge
+    private volatile boolean cancelled;
+    private final ThreadLocal<SearchWorkspace> workspaces;
+
+    /**
+     * Prepares to measure <tt>G</tt>.
+     * @param G the edge-weighted digraph
+     * @throws IllegalArgumentException if an edge weight is negative
+     */
+    public GraphDiameter(final CSRDigraph G) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        this.G = G;
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) n++;
+        sources = new int[n];
+        n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) sources[n++] = v;
+        workspaces = new ThreadLocal<SearchWorkspace>() {
+            protected SearchWorkspace initialValue() {
+                return new SearchWorkspace(G.V());
+            }
+        };
+    }
+
+    /**
+     * Asks a running or later call of <tt>exact</tt> to stop; it then throws
+     * <tt>CancellationException</tt>. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Computes the diameter in the common fork-join pool.
+     * @param progress receives progress reports, or <tt>null</tt>
+     * @return the longest shortest path
+     * @throws CancellationException if {@link #cancel} was called
+     */
+    public Result exact(Progress progress) {
+        return exact(ForkJoinPool.commonPool(), progress);
+    }
+
+    /**
+     * Computes the diameter in the given fork-join pool.
+     * @param pool the pool to run the searches in
+     * @param progress receives progress reports, or <tt>null</tt>
+     * @return the longest shortest path
+     * @throws CancellationException if {@link #cancel} was called
+     */
+    public Result exact(ForkJoinPool pool, Progress progress) {
+        if (cancelled) throw new CancellationException("diameter computation was cancelled");
+        if (sources.length == 0) return new Result(G, -1, -1, 0.0, 0.0);
+        Sweep best = pool.invoke(new Sweep(0, sources.length, progress, new AtomicInteger(),
+                Math.max(1, sources.length / 100)));
+        if (cancelled) throw new CancellationException("diameter computation was cancelled");
+        return new Result(G, best.source, best.target, best.distance, best.distance);
+    }
+
+    // searches sources[lo..hi-1]; after compute(), source/target/distance hold the farthest pair
+    private final class Sweep extends RecursiveTask<Sweep> {
+        private static final long serialVersionUID = 1L;
+        private final int lo, hi;
+        private final Progress progress;
+        private final AtomicInteger done;
+        private final int step;             // report every step sources
+        int source = -1, target = -1;
+        double distance = -1.0;
+
+        Sweep(int lo, int hi, Progress progress, AtomicInteger done, int step) {
+            this.lo = lo;
+            this.hi = hi;
+            this.progress = progress;
+            this.done = done;
+            this.step = step;
+        }
+
+        protected Sweep compute() {
+            if (hi - lo > LEAF) {
+                int mid = (lo + hi) >>> 1;
+                Sweep left = new Sweep(lo, mid, progress, done, step);
+                Sweep right = new Sweep(mid, hi, progress, done, step);
+                left.fork();
+                Sweep r = right.compute();
+                return farther(left.join(), r);
+            }
+            SearchWorkspace ws = workspaces.get();
+            for (int i = lo; i < hi && !cancelled; i++) {
+                int s = sources[i];
+                int t = farthest(G, s, ws);
+                double d = ws.distTo(t);
+                if (d > distance || (d == distance && s < source)) {
+                    source = s;
+                    target = t;
+                    distance = d;
+                }
+                int n = done.incrementAndGet();
+                if (progress != null && (n % step == 0 || n == sources.length))
+                    progress.update(n, sources.length);
+            }
+            return this;
+        }
+    }
+
+    // the farther of two pairs; ties go to the smaller source, then the smaller target
+    private static Sweep farther(Sweep a, Sweep b) {
+        if (a.distance != b.distance) return a.distance > b.distance ? a : b;
+        if (a.source != b.source)     return a.source < b.source ? a : b;
+        return a.target <= b.target ? a : b;
+    }
+
+    // full Dijkstra search from s in ws; returns the last vertex settled,
+    // which is a farthest vertex reachable from s (ties: the one settled last)
+    private static int farthest(CSRDigraph H, int s, SearchWorkspace ws) {
+        ws.begin();
+        IndexDoubleMinPQ pq = ws.pq();
+        ws.set(s, 0.0, -1);
+        pq.insert(s, 0.0);
+        int last = s;
+        while (!pq.isEmpty()) {
+            int v = pq.delMin();
+            last = v;
+            double dv = ws.distTo(v);
+            for (int e = H.begin(v); e < H.end(v); e++) {
+                int w = H.to(e);
+                double dist = dv + H.weight(e);
+                if (ws.distTo(w) > dist) {
+                    ws.set(w, dist, e);
+                    if (pq.contains(w)) pq.decreaseKey(w, dist);
+                    else                pq.insert(w, dist);
+                }
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Brackets the diameter with a double sweep from the vertex with the
+     * most outgoing edges.
+     * @return a path whose length is a lower bound on the diameter, with an
+     *    upper bound on it
+     */
+    public Result approximate() {
+        if (sources.length == 0) return new Result(G, -1, -1, 0.0, 0.0);
+        int r = sources[0];
+        for (int v : sources)
+            if (G.outdegree(v) > G.outdegree(r)) r = v;
+
+        // vertices with an edge at all, in either direction
+        CSRDigraph R = G.reverse();
+        int withEdges = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0 || R.outdegree(v) > 0) withEdges++;
+
+        SearchWorkspace ws = new SearchWorkspace(G.V());
+        int a = farthest(G, r, ws);
+        double out = ws.distTo(a);
+        boolean reachesAll = reached(ws, R) == withEdges;
+
+        int b = farthest(R, r, ws);
+        double in = ws.distTo(b);
+        boolean reachedByAll = reached(ws, R) == withEdges;
+
+        int c = farthest(G, b, ws);
+        double fromB = ws.distTo(c);
+
+        double upper = reachesAll && reachedByAll ? in + out : Double.POSITIVE_INFINITY;
+        if (fromB > out) return new Result(G, b, c, fromB, upper);
+        return new Result(G, r, a, out, upper);
+    }
+
+    // vertices with an edge (R is the reverse of G) that the last search in ws reached
+    private int reached(SearchWorkspace ws, CSRDigraph R) {
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if ((G.outdegree(v) > 0 || R.outdegree(v) > 0) && ws.distTo(v) < Double.POSITIVE_INFINITY) n++;
+        return n;
+    }
+
+    /**
+     * Computes the diameter of a map's routing graph exactly and by double
+     * sweep, with progress reports, and times both.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        CSRDigraph G = map.graph();
+        GraphDiameter diameter = new GraphDiameter(G);
+
+        long start = System.nanoTime();
+        Result approx = diameter.approximate();
+        System.out.printf("double sweep: %.1f <= diameter <= %.1f (%.1f ms)%n",
+                approx.distance(), approx.upperBound(), (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        final int[] lastPercent = { -1 };
+        Result exact = diameter.exact(new Progress() {
+            public void update(int done, int total) {
+                int percent = (int) (100L * done / total);
+                synchronized (lastPercent) {
+                    if (percent / 25 > lastPercent[0] / 25) {
+                        System.out.printf("  %3d%% (%d of %d sources)%n", percent, done, total);
+                        lastPercent[0] = percent;
+                    }
+                }
+            }
+        });
+        long time = System.nanoTime() - start;
+        int[] path = exact.path();
+        System.out.printf("diameter %.1f from %d to %d, %d vertices (%.1f ms, %d workers)%n",
+                exact.distance(), map.nodeID(exact.source()), map.nodeID(exact.target()),
+                path.length, time / 1e6, ForkJoinPool.commonPool().getParallelism());
+    }
+}
@@ -0,0 +1,279 @@
+/*************************************************************************
+ *  Compilation:  javac GraphSnapshot.java
+ *  Execution:    java GraphSnapshot lab2.osm.txt lab2.osm.bin
+ *  Dependencies: MapData.java MapFileParser.java CSRDigraph.java LongIntHashMap.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Binary snapshot of a parsed map, loaded through a memory mapping.
+ *
+ *  % java GraphSnapshot lab2.osm.txt lab2.osm.bin
+ *  parsed lab2.osm.txt in ... ms
+ *  wrote lab2.osm.bin (... bytes) in ... ms
+ *  loaded lab2.osm.bin in ... ms
+ *
+ *************************************************************************/
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  The <tt>GraphSnapshot</tt> class writes a {@link MapData} to a versioned
+ *  binary file and reads it back. The file holds the node IDs and
+ *  coordinates, the node-ID hash table, the edge records, the packed
+ *  sub-node polylines and the CSR adjacency of the routing graph, so
+ *  loading is a sequence of bulk copies out of a read-only
+ *  {@link FileChannel#map memory mapping}: nothing is parsed, hashed or
+ *  sorted. The mapping is backed by the operating system's page cache,
+ *  so JVMs loading the same snapshot read it from memory after the
+ *  first one.
+ *  <p>
+ *  Layout (little-endian, every section starts on an 8-byte boundary):
+ *  <pre>
+ *    int    magic ("OSMG"), version
+ *    int    nodes N, vertices, edges E, sub-nodes S, hash capacity C,
+ *           routing vertices R
+ *    double bounds[4], projectedBounds[4]
+ *    long   nodeIDs[N];   double latitude[N], longitude[N]
+ *    long   hashKeys[C];  int hashValues[C]
+ *    int    edgeFrom[E], edgeTo[E];  double edgeWeight[E]
+ *    int    subNodeOffset[E+1];  long subNodeIDs[S]
+ *    int    csrOffset[R+1], csrTarget[E];  double csrWeight[E];  int csrEdgeID[E]
+ *  </pre>
+ *  A reader rejects files whose magic number or version differ from its own.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x4F534D47;   // "OSMG"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8 * 4 + 8 * 8;
+
+    // largest chunk mapped at once; a multiple of 8 below Integer.MAX_VALUE
+    private static final int CHUNK = 1 << 30;
+
+    // static methods only
+    private GraphSnapshot() { }
+
+    /**
+     * Does the named file start with the snapshot magic number?
+     * @param filename the file to test
+     * @return <tt>true</tt> if the file looks like a snapshot
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSnapshot(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            if (file.length() < 4) return false;
+            return Integer.reverseBytes(file.readInt()) == MAGIC;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Writes <tt>map</tt> to the named file, replacing its contents.
+     * @param map the map to write
+     * @param filename the snapshot file
+     * @throws IOException if writing fails
+     */
+    public static void write(MapData map, String filename) throws IOException {
+        CSRDigraph G = map.graph();
+        long[] keys = map.nodeIndex().keys();
+        int N = map.nodeCount(), E = map.edgeCount(), S = map.subNodeIDs().length, C = keys.length;
+
+        RandomAccessFile file = new RandomAccessFile(filename, "rw");
+        try {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION);
+            header.putInt(N).putInt(map.vertexCount()).putInt(E).putInt(S).putInt(C).putInt(G.V());
+            for (double b : map.bounds()) header.putDouble(b);
+            for (double b : map.projectedBounds()) header.putDouble(b);
+            header.flip();
+            channel.write(header, 0);
+
+            long pos = HEADER_BYTES;
+            pos = put(channel, pos, map.nodeIDs());
+            pos = put(channel, pos, map.latitudes());
+            pos = put(channel, pos, map.longitudes());
+            pos = put(channel, pos, keys);
+            pos = put(channel, pos, map.nodeIndex().values());
+            pos = put(channel, pos, map.edgeFroms());
+            pos = put(channel, pos, map.edgeTos());
+            pos = put(channel, pos, map.edgeWeights());
+            pos = put(channel, pos, map.subNodeOffsets());
+            pos = put(channel, pos, map.subNodeIDs());
+            pos = put(channel, pos, G.offsets());
+            pos = put(channel, pos, G.targets());
+            pos = put(channel, pos, G.weights());
+            pos = put(channel, pos, G.edgeIDs());
+            channel.force(false);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write}.
+     * @param filename the snapshot file
+     * @return the map
+     * @throws IOException if reading fails, or if the file is not a snapshot
+     *    of this version
+     */
+    public static MapData load(String filename) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_BYTES) throw new IOException(filename + ": not a graph snapshot");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                                       .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) throw new IOException(filename + ": not a graph snapshot");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException(filename + ": snapshot version " + version + ", expected " + VERSION);
+            int N = header.getInt(), vertices = header.getInt(), E = header.getInt();
+            int S = header.getInt(), C = header.getInt(), R = header.getInt();
+            double[] bounds = new double[4];
+            double[] projectedBounds = new double[4];
+            for (int i = 0; i < 4; i++) bounds[i] = header.getDouble();
+            for (int i = 0; i < 4; i++) projectedBounds[i] = header.getDouble();
+
+            long pos = HEADER_BYTES;
+            long[] nodeIDs = new long[N];          pos = get(channel, pos, nodeIDs);
+            double[] latitude = new double[N];     pos = get(channel, pos, latitude);
+            double[] longitude = new double[N];    pos = get(channel, pos, longitude);
+            long[] keys = new long[C];             pos = get(channel, pos, keys);
+            int[] vals = new int[C];               pos = get(channel, pos, vals);
+            int[] edgeFrom = new int[E];           pos = get(channel, pos, edgeFrom);
+            int[] edgeTo = new int[E];             pos = get(channel, pos, edgeTo);
+            double[] edgeWeight = new double[E];   pos = get(channel, pos, edgeWeight);
+            int[] subNodeOffset = new int[E + 1];  pos = get(channel, pos, subNodeOffset);
+            long[] subNodeIDs = new long[S];       pos = get(channel, pos, subNodeIDs);
+            int[] offset = new int[R + 1];         pos = get(channel, pos, offset);
+            int[] target = new int[E];             pos = get(channel, pos, target);
+            double[] weight = new double[E];       pos = get(channel, pos, weight);
+            int[] edgeID = new int[E];             pos = get(channel, pos, edgeID);
+            if (pos != channel.size()) throw new IOException(filename + ": truncated or oversized snapshot");
+
+            return new MapData(bounds, projectedBounds, vertices,
+                    nodeIDs, latitude, longitude, new LongIntHashMap(keys, vals),
+                    edgeFrom, edgeTo, edgeWeight, subNodeOffset, subNodeIDs,
+                    new CSRDigraph(offset, target, weight, edgeID));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(filename + ": corrupt snapshot: " + e.getMessage());
+        } finally {
+            file.close();
+        }
+    }
+
+    /*************************************************************************
+     *  Section helpers: each writes or reads one array starting at pos,
+     *  in chunks of at most CHUNK bytes, and returns the next 8-byte
+     *  aligned position.
+     *************************************************************************/
+
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long pos, long bytes)
+            throws IOException {
+        if (mode == FileChannel.MapMode.READ_ONLY && pos + bytes > channel.size())
+            throw new IOException("snapshot is truncated");
+        MappedByteBuffer buffer = channel.map(mode, pos, bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static long put(FileChannel channel, long pos, long[] a) throws IOException {
+        for (int i = 0; i < a.length; ) {
+            int n = Math.min(a.length - i, CHUNK / 8);
+            map(channel, FileChannel.MapMode.READ_WRITE, pos, 8L * n).asLongBuffer().put(a, i, n);
+            pos += 8L * n;
+            i += n;
+        }
+        return align(pos);
+    }
+
+    private static long put(FileChannel channel, long pos, double[] a) throws IOException {
+        for (int i = 0; i < a.length; ) {
+            int n = Math.min(a.length - i, CHUNK / 8);
+            map(channel, FileChannel.MapMode.READ_WRITE, pos, 8L * n).asDoubleBuffer().put(a, i, n);
+            pos += 8L * n;
+            i += n;
+        }
+        return align(pos);
+    }
+
+    private static long put(FileChannel channel, long pos, int[] a) throws IOException {
+        for (int i = 0; i < a.length; ) {
+            int n = Math.min(a.length - i, CHUNK / 4);
+            map(channel, FileChannel.MapMode.READ_WRITE, pos, 4L * n).asIntBuffer().put(a, i, n);
+            pos += 4L * n;
+            i += n;
+        }
+        // pad the file itself, not just the position, so the next section lines up
+        long next = align(pos);
+        if (next > channel.size()) channel.write(ByteBuffer.allocate((int) (next - pos)), pos);
+        return next;
+    }
+
+    private static long get(FileChannel channel, long pos, long[] a) throws IOException {
+        for (int i = 0; i < a.length; ) {
+            int n = Math.min(a.length - i, CHUNK / 8);
+            map(channel, FileChannel.MapMode.READ_ONLY, pos, 8L * n).asLongBuffer().get(a, i, n);
+            pos += 8L * n;
+            i += n;
+        }
+        return align(pos);
+    }
+
+    private static long get(FileChannel channel, long pos, double[] a) throws IOException {
+        for (int i = 0; i < a.length; ) {
+            int n = Math.min(a.length - i, CHUNK / 8);
+            map(channel, FileChannel.MapMode.READ_ONLY, pos, 8L * n).asDoubleBuffer().get(a, i, n);
+            pos += 8L * n;
+            i += n;
+        }
+        return align(pos);
+    }
+
+    private static long get(FileChannel channel, long pos, int[] a) throws IOException {
+        for (int i = 0; i < a.length; ) {
+            int n = Math.min(a.length - i, CHUNK / 4);
+            map(channel, FileChannel.MapMode.READ_ONLY, pos, 4L * n).asIntBuffer().get(a, i, n);
+            pos += 4L * n;
+            i += n;
+        }
+        return align(pos);
+    }
+
+    /**
+     * Parses a text map, writes it as a snapshot and times loading it back.
+     */
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        MapData map;
+        try {
+            map = new MapFileParser(args[0]).parse();
+        }
+        catch (MapFormatException e) {
+            System.out.println(args[0] + ": " + e.getMessage());
+            return;
+        }
+        System.out.printf("parsed %s in %.1f ms\n", args[0], (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        write(map, args[1]);
+        System.out.printf("wrote %s (%d bytes) in %.1f ms\n", args[1],
+                new java.io.File(args[1]).length(), (System.nanoTime() - start) / 1e6);
+
+        start = System.nanoTime();
+        MapData copy = load(args[1]);
+        System.out.printf("loaded %s in %.1f ms (%d nodes, %d edges)\n", args[1],
+                (System.nanoTime() - start) / 1e6, copy.nodeCount(), copy.edgeCount());
+    }
+}
@@ -0,0 +1,79 @@
+/*************************************************************************
+ *  Compilation:  javac GreatCircleHeuristic.java
+ *  Dependencies: DistanceHeuristic.java MapData.java
+ *
+ *  Straight-line lower bound on road distance from node coordinates.
+ *
+ *************************************************************************/
+
+/**
+ *  The <tt>GreatCircleHeuristic</tt> class bounds the road distance between
+ *  two nodes by their distance through the Earth. Each node's latitude and
+ *  longitude are turned once into a point on the unit sphere, so a bound is
+ *  a 3-d chord length, never longer than the great-circle distance, and
+ *  needs no trigonometry at query time.
+ *  <p>
+ *  The edge weights in the map file are meters measured in the file's
+ *  projected plane (see {@link MapData#projectedBounds()}), not on the
+ *  sphere, so an edge can be slightly shorter than the straight line
+ *  between its endpoints on the sphere (by up to 0.06% on
+ *  <tt>lab2.osm.txt</tt>). The chord length is therefore scaled by the
+ *  smallest ratio of edge weight to chord length over all edges, capped
+ *  at 1. With that factor every edge is at least as long as the bound
+ *  between its endpoints, and since chord lengths obey the triangle
+ *  inequality the heuristic is consistent.
+ */
+public class GreatCircleHeuristic implements DistanceHeuristic {
+    private static final double EARTH_RADIUS = 6371008.8;   // mean radius in meters
+
+    private final double[] xyz;     // xyz[3v..3v+2] = unit vector of vertex v
+    private final double scale;     // meters per unit of chord length
+
+    /**
+     * Initializes the heuristic for the vertices and edges of <tt>map</tt>.
+     * @param map the map
+     */
+    public GreatCircleHeuristic(MapData map) {
+        int V = map.graph().V();
+        xyz = new double[3 * V];
+        for (int v = 0; v < V; v++) {
+            double lat = Math.toRadians(map.latitude(v));
+            double lon = Math.toRadians(map.longitude(v));
+            xyz[3*v]     = Math.cos(lat) * Math.cos(lon);
+            xyz[3*v + 1] = Math.cos(lat) * Math.sin(lon);
+            xyz[3*v + 2] = Math.sin(lat);
+        }
+        double ratio = 1.0;
+        for (int i = 0; i < map.edgeCount(); i++) {
+            double chord = EARTH_RADIUS * chord(map.edgeFrom(i), map.edgeTo(i));
+            if (chord > 0) ratio = Math.min(ratio, map.edgeWeight(i) / chord);
+        }
+        scale = EARTH_RADIUS * ratio;
+    }
+
+    // straight-line distance between the unit vectors of v and w
+    private double chord(int v, int w) {
+        double dx = xyz[3*v]     - xyz[3*w];
+        double dy = xyz[3*v + 1] - xyz[3*w + 1];
+        double dz = xyz[3*v + 2] - xyz[3*w + 2];
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
+    }
+
+    /**
+     * Returns the scaled straight-line distance from <tt>v</tt> to <tt>t</tt>.
+     * @param v the vertex
+     * @param t the target vertex
+     * @return a lower bound in meters on the road distance from <tt>v</tt> to <tt>t</tt>
+     */
+    public double lowerBound(int v, int t) {
+        return scale * chord(v, t);
+    }
+
+    /**
+     * Returns the factor the straight-line distance is scaled by.
+     * @return the smallest edge weight to straight-line length ratio, at most 1
+     */
+    public double calibration() {
+        return scale / EARTH_RADIUS;
+    }
+}
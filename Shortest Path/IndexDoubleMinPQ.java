@@ -0,0 +1,423 @@
+/*************************************************************************
+ *  Compilation:  javac IndexDoubleMinPQ.java
+ *  Execution:    java IndexDoubleMinPQ lab2.osm.txt sources
+ *  Dependencies: IndexMinPQ.java RadixHeap.java CSRDigraph.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Indexed d-ary min heap with primitive double keys.
+ *  The test client runs full Dijkstra searches from random sources with
+ *  IndexMinPQ<Double>, this heap for several d (eager and lazy) and a
+ *  radix heap, and reports the time per search.
+ *
+ *  % java IndexDoubleMinPQ lab2.osm.txt 2000
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ *  The <tt>IndexDoubleMinPQ</tt> class is an indexed priority queue of
+ *  integers 0 through <tt>NMAX</tt> - 1 keyed by <tt>double</tt>s. It
+ *  supports the operations of {@link IndexMinPQ} without boxing a key or
+ *  calling <tt>compareTo</tt>: the keys are stored next to the indices in
+ *  the heap array itself, so a comparison reads one array and no object.
+ *  <p>
+ *  The heap is <em>d</em>-ary (4-ary by default). A wider heap is shallower,
+ *  so <tt>insert</tt> and <tt>decreaseKey</tt>, the common operations in
+ *  Dijkstra's algorithm, move an entry fewer levels, while <tt>delMin</tt>
+ *  compares <em>d</em> children per level; the <em>d</em> children of a
+ *  node are adjacent in memory.
+ *  <p>
+ *  In <em>lazy</em> mode <tt>decreaseKey</tt> does not move the existing
+ *  entry but adds another one, and <tt>delMin</tt> discards entries whose
+ *  key is no longer the index's current key. This trades memory (the heap
+ *  grows as needed) for never sifting an entry up in the middle of the heap.
+ *  <p>
+ *  <tt>insert</tt>, <tt>delMin</tt> and <tt>decreaseKey</tt> take time
+ *  proportional to log <em>N</em> (times <em>d</em> for <tt>delMin</tt>);
+ *  <tt>isEmpty</tt>, <tt>size</tt>, <tt>contains</tt>, <tt>minIndex</tt>,
+ *  <tt>minKey</tt> and <tt>keyOf</tt> take constant (amortized, in lazy
+ *  mode) time. <tt>clear</tt> takes time proportional to the number of
+ *  entries left in the heap, not to <tt>NMAX</tt>.
+ */
+public class IndexDoubleMinPQ {
+    private final int d;            // arity
+    private final boolean lazy;
+    private int N;                  // number of heap entries (including stale ones in lazy mode)
+    private int live;               // number of indices in the queue
+    private double[] heapKey;       // heapKey[j] = key of heap entry j (0-based)
+    private int[] heap;             // heap[j] = index of heap entry j
+    private final int[] qp;         // eager: position of i in the heap; lazy: 0 if i is in the queue; -1 if not
+    private final double[] keys;    // keys[i] = current key of i
+
+    /**
+     * Initializes an empty 4-ary indexed priority queue with indices between
+     * 0 and <tt>NMAX</tt> - 1.
+     * @param NMAX the number of indices
+     * @throws IllegalArgumentException if <tt>NMAX</tt> &lt; 0
+     */
+    public IndexDoubleMinPQ(int NMAX) {
+        this(NMAX, 4, false);
+    }
+
+    /**
+     * Initializes an empty <tt>d</tt>-ary indexed priority queue with indices
+     * between 0 and <tt>NMAX</tt> - 1.
+     * @param NMAX the number of indices
+     * @param d the number of children of each heap node
+     * @param lazy whether <tt>decreaseKey</tt> adds a new entry instead of
+     *    moving the old one
+     * @throws IllegalArgumentException if <tt>NMAX</tt> &lt; 0 or <tt>d</tt> &lt; 2
+     */
+    public IndexDoubleMinPQ(int NMAX, int d, boolean lazy) {
+        if (NMAX < 0) throw new IllegalArgumentException("NMAX must be nonnegative");
+        if (d < 2) throw new IllegalArgumentException("heap arity must be at least 2");
+        this.d = d;
+        this.lazy = lazy;
+        int capacity = lazy ? Math.max(16, Math.min(NMAX, 1024)) : NMAX;
+        heapKey = new double[capacity];
+        heap = new int[capacity];
+        qp = new int[NMAX];
+        keys = new double[NMAX];
+        Arrays.fill(qp, -1);
+    }
+
+    /**
+     * Is the priority queue empty?
+     * @return <tt>true</tt> if no index is in the queue
+     */
+    public boolean isEmpty() {
+        return live == 0;
+    }
+
+    /**
+     * Is <tt>i</tt> in the priority queue?
+     * @param i an index
+     * @return <tt>true</tt> if <tt>i</tt> is in the queue
+     * @throws IndexOutOfBoundsException unless 0 &le; <tt>i</tt> &lt; <tt>NMAX</tt>
+     */
+    public boolean contains(int i) {
+        return qp[i] != -1;
+    }
+
+    /**
+     * Returns the number of indices in the priority queue.
+     * @return the number of indices in the queue
+     */
+    public int size() {
+        return live;
+    }
+
+    /**
+     * Associates key with index <tt>i</tt>.
+     * @param i an index
+     * @param key the key to associate with index <tt>i</tt>
+     * @throws IllegalArgumentException if <tt>i</tt> is already in the queue
+     *    or <tt>key</tt> is NaN
+     * @throws IndexOutOfBoundsException unless 0 &le; <tt>i</tt> &lt; <tt>NMAX</tt>
+     */
+    public void insert(int i, double key) {
+        if (qp[i] != -1) throw new IllegalArgumentException("index " + i + " is already in the priority queue");
+        if (key != key) throw new IllegalArgumentException("key is NaN");
+        keys[i] = key;
+        live++;
+        if (lazy) {
+            qp[i] = 0;
+            push(i, key);
+        }
+        else {
+            heap[N] = i;
+            heapKey[N] = key;
+            qp[i] = N;
+            swim(N++, i, key);
+        }
+    }
+
+    /**
+     * Returns an index associated with a minimum key.
+     * @return an index associated with a minimum key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public int minIndex() {
+        if (live == 0) throw new NoSuchElementException("Priority queue underflow");
+        if (lazy) dropStale();
+        return heap[0];
+    }
+
+    /**
+     * Returns a minimum key.
+     * @return a minimum key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public double minKey() {
+        if (live == 0) throw new NoSuchElementException("Priority queue underflow");
+        if (lazy) dropStale();
+        return heapKey[0];
+    }
+
+    /**
+     * Removes a minimum key and returns its associated index.
+     * @return an index associated with a minimum key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public int delMin() {
+        if (live == 0) throw new NoSuchElementException("Priority queue underflow");
+        if (lazy) dropStale();
+        int min = heap[0];
+        removeTop();
+        qp[min] = -1;
+        live--;
+        return min;
+    }
+
+    /**
+     * Returns the key associated with index <tt>i</tt>.
+     * @param i an index
+     * @return the key associated with index <tt>i</tt>
+     * @throws NoSuchElementException if <tt>i</tt> is not in the queue
+     */
+    public double keyOf(int i) {
+        if (qp[i] == -1) throw new NoSuchElementException("index " + i + " is not in the priority queue");
+        return keys[i];
+    }
+
+    /**
+     * Decreases the key associated with index <tt>i</tt>.
+     * @param i an index
+     * @param key the new key, no larger than the current one
+     * @throws IllegalArgumentException if <tt>key</tt> is larger than the
+     *    current key of <tt>i</tt> or is NaN
+     * @throws NoSuchElementException if <tt>i</tt> is not in the queue
+     */
+    public void decreaseKey(int i, double key) {
+        if (qp[i] == -1) throw new NoSuchElementException("index " + i + " is not in the priority queue");
+        if (!(key <= keys[i])) throw new IllegalArgumentException("key does not decrease the key of index " + i);
+        if (key == keys[i]) return;
+        keys[i] = key;
+        if (lazy) push(i, key);
+        else {
+            heapKey[qp[i]] = key;
+            swim(qp[i], i, key);
+        }
+    }
+
+    /**
+     * Changes the key associated with index <tt>i</tt>.
+     * @param i an index
+     * @param key the new key
+     * @throws IllegalArgumentException if <tt>key</tt> is NaN
+     * @throws NoSuchElementException if <tt>i</tt> is not in the queue
+     */
+    public void changeKey(int i, double key) {
+        if (qp[i] == -1) throw new NoSuchElementException("index " + i + " is not in the priority queue");
+        if (key != key) throw new IllegalArgumentException("key is NaN");
+        if (key <= keys[i]) {
+            decreaseKey(i, key);
+            return;
+        }
+        keys[i] = key;
+        if (lazy) push(i, key);     // the old, smaller entry is now stale
+        else {
+            heapKey[qp[i]] = key;
+            sink(qp[i], i, key);
+        }
+    }
+
+    /**
+     * Removes every index from the priority queue.
+     */
+    public void clear() {
+        for (int j = 0; j < N; j++)
+            qp[heap[j]] = -1;
+        N = 0;
+        live = 0;
+    }
+
+    /*************************************************************************
+     *  Heap helpers. The moving entry is held in locals and written once
+     *  into its final slot, so each level costs one move instead of a swap.
+     *************************************************************************/
+
+    // add an entry in lazy mode, growing the heap arrays as needed
+    private void push(int i, double key) {
+        if (N == heap.length) {
+            int capacity = Math.max(16, 2 * N);
+            heap = Arrays.copyOf(heap, capacity);
+            heapKey = Arrays.copyOf(heapKey, capacity);
+        }
+        heap[N] = i;
+        heapKey[N] = key;
+        swim(N++, i, key);
+    }
+
+    // in lazy mode, discard top entries that are no longer an index's key
+    private void dropStale() {
+        while (qp[heap[0]] == -1 || heapKey[0] != keys[heap[0]])
+            removeTop();
+    }
+
+    private void removeTop() {
+        N--;
+        if (N > 0) {
+            int i = heap[N];
+            double key = heapKey[N];
+            sink(0, i, key);
+        }
+    }
+
+    private void swim(int k, int i, double key) {
+        while (k > 0) {
+            int parent = (k - 1) / d;
+            if (heapKey[parent] <= key) break;
+            heap[k] = heap[parent];
+            heapKey[k] = heapKey[parent];
+            if (!lazy) qp[heap[k]] = k;
+            k = parent;
+        }
+        heap[k] = i;
+        heapKey[k] = key;
+        if (!lazy) qp[i] = k;
+    }
+
+    private void sink(int k, int i, double key) {
+        while (true) {
+            int first = d * k + 1;
+            if (first >= N) break;
+            int last = Math.min(first + d, N);
+            int j = first;
+            double min = heapKey[first];
+            for (int c = first + 1; c < last; c++) {
+                if (heapKey[c] < min) {
+                    min = heapKey[c];
+                    j = c;
+                }
+            }
+            if (key <= min) break;
+            heap[k] = heap[j];
+            heapKey[k] = min;
+            if (!lazy) qp[heap[k]] = k;
+            k = j;
+        }
+        heap[k] = i;
+        heapKey[k] = key;
+        if (!lazy) qp[i] = k;
+    }
+
+    /*************************************************************************
+     *  Benchmark: full Dijkstra from the same sources with each queue.
+     *************************************************************************/
+
+    private static double dijkstraBoxed(CSRDigraph G, int s, double[] dist) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IndexMinPQ<Double> pq = new IndexMinPQ<Double>(G.V());
+        dist[s] = 0.0;
+        pq.insert(s, 0.0);
+        while (!pq.isEmpty()) {
+            int v = pq.delMin();
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                double dw = dist[v] + G.weight(e);
+                if (dw < dist[w]) {
+                    dist[w] = dw;
+                    if (pq.contains(w)) pq.decreaseKey(w, dw);
+                    else                pq.insert(w, dw);
+                }
+            }
+        }
+        return checksum(dist);
+    }
+
+    private static double dijkstraPrimitive(CSRDigraph G, int s, double[] dist, IndexDoubleMinPQ pq) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        pq.clear();
+        dist[s] = 0.0;
+        pq.insert(s, 0.0);
+        while (!pq.isEmpty()) {
+            int v = pq.delMin();
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                double dw = dist[v] + G.weight(e);
+                if (dw < dist[w]) {
+                    dist[w] = dw;
+                    if (pq.contains(w)) pq.decreaseKey(w, dw);
+                    else                pq.insert(w, dw);
+                }
+            }
+        }
+        return checksum(dist);
+    }
+
+    private static double dijkstraRadix(CSRDigraph G, int s, double[] dist, RadixHeap pq) {
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        pq.clear();
+        dist[s] = 0.0;
+        pq.insert(s, 0.0);
+        while (!pq.isEmpty()) {
+            int v = pq.delMin();
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                double dw = dist[v] + G.weight(e);
+                if (dw < dist[w]) {
+                    dist[w] = dw;
+                    if (pq.contains(w)) pq.decreaseKey(w, dw);
+                    else                pq.insert(w, dw);
+                }
+            }
+        }
+        return checksum(dist);
+    }
+
+    private static double checksum(double[] dist) {
+        double sum = 0.0;
+        for (double x : dist)
+            if (x < Double.POSITIVE_INFINITY) sum += x;
+        return sum;
+    }
+
+    /**
+     * Times full Dijkstra searches from random sources with each queue.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int sources = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        CSRDigraph G = map.graph();
+        int V = G.V();
+        int[] s = new int[sources];
+        Random random = new Random(311);
+        for (int i = 0; i < sources; i++) {
+            do { s[i] = random.nextInt(V); } while (G.outdegree(s[i]) == 0);
+        }
+
+        String[] names = { "IndexMinPQ<Double>", "binary", "4-ary", "8-ary", "4-ary lazy", "radix" };
+        IndexDoubleMinPQ[] heaps = {
+            null,
+            new IndexDoubleMinPQ(V, 2, false),
+            new IndexDoubleMinPQ(V, 4, false),
+            new IndexDoubleMinPQ(V, 8, false),
+            new IndexDoubleMinPQ(V, 4, true),
+            null
+        };
+        RadixHeap radix = new RadixHeap(V);
+        double[] dist = new double[V];
+
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            double reference = 0.0;
+            for (int q = 0; q < names.length; q++) {
+                double sum = 0.0;
+                long start = System.nanoTime();
+                for (int i = 0; i < sources; i++) {
+                    if (q == 0)                     sum += dijkstraBoxed(G, s[i], dist);
+                    else if (q == names.length - 1) sum += dijkstraRadix(G, s[i], dist, radix);
+                    else                            sum += dijkstraPrimitive(G, s[i], dist, heaps[q]);
+                }
+                long time = System.nanoTime() - start;
+                if (q == 0) reference = sum;
+                if (round < 2) continue;
+                System.out.printf("%-20s %8.1f us/search%s%n", names[q], time / 1e3 / sources,
+                        sum == reference ? "" : "  (distances differ)");
+            }
+        }
+    }
+}
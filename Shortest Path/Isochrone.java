@@ -0,0 +1,315 @@
+/*************************************************************************
+ *  Compilation:  javac Isochrone.java
+ *  Execution:    java Isochrone lab2.osm.txt meters origins
+ *  Dependencies: MapData.java CSRDigraph.java SearchWorkspace.java
+ *                IndexDoubleMinPQ.java RouteIndex.java DijkstraSP.java
+ *                NodeKdTree.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  The nodes within a distance of an origin, found by a Dijkstra search
+ *  that stops at the distance, and their convex hull.
+ *  The test client takes origins at random points of the map, compares
+ *  the bounded search with a full one followed by a scan, and times a
+ *  batch of isochrones run one by one and in parallel.
+ *
+ *  % java Isochrone lab2.osm.txt 2000 64
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ *  The <tt>Isochrone</tt> class holds the nodes that can be reached from
+ *  an origin node within a distance budget, for service areas and
+ *  reachability queries. The nodes are vertices of the routing graph,
+ *  the nodes that start or end an edge; the sub-nodes along edges are
+ *  never included, except an origin that is one, which reaches only
+ *  itself. They are found by Dijkstra's algorithm stopped at the budget:
+ *  only edges that end within it are relaxed, so the search touches the
+ *  reached nodes and the edges out of them and nothing beyond, instead of
+ *  the whole map.
+ *  <p>
+ *  The nodes are kept in the order the search settled them, which is in
+ *  order of distance, with their OSM IDs and distances in primitive
+ *  arrays. The nodes within a smaller budget are therefore a prefix.
+ *  {@link #hull} gives the convex hull of the reached nodes as a polygon
+ *  of node IDs, which {@link RouteWriter#writePolygon} writes to KML or
+ *  GeoJSON.
+ *  <p>
+ *  Like {@link ShortestPathTree}, the search runs in a
+ *  {@link SearchWorkspace} but keeps its results in arrays of its own, so
+ *  the isochrone is immutable and outlives the workspace.
+ */
+public final class Isochrone {
+    private final MapData map;
+    private final long origin;          // OSM ID of the origin, 0 if there is none
+    private final double budget;
+    private final int[] vertices;       // reached vertices in order of distance
+    private final double[] distTo;      // distTo[i] = distance to vertices[i]
+
+    /**
+     * Finds the nodes within <tt>budget</tt> of node <tt>s</tt>, by the
+     * present edge weights of the map's routing graph. A node that is not
+     * a vertex of the graph reaches only itself.
+     * @param map the map
+     * @param s the node number of the origin
+     * @param budget the largest distance, in meters
+     * @param ws the workspace to search in
+     * @throws IllegalArgumentException if <tt>budget</tt> is negative or
+     *    NaN, if an edge weight is negative, if <tt>s</tt> is not a node,
+     *    or if the workspace is sized for another number of vertices
+     */
+    public Isochrone(MapData map, int s, double budget, SearchWorkspace ws) {
+        CSRDigraph G = map.graph();
+        if (!(budget >= 0)) throw new IllegalArgumentException("budget must be nonnegative, not " + budget);
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        if (s < 0 || s >= map.nodeCount())
+            throw new IllegalArgumentException("node " + s + " is not between 0 and " + (map.nodeCount()-1));
+        if (ws.V() != G.V()) throw new IllegalArgumentException("workspace is sized for " + ws.V() + " vertices, not " + G.V());
+        this.map = map;
+        this.origin = map.nodeID(s);
+        this.budget = budget;
+        if (!map.isVertex(s)) {
+            this.vertices = new int[] { s };
+            this.distTo = new double[] { 0.0 };
+            return;
+        }
+
+        int[] reached = new int[16];
+        double[] dist = new double[16];
+        int n = 0;
+        ws.begin();
+        IndexDoubleMinPQ pq = ws.pq();
+        ws.set(s, 0.0, -1);
+        pq.insert(s, 0.0);
+        while (!pq.isEmpty()) {
+            double dv = pq.minKey();
+            int v = pq.delMin();
+            if (n == reached.length) {
+                reached = Arrays.copyOf(reached, 2 * n);
+                dist = Arrays.copyOf(dist, 2 * n);
+            }
+            reached[n] = v;
+            dist[n++] = dv;
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                double d = dv + G.weight(e);
+                if (d <= budget && ws.distTo(w) > d) {
+                    ws.set(w, d, e);
+                    if (pq.contains(w)) pq.decreaseKey(w, d);
+                    else                pq.insert(w, d);
+                }
+            }
+        }
+        this.vertices = Arrays.copyOf(reached, n);
+        this.distTo = Arrays.copyOf(dist, n);
+    }
+
+    // an isochrone that reaches nothing, for a map without nodes
+    Isochrone(MapData map, double budget) {
+        if (!(budget >= 0)) throw new IllegalArgumentException("budget must be nonnegative, not " + budget);
+        this.map = map;
+        this.origin = 0;
+        this.budget = budget;
+        this.vertices = new int[0];
+        this.distTo = new double[0];
+    }
+
+    /**
+     * Returns the origin.
+     * @return the OSM ID of the origin, or 0 if the map has no nodes
+     */
+    public long origin() {
+        return origin;
+    }
+
+    /**
+     * Returns the distance budget.
+     * @return the budget in meters
+     */
+    public double budget() {
+        return budget;
+    }
+
+    /**
+     * Returns the number of nodes reached, the origin included.
+     * @return the number of nodes
+     */
+    public int size() {
+        return vertices.length;
+    }
+
+    /**
+     * Returns the <tt>i</tt>th node reached, in order of distance.
+     * @param i the position
+     * @return the OSM ID of the node
+     */
+    public long nodeID(int i) {
+        return map.nodeID(vertices[i]);
+    }
+
+    /**
+     * Returns the distance to the <tt>i</tt>th node reached.
+     * @param i the position
+     * @return the distance in meters
+     */
+    public double distance(int i) {
+        return distTo[i];
+    }
+
+    /**
+     * Returns the nodes reached, in order of distance, as a new array.
+     * @return the OSM IDs of the nodes
+     */
+    public long[] nodeIDs() {
+        long[] ids = new long[vertices.length];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = map.nodeID(vertices[i]);
+        return ids;
+    }
+
+    /**
+     * Returns the distances to the nodes reached, in the order of
+     * {@link #nodeIDs}, as a new array.
+     * @return the distances in meters, in nondecreasing order
+     */
+    public double[] distances() {
+        return distTo.clone();
+    }
+
+    /**
+     * Returns the convex hull of the nodes reached, found by Andrew's
+     * monotone chain on longitude and latitude. A linear map of the
+     * coordinates keeps the hull the same, so it is also the hull in any
+     * equirectangular projection. The nodes strictly inside the
+     * quadrilateral of the westernmost, southernmost, easternmost and
+     * northernmost nodes cannot be corners and are dropped first (the
+     * Akl-Toussaint heuristic), which leaves few to sort in a service
+     * area. This takes time proportional to <em>n</em> log <em>n</em> for
+     * <em>n</em> nodes at worst.
+     * @return the OSM IDs of the corners counterclockwise, without
+     *    repeating the first; all the nodes if there are fewer than three,
+     *    and the two ends if they lie on a line
+     */
+    public long[] hull() {
+        if (vertices.length < 3) return nodeIDs();
+        int west = vertices[0], south = west, east = west, north = west;
+        for (int v : vertices) {
+            if (map.longitude(v) < map.longitude(west))  west = v;
+            if (map.longitude(v) > map.longitude(east))  east = v;
+            if (map.latitude(v)  < map.latitude(south))  south = v;
+            if (map.latitude(v)  > map.latitude(north))  north = v;
+        }
+        int[] candidates = new int[vertices.length];
+        int n = 0;
+        for (int v : vertices) {
+            boolean inside = cross(west, south, v) > 0 && cross(south, east, v) > 0
+                          && cross(east, north, v) > 0 && cross(north, west, v) > 0;
+            if (!inside) candidates[n++] = v;
+        }
+        int[] p = IntStream.of(candidates).limit(n).boxed()
+                           .sorted((a, b) -> {
+                               int c = Double.compare(map.longitude(a), map.longitude(b));
+                               return c != 0 ? c : Double.compare(map.latitude(a), map.latitude(b));
+                           })
+                           .mapToInt(Integer::intValue).toArray();
+        int[] h = new int[2 * n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {                       // lower hull
+            while (k >= 2 && cross(h[k-2], h[k-1], p[i]) <= 0) k--;
+            h[k++] = p[i];
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; i--) {   // upper hull
+            while (k >= lower && cross(h[k-2], h[k-1], p[i]) <= 0) k--;
+            h[k++] = p[i];
+        }
+        long[] corners = new long[k - 1];                   // the last is the first again
+        for (int i = 0; i < corners.length; i++)
+            corners[i] = map.nodeID(h[i]);
+        return corners;
+    }
+
+    // > 0 if o, a, b turn counterclockwise, < 0 if clockwise, 0 if collinear
+    private double cross(int o, int a, int b) {
+        double ox = map.longitude(o), oy = map.latitude(o);
+        return (map.longitude(a) - ox) * (map.latitude(b) - oy)
+             - (map.latitude(a) - oy) * (map.longitude(b) - ox);
+    }
+
+    /**
+     * Finds the nodes within a budget of random points in the map's bounds,
+     * each snapped to its nearest vertex as {@link RouteIndex#isochrone}
+     * snaps it, by the bounded search and by a full Dijkstra search and a
+     * scan of its distances, checks that they agree, and times both; then
+     * times the isochrones of all the points as a batch, one by one and in
+     * parallel, and counts those that reach no node but their origin.
+     */
+    public static void main(String[] args) throws Exception {
+        RouteIndex index = RouteIndex.load(args[0], null);
+        double budget = args.length > 1 ? Double.parseDouble(args[1]) : 2000;
+        int origins = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        MapData map = index.map();
+        CSRDigraph G = map.graph();
+        SearchWorkspace ws = new SearchWorkspace(G.V());
+        double[] bounds = map.bounds();             // {min lon, max lon, min lat, max lat}
+        Random random = new Random(311);
+        double[] lat = new double[origins], lon = new double[origins];
+        for (int i = 0; i < origins; i++) {
+            lon[i] = bounds[0] + random.nextDouble() * (bounds[1] - bounds[0]);
+            lat[i] = bounds[2] + random.nextDouble() * (bounds[3] - bounds[2]);
+        }
+        NodeKdTree vertices = new NodeKdTree(map, G.V());
+        int[] s = new int[origins];
+        for (int i = 0; i < origins; i++)
+            s[i] = vertices.nearest(lat[i], lon[i]);
+
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            long start = System.nanoTime();
+            long reached = 0, corners = 0;
+            Isochrone[] areas = new Isochrone[origins];
+            for (int i = 0; i < origins; i++) {
+                areas[i] = new Isochrone(map, s[i], budget, ws);
+                reached += areas[i].size();
+            }
+            long boundedTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < origins; i++)
+                corners += areas[i].hull().length;
+            long hullTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long scanned = 0;
+            for (int i = 0; i < origins; i++) {
+                DijkstraSP sp = new DijkstraSP(G, s[i], -1, ws);
+                for (int v = 0; v < G.V(); v++)
+                    if (sp.distTo(v) <= budget) scanned++;
+            }
+            long fullTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < origins; i++)
+                index.isochrone(lat[i], lon[i], budget);
+            long oneByOne = System.nanoTime() - start;
+            start = System.nanoTime();
+            Isochrone[] batch = index.isochrones(lat, lon, budget);
+            long parallel = System.nanoTime() - start;
+            int alone = 0;
+            for (Isochrone area : batch)
+                if (area.size() == 1) alone++;
+            if (round < 2) continue;
+            System.out.printf("%d origins, %.0f m, V = %d, %.1f nodes and %.1f hull corners per isochrone%n",
+                    origins, budget, G.V(), (double) reached / origins, (double) corners / origins);
+            System.out.printf("bounded search             %8.2f ms%n", boundedTime / 1e6);
+            System.out.printf("convex hulls               %8.2f ms%n", hullTime / 1e6);
+            System.out.printf("full search and scan       %8.2f ms%s%n", fullTime / 1e6,
+                    scanned == reached ? "" : "  (node counts differ)");
+            System.out.printf("batch, one by one          %8.2f ms%n", oneByOne / 1e6);
+            System.out.printf("batch, parallel            %8.2f ms (%d processors)%n", parallel / 1e6,
+                    Runtime.getRuntime().availableProcessors());
+            System.out.printf("origin only                %8d of %d%n", alone, origins);
+        }
+    }
+}
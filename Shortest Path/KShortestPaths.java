@@ -0,0 +1,344 @@
+/*************************************************************************
+ *  Compilation:  javac KShortestPaths.java
+ *  Execution:    java KShortestPaths lab2.osm.txt queries
+ *  Dependencies: CSRDigraph.java DistanceHeuristic.java SearchWorkspace.java
+ *                IndexDoubleMinPQ.java AStarSP.java DijkstraSP.java
+ *                MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  The k shortest loopless paths between two vertices, by Yen's algorithm
+ *  with A* spur searches run in parallel.
+ *  The test client times k = 3 and k = 10 over random pairs of vertices,
+ *  with the spur searches run one after another and in parallel.
+ *
+ *  % java KShortestPaths lab2.osm.txt 200
+ *  200 queries, V = 798, 1 processors
+ *  one shortest path             78.6 us per query
+ *  k = 3   sequential          355.3 us per query, 2.99 paths
+ *  k = 3   parallel            567.9 us per query
+ *  k = 10  sequential          572.4 us per query, 9.96 paths
+ *  k = 10  parallel           1036.6 us per query
+ *
+ *************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ *  The <tt>KShortestPaths</tt> class finds the <em>k</em> shortest
+ *  loopless paths from <tt>s</tt> to <tt>t</tt>, for offering alternative
+ *  routes, with Yen's algorithm. The first path is a shortest path. Each
+ *  later one leaves the previous path at some vertex, the spur vertex,
+ *  and follows the shortest path from there to <tt>t</tt> that avoids the
+ *  vertices before the spur vertex and the vertices next to it that the
+ *  paths found so far go to after the same beginning. The shortest of
+ *  those candidates not yet taken is the next path. Paths differ in their
+ *  vertices, not only in their edges: of parallel edges a path takes the
+ *  shortest, since two routes through the same nodes are no alternative.
+ *  <p>
+ *  Each spur search is A* with the exact distance to <tt>t</tt> in the
+ *  whole digraph as its lower bound, from one Dijkstra search of the
+ *  reverse digraph per query. Removing vertices and edges only makes
+ *  paths longer, so the bound stays valid, and it is tight wherever the
+ *  shortest way on avoids the removed ones: a spur search goes nearly
+ *  straight to <tt>t</tt> instead of spreading in all directions. A
+ *  vertex from which <tt>t</tt> cannot be reached at all is never
+ *  queued. Once the candidates hold
+ *  as many paths as are still wanted, no longer path can be taken, so the
+ *  spur searches stop at the length of the last of them: a spur vertex
+ *  whose lower bound is beyond it needs no search at all, and the other
+ *  searches queue no vertex beyond it. The removed vertices are
+ *  entered into the {@link SearchWorkspace} as settled before the search
+ *  starts, so taking them out costs nothing per edge and nothing to undo.
+ *  The spur searches of one path only read the paths found before it, so
+ *  they run in parallel, each worker thread in a workspace of its own
+ *  that all its spur searches reuse.
+ *  <p>
+ *  A query takes one search of the reverse digraph and up to
+ *  <em>k</em> <em>L</em> spur searches for paths of <em>L</em> edges.
+ */
+public class KShortestPaths {
+    // static methods only
+    private KShortestPaths() { }
+
+    /**
+     * Finds the <tt>k</tt> shortest loopless paths from <tt>s</tt> to
+     * <tt>t</tt>, with the spur searches in parallel in the common
+     * fork-join pool.
+     * @param G the edge-weighted digraph
+     * @param s the source vertex
+     * @param t the target vertex
+     * @param k the most paths to find
+     * @return the CSR indices of the edges of each path, in order of length;
+     *    fewer than <tt>k</tt> paths if there are no more, and none if there
+     *    is no path
+     * @throws IllegalArgumentException if an edge weight is negative, if
+     *    <tt>k</tt> is negative, or unless both vertices are between 0 and
+     *    <tt>V</tt> - 1
+     */
+    public static int[][] pathEdges(final CSRDigraph G, int s, int t, int k) {
+        final ThreadLocal<SearchWorkspace> workspaces = new ThreadLocal<SearchWorkspace>() {
+            protected SearchWorkspace initialValue() {
+                return new SearchWorkspace(G.V());
+            }
+        };
+        return pathEdges(G, G.reverse(), s, t, k, workspaces::get, new double[G.V()], true);
+    }
+
+    /**
+     * Finds the <tt>k</tt> shortest loopless paths from <tt>s</tt> to
+     * <tt>t</tt>, with the searches in workspaces of the caller's, such as
+     * one per thread from a <tt>ThreadLocal</tt>. A caller that answers
+     * many queries keeps the reverse digraph, and a distance array per
+     * thread, so that a query allocates neither.
+     * @param G the edge-weighted digraph
+     * @param R the reverse of <tt>G</tt>, as returned by <tt>G.reverse()</tt>,
+     *    with the same weights
+     * @param s the source vertex
+     * @param t the target vertex
+     * @param k the most paths to find
+     * @param workspaces gives the calling thread a workspace sized for
+     *    <tt>G</tt> that no other thread is using
+     * @param toTarget an array of length <em>V</em> that no other thread is
+     *    using; the distances from each vertex to <tt>t</tt> are written
+     *    into it
+     * @param parallel whether to run the spur searches of a path in
+     *    parallel, in the common fork-join pool
+     * @return the CSR indices of the edges of each path, in order of length;
+     *    fewer than <tt>k</tt> paths if there are no more, and none if there
+     *    is no path
+     * @throws IllegalArgumentException if an edge weight is negative, if
+     *    <tt>k</tt> is negative, if <tt>R</tt> or <tt>toTarget</tt> does
+     *    not have the size of <tt>G</tt>, or unless both vertices are
+     *    between 0 and <tt>V</tt> - 1
+     */
+    public static int[][] pathEdges(final CSRDigraph G, CSRDigraph R, final int s, final int t, int k,
+                                    final Supplier<SearchWorkspace> workspaces, final double[] toTarget,
+                                    boolean parallel) {
+        if (k < 0) throw new IllegalArgumentException("k must be nonnegative, not " + k);
+        if (R.V() != G.V() || R.E() != G.E())
+            throw new IllegalArgumentException("R is not the reverse of G");
+        if (toTarget.length != G.V())
+            throw new IllegalArgumentException("distance array is not sized for this digraph");
+        distancesTo(R, t, workspaces.get(), toTarget);
+        final DistanceHeuristic h = (v, target) -> toTarget[v];
+        int[] first = new AStarSP(G, s, t, h, workspaces.get()).pathEdges();
+        if (first == null || k == 0) return new int[0][];
+
+        List<int[]> paths = new ArrayList<int[]>();
+        paths.add(first);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+        Set<Candidate> seen = new HashSet<Candidate>();
+        seen.add(new Candidate(G, first));
+        while (paths.size() < k) {
+            final int[][] found = paths.toArray(new int[0][]);
+            final int[] last = found[found.length - 1];
+            final double limit = limit(candidates, k - paths.size());
+            IntStream spurs = IntStream.range(0, last.length);
+            if (parallel) spurs = spurs.parallel();
+            List<int[]> spurPaths = spurs.mapToObj(i -> spur(G, s, t, h, found, i, limit, workspaces.get()))
+                                         .filter(Objects::nonNull)
+                                         .collect(Collectors.toList());
+            for (int[] edges : spurPaths) {
+                Candidate c = new Candidate(G, edges);
+                if (seen.add(c)) candidates.add(c);
+            }
+            if (candidates.isEmpty()) break;
+            paths.add(candidates.poll().edges);
+        }
+        return paths.toArray(new int[0][]);
+    }
+
+    // sets distTo[v] = length of a shortest path from v to t, by a search
+    // from t in the reverse digraph R
+    private static void distancesTo(CSRDigraph R, int t, SearchWorkspace ws, double[] distTo) {
+        DijkstraSP sp = new DijkstraSP(R, t, -1, ws);
+        for (int v = 0; v < distTo.length; v++)
+            distTo[v] = sp.distTo(v);
+    }
+
+    // the length of the need-th shortest candidate, beyond which no path
+    // will be taken; infinity if there are fewer candidates
+    private static double limit(PriorityQueue<Candidate> candidates, int need) {
+        if (candidates.size() < need) return Double.POSITIVE_INFINITY;
+        double[] lengths = new double[candidates.size()];
+        int n = 0;
+        for (Candidate c : candidates)
+            lengths[n++] = c.length;
+        Arrays.sort(lengths);
+        return lengths[need - 1];
+    }
+
+    // the path that follows the last path found for its first i edges and
+    // then a shortest path to t that avoids the vertices before the spur
+    // vertex and the vertices the paths found so far go to after those i
+    // edges; null if there is none, or none within limit
+    private static int[] spur(CSRDigraph G, int s, int t, DistanceHeuristic h,
+                              int[][] found, int i, double limit, SearchWorkspace ws) {
+        int[] root = found[found.length - 1];
+        int v = i == 0 ? s : G.to(root[i - 1]);
+        double rootLength = 0.0;
+        for (int j = 0; j < i; j++)
+            rootLength += G.weight(root[j]);
+        // a little slack, so that rounding cannot cut off a path that ties
+        double budget = limit - rootLength + 1e-9 * limit;
+        double bound = h.lowerBound(v, t);
+        if (bound == Double.POSITIVE_INFINITY || bound > budget) return null;
+
+        // the vertices after the spur vertex on earlier paths with this root
+        int[] banned = new int[found.length];
+        int n = 0;
+        for (int[] path : found) {
+            if (path.length > i && samePrefix(G, path, root, i))
+                banned[n++] = G.to(path[i]);
+        }
+
+        // the root's vertices read as settled at distance -1, so no edge
+        // into them is ever relaxed
+        ws.begin();
+        for (int j = 0; j < i; j++)
+            ws.set(G.from(root[j]), -1.0, -1);
+        ws.set(v, 0.0, -1);
+        IndexDoubleMinPQ pq = ws.pq();
+        pq.insert(v, bound);
+        while (!pq.isEmpty()) {
+            int x = pq.delMin();
+            if (x == t) break;
+            for (int e = G.begin(x); e < G.end(x); e++) {
+                int w = G.to(e);
+                if (x == v && contains(banned, n, w)) continue;
+                double dist = ws.distTo(x) + G.weight(e);
+                if (ws.distTo(w) > dist) {
+                    ws.set(w, dist, e);
+                    double key = dist + h.lowerBound(w, t);
+                    if (key == Double.POSITIVE_INFINITY || key > budget) continue;  // unreachable, or too long
+                    if (pq.contains(w)) pq.decreaseKey(w, key);
+                    else                pq.insert(w, key);
+                }
+            }
+        }
+        double length = ws.distTo(t);
+        if (length == Double.POSITIVE_INFINITY || length > budget) return null;
+
+        int m = 0;
+        for (int x = t; x != v; x = G.from(ws.edgeTo(x)))
+            m++;
+        int[] edges = Arrays.copyOf(root, i + m);
+        for (int x = t, j = i + m - 1; x != v; x = G.from(edges[j--]))
+            edges[j] = ws.edgeTo(x);
+        return edges;
+    }
+
+    // do the first n edges of a and b go through the same vertices?
+    private static boolean samePrefix(CSRDigraph G, int[] a, int[] b, int n) {
+        for (int j = 0; j < n; j++)
+            if (G.to(a[j]) != G.to(b[j])) return false;
+        return true;
+    }
+
+    private static boolean contains(int[] a, int n, int x) {
+        for (int j = 0; j < n; j++)
+            if (a[j] == x) return true;
+        return false;
+    }
+
+    // a path not yet taken, ordered by length, then by number of edges, and
+    // equal to another through the same vertices
+    private static final class Candidate implements Comparable<Candidate> {
+        final int[] edges;
+        final int[] heads;      // heads[j] = vertex at the end of edges[j]
+        final double length;
+
+        Candidate(CSRDigraph G, int[] edges) {
+            this.edges = edges;
+            this.heads = new int[edges.length];
+            double sum = 0.0;
+            for (int j = 0; j < edges.length; j++) {
+                heads[j] = G.to(edges[j]);
+                sum += G.weight(edges[j]);
+            }
+            this.length = sum;
+        }
+
+        public int compareTo(Candidate that) {
+            int c = Double.compare(this.length, that.length);
+            return c != 0 ? c : Integer.compare(this.edges.length, that.edges.length);
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof Candidate && Arrays.equals(heads, ((Candidate) other).heads);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(heads);
+        }
+    }
+
+    /**
+     * Finds the 3 and the 10 shortest paths between random pairs of
+     * vertices with at least one edge, with the spur searches one after
+     * another and in parallel, checks that both give the same paths, and
+     * compares the time with a single shortest-path search.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        final CSRDigraph G = map.graph();
+        CSRDigraph R = G.reverse();
+        double[] toTarget = new double[G.V()];
+        final ThreadLocal<SearchWorkspace> workspaces = new ThreadLocal<SearchWorkspace>() {
+            protected SearchWorkspace initialValue() {
+                return new SearchWorkspace(G.V());
+            }
+        };
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        int[] s = new int[queries], t = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            s[i] = vertices[random.nextInt(n)];
+            t[i] = vertices[random.nextInt(n)];
+        }
+
+        System.out.printf("%d queries, V = %d, %d processors%n", queries, G.V(),
+                Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++)
+                new DijkstraSP(G, s[i], t[i], workspaces.get());
+            long single = System.nanoTime() - start;
+            if (round == 2) System.out.printf("one shortest path       %10.1f us per query%n", single / 1e3 / queries);
+            for (int k : new int[] { 3, 10 }) {
+                long found = 0;
+                int mismatches = 0;
+                long sequential = 0, parallel = 0;
+                for (int i = 0; i < queries; i++) {
+                    start = System.nanoTime();
+                    int[][] one = pathEdges(G, R, s[i], t[i], k, workspaces::get, toTarget, false);
+                    sequential += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    int[][] all = pathEdges(G, R, s[i], t[i], k, workspaces::get, toTarget, true);
+                    parallel += System.nanoTime() - start;
+                    found += all.length;
+                    if (!Arrays.deepEquals(one, all)) mismatches++;
+                }
+                if (round < 2) continue;
+                System.out.printf("k = %-2d  sequential     %10.1f us per query, %.2f paths%n",
+                        k, sequential / 1e3 / queries, (double) found / queries);
+                System.out.printf("k = %-2d  parallel       %10.1f us per query%s%n",
+                        k, parallel / 1e3 / queries, mismatches == 0 ? "" : "  (" + mismatches + " differ)");
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*************************************************************************
+ *  Compilation:  javac KosarajuSharirSCC.java
+ *  Execution:    java KosarajuSharirSCC lab2.osm.txt
+ *  Dependencies: CSRDigraph.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Compute the strongly connected components of a CSR digraph using the
+ *  Kosaraju-Sharir algorithm, with explicit stacks instead of recursion.
+ *
+ *  % java KosarajuSharirSCC lab2.osm.txt
+ *  1 components, largest has 798 of 798 vertices
+ *
+ *************************************************************************/
+
+/**
+ *  The <tt>KosarajuSharirSCC</tt> class represents a data type for
+ *  determining the strong components in a {@link CSRDigraph}.
+ *  The <em>id</em> operation determines in which strong component
+ *  a given vertex lies; the <em>areStronglyConnected</em> operation
+ *  determines whether two vertices are in the same strong component;
+ *  and the <em>count</em> operation determines the number of strong
+ *  components.
+ *  <p>
+ *  The components are numbered 0 through <em>count</em> - 1: two
+ *  vertices have the same component identifier if and only if they are
+ *  in the same strong component.
+ *  <p>
+ *  This implementation uses the Kosaraju-Sharir algorithm: a depth-first
+ *  search of the digraph gives the reverse postorder in which a second
+ *  depth-first search, of the reverse digraph, finds one component per
+ *  tree. Both searches keep their own stack of vertices and edge
+ *  positions, so a road network with long chains of vertices does not
+ *  overflow the call stack.
+ *  The constructor takes time proportional to <em>V</em> + <em>E</em>
+ *  (in the worst case),
+ *  where <em>V</em> is the number of vertices and <em>E</em> is the number of edges.
+ *  Afterwards, the <em>id</em>, <em>count</em>, <em>areStronglyConnected</em>,
+ *  <em>size</em> and <em>largest</em> operations take constant time.
+ */
+public class KosarajuSharirSCC {
+    private final int[] id;         // id[v] = id of strong component containing v
+    private final int[] size;       // size[c] = number of vertices in component c
+    private final int count;        // number of strongly-connected components
+    private final int largest;      // a component with the most vertices, -1 if none
+
+    /**
+     * Computes the strong components of the digraph <tt>G</tt>.
+     * @param G the digraph
+     */
+    public KosarajuSharirSCC(CSRDigraph G) {
+        int V = G.V();
+        int[] stack = new int[V];
+        int[] next = new int[V];    // next[k] = next edge to follow from stack[k]
+
+        // postorder of a depth-first search of G
+        int[] post = new int[V];
+        int n = 0;
+        boolean[] marked = new boolean[V];
+        for (int s = 0; s < V; s++) {
+            if (marked[s]) continue;
+            marked[s] = true;
+            int top = 0;
+            stack[0] = s;
+            next[0] = G.begin(s);
+            while (top >= 0) {
+                int v = stack[top];
+                if (next[top] < G.end(v)) {
+                    int w = G.to(next[top]++);
+                    if (!marked[w]) {
+                        marked[w] = true;
+                        stack[++top] = w;
+                        next[top] = G.begin(w);
+                    }
+                }
+                else {
+                    post[n++] = v;
+                    top--;
+                }
+            }
+        }
+
+        // one component per depth-first search of the reverse, in reverse postorder
+        CSRDigraph R = G.reverse();
+        id = new int[V];
+        java.util.Arrays.fill(id, -1);
+        int[] sizes = new int[V];
+        int c = 0;
+        for (int i = V - 1; i >= 0; i--) {
+            int s = post[i];
+            if (id[s] != -1) continue;
+            id[s] = c;
+            int top = 0;
+            stack[0] = s;
+            while (top >= 0) {
+                int v = stack[top--];
+                sizes[c]++;
+                for (int e = R.begin(v); e < R.end(v); e++) {
+                    int w = R.to(e);
+                    if (id[w] == -1) {
+                        id[w] = c;
+                        stack[++top] = w;
+                    }
+                }
+            }
+            c++;
+        }
+        count = c;
+        size = java.util.Arrays.copyOf(sizes, c);
+        int best = -1;
+        for (int k = 0; k < c; k++)
+            if (best == -1 || size[k] > size[best]) best = k;
+        largest = best;
+    }
+
+    /**
+     * Returns the number of strong components.
+     * @return the number of strong components
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Are vertices <tt>v</tt> and <tt>w</tt> in the same strong component?
+     * @param v one vertex
+     * @param w the other vertex
+     * @return <tt>true</tt> if vertices <tt>v</tt> and <tt>w</tt> are in the same
+     *     strong component, and <tt>false</tt> otherwise
+     */
+    public boolean areStronglyConnected(int v, int w) {
+        return id[v] == id[w];
+    }
+
+    /**
+     * Returns the component id of the strong component containing vertex <tt>v</tt>.
+     * @param v the vertex
+     * @return the component id of the strong component containing vertex <tt>v</tt>
+     */
+    public int id(int v) {
+        return id[v];
+    }
+
+    /**
+     * Returns the number of vertices in strong component <tt>c</tt>.
+     * @param c the component id
+     * @return the number of vertices in the component
+     */
+    public int size(int c) {
+        return size[c];
+    }
+
+    /**
+     * Returns a strong component with the most vertices.
+     * @return its component id, or -1 if the digraph has no vertices
+     */
+    public int largest() {
+        return largest;
+    }
+
+    /**
+     * Unit tests the <tt>KosarajuSharirSCC</tt> data type.
+     */
+    public static void main(String[] args) throws Exception {
+        CSRDigraph G = new MapFileParser(args[0]).parse().graph();
+        KosarajuSharirSCC scc = new KosarajuSharirSCC(G);
+        System.out.println(scc.count() + " components, largest has "
+                + (scc.largest() < 0 ? 0 : scc.size(scc.largest())) + " of " + G.V() + " vertices");
+    }
+}
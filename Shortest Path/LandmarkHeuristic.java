@@ -0,0 +1,250 @@
+/*************************************************************************
+ *  Compilation:  javac LandmarkHeuristic.java
+ *  Execution:    java LandmarkHeuristic lab2.osm.txt queries k1 k2 ...
+ *  Dependencies: DistanceHeuristic.java CSRDigraph.java DijkstraSP.java
+ *                AStarSP.java GreatCircleHeuristic.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  ALT (A*, landmarks, triangle inequality) lower bounds.
+ *  The test client builds heuristics with the given landmark counts and
+ *  reports their table size and A* query cost against early-exit Dijkstra
+ *  and the great-circle heuristic on random pairs of vertices.
+ *
+ *  % java LandmarkHeuristic lab2.osm.txt 2000 1 2 4 8 16
+ *
+ *************************************************************************/
+
+import java.util.Random;
+
+/**
+ *  The <tt>LandmarkHeuristic</tt> class bounds distances with the triangle
+ *  inequality over a few precomputed landmarks. For a landmark <tt>L</tt>,
+ *  <tt>d(v, t)</tt> &ge; <tt>d(v, L)</tt> - <tt>d(t, L)</tt> and
+ *  <tt>d(v, t)</tt> &ge; <tt>d(L, t)</tt> - <tt>d(L, v)</tt>, and the bound
+ *  is the largest of these over all landmarks. Unlike a straight-line bound
+ *  it follows the road network, so it stays tight around rivers, one-way
+ *  streets and dead ends.
+ *  <p>
+ *  Landmarks are chosen by farthest-point selection: each new landmark is
+ *  the vertex whose round trip to the nearest landmark chosen so far is
+ *  longest, and a vertex that cannot reach or be reached from every
+ *  landmark so far wins outright, so each strongly connected piece of the
+ *  map gets a landmark before any piece gets two. Vertices without edges
+ *  are never chosen.
+ *  <p>
+ *  The distances to and from each landmark are kept as <tt>float</tt>s,
+ *  landmark-minor so that one bound reads two short runs of memory: 8
+ *  bytes per vertex and landmark in all. Each stored value is within half
+ *  a float ulp of the true distance, so each difference is reduced by
+ *  <tt>EPS</tt> times the sum of its terms, which keeps every bound below
+ *  the true distance. That slack can make the heuristic very slightly
+ *  inconsistent; {@link AStarSP} queues a vertex again if that matters,
+ *  so paths stay exact.
+ */
+public class LandmarkHeuristic implements DistanceHeuristic {
+    private static final double EPS = 0x1p-23;   // two float half-ulps, relative
+
+    private final int k;            // number of landmarks
+    private final int[] landmarks;
+    private final float[] fromL;    // fromL[v*k + i] = d(landmark i, v)
+    private final float[] toL;      // toL[v*k + i]   = d(v, landmark i)
+
+    /**
+     * Chooses <tt>k</tt> landmarks in <tt>G</tt> and computes their distance
+     * tables. If fewer than <tt>k</tt> vertices have an edge, all of them are
+     * landmarks (and with no edges at all, every bound is 0).
+     * @param G the edge-weighted digraph
+     * @param k the number of landmarks
+     * @throws IllegalArgumentException if an edge weight is negative, or if
+     *    <tt>k</tt> &lt; 1
+     */
+    public LandmarkHeuristic(CSRDigraph G, int k) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        int V = G.V();
+        CSRDigraph R = G.reverse();
+        boolean[] used = new boolean[V];
+        int seed = -1, candidates = 0;
+        for (int v = 0; v < V; v++) {
+            if (G.outdegree(v) > 0 || R.outdegree(v) > 0) {
+                if (seed == -1) seed = v;
+                candidates++;
+            }
+            else used[v] = true;            // isolated: never a landmark
+        }
+        if (k < 1) throw new IllegalArgumentException("number of landmarks must be at least 1");
+        k = Math.min(k, candidates);
+
+        this.k = k;
+        landmarks = new int[k];
+        fromL = new float[k * V];
+        toL = new float[k * V];
+
+        // round trip from each vertex to its nearest landmark; the seed vertex
+        // stands in for a landmark when choosing the first one
+        double[] score = k > 0 ? roundTrips(G, R, seed) : null;
+        for (int i = 0; i < k; i++) {
+            int L = farthest(score, used);
+            landmarks[i] = L;
+            used[L] = true;
+            DijkstraSP out = new DijkstraSP(G, L);
+            DijkstraSP in = new DijkstraSP(R, L);
+            if (i == 0) java.util.Arrays.fill(score, Double.POSITIVE_INFINITY);
+            for (int v = 0; v < V; v++) {
+                fromL[v*k + i] = (float) out.distTo(v);
+                toL[v*k + i] = (float) in.distTo(v);
+                score[v] = Math.min(score[v], out.distTo(v) + in.distTo(v));
+            }
+        }
+    }
+
+    private static double[] roundTrips(CSRDigraph G, CSRDigraph R, int s) {
+        DijkstraSP out = new DijkstraSP(G, s);
+        DijkstraSP in = new DijkstraSP(R, s);
+        double[] score = new double[G.V()];
+        for (int v = 0; v < G.V(); v++)
+            score[v] = out.distTo(v) + in.distTo(v);
+        return score;
+    }
+
+    // unused vertex with the largest score; infinity beats everything
+    private static int farthest(double[] score, boolean[] used) {
+        int best = -1;
+        for (int v = 0; v < score.length; v++) {
+            if (used[v]) continue;
+            if (best == -1 || score[v] > score[best]) best = v;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the largest landmark bound on the distance from <tt>v</tt> to <tt>t</tt>.
+     * @param v the vertex
+     * @param t the target vertex
+     * @return a lower bound on the distance from <tt>v</tt> to <tt>t</tt>;
+     *    <tt>Double.POSITIVE_INFINITY</tt> if the tables show there is no path
+     */
+    public double lowerBound(int v, int t) {
+        double bound = 0.0;
+        int a = v * k, b = t * k;
+        for (int i = 0; i < k; i++) {
+            // d(v, L) - d(t, L)
+            double vL = toL[a + i], tL = toL[b + i];
+            if (tL < Double.POSITIVE_INFINITY) {
+                if (vL == Double.POSITIVE_INFINITY) return Double.POSITIVE_INFINITY;
+                bound = Math.max(bound, vL - tL - EPS * (vL + tL));
+            }
+            // d(L, t) - d(L, v)
+            double Lt = fromL[b + i], Lv = fromL[a + i];
+            if (Lv < Double.POSITIVE_INFINITY) {
+                if (Lt == Double.POSITIVE_INFINITY) return Double.POSITIVE_INFINITY;
+                bound = Math.max(bound, Lt - Lv - EPS * (Lt + Lv));
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Returns the number of landmarks.
+     * @return the number of landmarks
+     */
+    public int landmarks() {
+        return k;
+    }
+
+    /**
+     * Returns landmark <tt>i</tt>.
+     * @param i the landmark number
+     * @return the vertex chosen as landmark <tt>i</tt>
+     */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+     * Returns the size of the distance tables.
+     * @return the number of bytes in the two float tables
+     */
+    public long tableBytes() {
+        return 4L * (fromL.length + toL.length);
+    }
+
+    /**
+     * Reports table size, preprocessing time and A* query cost for each
+     * landmark count given, next to early-exit Dijkstra and the great-circle
+     * heuristic, on random pairs of vertices with at least one edge.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        CSRDigraph G = map.graph();
+        int[] counts;
+        if (args.length > 2) {
+            counts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) counts[i - 2] = Integer.parseInt(args[i]);
+        }
+        else counts = new int[] { 1, 2, 4, 8, 16 };
+
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        int[] s = new int[queries], t = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            s[i] = vertices[random.nextInt(n)];
+            t[i] = vertices[random.nextInt(n)];
+        }
+
+        DistanceHeuristic[] heuristics = new DistanceHeuristic[counts.length + 1];
+        String[] names = new String[counts.length + 1];
+        long[] bytes = new long[counts.length + 1];
+        heuristics[0] = new GreatCircleHeuristic(map);
+        names[0] = "great-circle";
+        bytes[0] = 24L * G.V();
+        for (int j = 0; j < counts.length; j++) {
+            long start = System.nanoTime();
+            LandmarkHeuristic h = new LandmarkHeuristic(G, counts[j]);
+            System.out.printf("%2d landmarks chosen and tabulated in %.1f ms%n",
+                    counts[j], (System.nanoTime() - start) / 1e6);
+            heuristics[j + 1] = h;
+            names[j + 1] = counts[j] + " landmarks";
+            bytes[j + 1] = h.tableBytes();
+        }
+
+        for (int round = 0; round < 2; round++) {   // the first round warms up the JIT
+            long settledDijkstra = 0, timeDijkstra = 0;
+            double[] expected = new double[queries];
+            for (int i = 0; i < queries; i++) {
+                long start = System.nanoTime();
+                DijkstraSP dijkstra = new DijkstraSP(G, s[i], t[i]);
+                timeDijkstra += System.nanoTime() - start;
+                settledDijkstra += dijkstra.settled();
+                expected[i] = dijkstra.distTo(t[i]);
+            }
+            if (round == 1) {
+                System.out.printf("%d queries%n", queries);
+                System.out.printf("%-16s %12s %10s %10s %10s%n", "", "bytes", "settled", "us/query", "speedup");
+                System.out.printf("%-16s %12d %10.1f %10.1f %10s%n", "early-exit", 0,
+                        (double) settledDijkstra / queries, timeDijkstra / 1e3 / queries, "1.00");
+            }
+            for (int j = 0; j < heuristics.length; j++) {
+                long settled = 0, time = 0;
+                int mismatches = 0;
+                for (int i = 0; i < queries; i++) {
+                    long start = System.nanoTime();
+                    AStarSP astar = new AStarSP(G, s[i], t[i], heuristics[j]);
+                    time += System.nanoTime() - start;
+                    settled += astar.settled();
+                    double found = astar.distance();
+                    if (expected[i] != found && Math.abs(expected[i] - found) > 1e-9)
+                        mismatches++;
+                }
+                if (round == 0) continue;
+                System.out.printf("%-16s %12d %10.1f %10.1f %10.2f%s%n", names[j], bytes[j],
+                        (double) settled / queries, time / 1e3 / queries, (double) timeDijkstra / time,
+                        mismatches == 0 ? "" : "  (" + mismatches + " mismatches)");
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*************************************************************************
+ *  Compilation:  javac LatencyHistogram.java
+ *
+ *  Concurrent log-linear histogram of latencies in nanoseconds.
+ *  See RouteService for a client.
+ *
+ *************************************************************************/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *  The <tt>LatencyHistogram</tt> class counts latencies in buckets so that
+ *  percentiles such as the median and the 99th percentile can be read
+ *  without keeping every sample. Values below 32 ns have a bucket each;
+ *  above that, each power of two is split into 32 equal buckets, so a
+ *  reported percentile is at most about 3% above the true one. The buckets
+ *  of all values up to 2<sup>63</sup> fit in under two thousand counters.
+ *  <p>
+ *  <tt>record</tt> is one atomic increment and may be called from any
+ *  number of threads at once; readers see a snapshot that may lag behind
+ *  samples being recorded concurrently.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;               // buckets per power of two
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // bucket of a nonnegative value
+    private static int bucket(long value) {
+        if (value < SUB) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    // largest value in bucket b
+    private static long highest(int b) {
+        if (b < SUB) return b;
+        int shift = b / SUB - 1;
+        long lowest = (long) (SUB + b % SUB) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Records one latency.
+     * @param nanos the latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucket(nanos));
+        total.incrementAndGet();
+        sum.addAndGet(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { }
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     * @return the number of latencies recorded
+     */
+    public long count() {
+        return total.get();
+    }
+
+    /**
+     * Returns the mean latency.
+     * @return the mean in nanoseconds, or NaN if nothing was recorded
+     */
+    public double mean() {
+        long n = total.get();
+        return n == 0 ? Double.NaN : (double) sum.get() / n;
+    }
+
+    /**
+     * Returns the largest latency recorded.
+     * @return the largest latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the recorded
+     * latencies fall, rounded up to the top of its bucket.
+     * @param percent the percentile, such as 50 or 99
+     * @return the percentile in nanoseconds, or 0 if nothing was recorded
+     * @throws IllegalArgumentException unless 0 &lt; <tt>percent</tt> &le; 100
+     */
+    public long percentile(double percent) {
+        if (!(percent > 0 && percent <= 100))
+            throw new IllegalArgumentException("percentile must be in (0, 100]");
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            snapshot[b] = counts.get(b);
+            n += snapshot[b];
+        }
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(percent / 100 * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += snapshot[b];
+            if (seen >= rank) return Math.min(highest(b), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets every latency recorded. Samples recorded while the histogram
+     * is being reset may or may not survive.
+     */
+    public void reset() {
+        for (int b = 0; b < BUCKETS; b++)
+            counts.set(b, 0);
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns a one-line summary: count, mean, p50, p99, p99.9 and max,
+     * in microseconds.
+     * @return the summary
+     */
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                count(), mean() / 1e3, percentile(50) / 1e3, percentile(99) / 1e3,
+                percentile(99.9) / 1e3, max() / 1e3);
+    }
+}
@@ -0,0 +1,156 @@
+/*************************************************************************
+ *  Compilation:  javac LongIntHashMap.java
+ *
+ *  Symbol table from primitive long keys to nonnegative int values,
+ *  implemented with open addressing and linear probing.
+ *
+ *************************************************************************/
+
+/**
+ *  The <tt>LongIntHashMap</tt> class maps <tt>long</tt> keys (such as OSM
+ *  node IDs) to nonnegative <tt>int</tt> values (such as vertex indices)
+ *  without boxing either one. Keys and values live in two parallel arrays
+ *  whose length is a power of two, and collisions are resolved by linear
+ *  probing. The table doubles when it becomes half full, so
+ *  <tt>get</tt>, <tt>put</tt> and <tt>containsKey</tt> take constant
+ *  expected time.
+ *  <p>
+ *  Deletion is not supported: the map is meant to be built once at load
+ *  time and then only read.
+ */
+public class LongIntHashMap {
+    private static final int INIT_CAPACITY = 16;
+
+    private int N;           // number of key-value pairs
+    private int mask;        // table length - 1
+    private long[] keys;
+    private int[] vals;      // vals[i] == -1 means slot i is empty
+
+    /**
+     * Initializes an empty map.
+     */
+    public LongIntHashMap() {
+        this(INIT_CAPACITY);
+    }
+
+    /**
+     * Initializes an empty map that can hold <tt>expected</tt> keys
+     * without resizing.
+     * @param expected the expected number of keys
+     * @throws java.lang.IllegalArgumentException if <tt>expected</tt> &lt; 0
+     */
+    public LongIntHashMap(int expected) {
+        if (expected < 0) throw new IllegalArgumentException("Expected size must be nonnegative");
+        int capacity = INIT_CAPACITY;
+        while (capacity < 2 * expected)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Initializes a map directly from its table, as written by
+     * {@link GraphSnapshot}. The arrays are kept, not copied.
+     */
+    LongIntHashMap(long[] keys, int[] vals) {
+        if (keys.length != vals.length || Integer.bitCount(keys.length) != 1)
+            throw new IllegalArgumentException("Table length must be a power of two");
+        this.keys = keys;
+        this.vals = vals;
+        this.mask = keys.length - 1;
+        for (int i = 0; i < vals.length; i++)
+            if (vals[i] != -1) N++;
+    }
+
+    // the backing table, for GraphSnapshot; callers must not modify it
+    long[] keys() { return keys; }
+    int[] values() { return vals; }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        vals = new int[capacity];
+        java.util.Arrays.fill(vals, -1);
+        mask = capacity - 1;
+    }
+
+    // spread the bits of the key over the whole table (MurmurHash3 finalizer)
+    private int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     * @return the number of keys in the map
+     */
+    public int size() {
+        return N;
+    }
+
+    /**
+     * Is the map empty?
+     * @return <tt>true</tt> if the map has no keys
+     */
+    public boolean isEmpty() {
+        return N == 0;
+    }
+
+    /**
+     * Returns the value associated with <tt>key</tt>.
+     * @param key the key
+     * @return the value associated with <tt>key</tt>, or -1 if there is none
+     */
+    public int get(long key) {
+        for (int i = hash(key); vals[i] != -1; i = (i + 1) & mask) {
+            if (keys[i] == key) return vals[i];
+        }
+        return -1;
+    }
+
+    /**
+     * Does the map contain <tt>key</tt>?
+     * @param key the key
+     * @return <tt>true</tt> if the map contains <tt>key</tt>
+     */
+    public boolean containsKey(long key) {
+        return get(key) != -1;
+    }
+
+    /**
+     * Associates <tt>val</tt> with <tt>key</tt>, replacing any old value.
+     * @param key the key
+     * @param val the value
+     * @throws java.lang.IllegalArgumentException if <tt>val</tt> is negative
+     */
+    public void put(long key, int val) {
+        if (val < 0) throw new IllegalArgumentException("Value must be nonnegative");
+        if (2 * (N + 1) > keys.length) resize(2 * keys.length);
+        int i;
+        for (i = hash(key); vals[i] != -1; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                vals[i] = val;
+                return;
+            }
+        }
+        keys[i] = key;
+        vals[i] = val;
+        N++;
+    }
+
+    // rehash all keys into a table of the given capacity
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldVals = vals;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldVals[j] == -1) continue;
+            int i;
+            for (i = hash(oldKeys[j]); vals[i] != -1; i = (i + 1) & mask) { }
+            keys[i] = oldKeys[j];
+            vals[i] = oldVals[j];
+        }
+    }
+}
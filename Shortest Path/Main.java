@@ -1,90 +1,66 @@
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Scanner;
 
 public class Main {
-	private static int totalNodes;
-	private static int numberEdges;
-	private static int numberVertices;
-	private static double[] bounds = new double[4];
-	private static LinkedHashMap<Long, Node> nodes;
-	private static List<Node> nodeList = new LinkedList<Node>();
-	private static List<Long> nodeIDs = new LinkedList<Long>();
-	private static EdgeWeightedDigraph graph;
-	private static LinkedHashMap<Long, Node> edgeNodes;
-	private static LinkedList<LinkedList<Long>> group;
+	// the loaded map and everything built over it; replaced as a whole on
+	// reload, so each query reads it once and sees one map. Only its edge
+	// weights change in place, under the index's own lock
+	private static volatile RouteIndex index;
+
+	// recent shortest paths, up to 64 MB; emptied whenever a map is loaded
+	private static final RouteCache routeCache = new RouteCache(64L << 20);
 
 	/**
 	 * Entry point method for the application.
 	 * 
 	 * @param args
 	 *            Command line arguments. args[0] should be the path to the map
-	 *            file to read
+	 *            file to read, either in the text format or as a snapshot
+	 *            written by GraphSnapshot. The optional args[1] names a
+	 *            contraction hierarchy file: it is loaded if it exists, and
+	 *            otherwise built and written there
 	 */
 	public static void main(String[] args) {
 		// Filename of the map/graph data should be the first argument
 		if (args == null || args.length < 1) {
 			System.out
 					.println("Please pass the name of the file to read like this:\n\tjava Main fileToRead.txt");
+			return;
 		}
 		String filename = args[0];
 		try {
-			Scanner scan = new Scanner(new FileInputStream(filename));
-			scan.nextLine();
-			for (int i = 0; i < 4; i++) {
-				bounds[i] = scan.nextDouble();
-			}
-			scan.nextLine();
-			scan.nextLine();
-			totalNodes = scan.nextInt();
-			numberVertices = scan.nextInt();
-			numberEdges = scan.nextInt();
-			nodes = new LinkedHashMap<Long, Node>();
-			graph = new EdgeWeightedDigraph(totalNodes);
-			for (int i = 0; i < totalNodes; i++) {
-				long nodeID = scan.nextLong();
-				double lat = scan.nextDouble();
-				double lon = scan.nextDouble();
-				Node currNode = new Node(nodeID, lat, lon);
-				nodeList.add(currNode);
-				nodeIDs.add(nodeID);
-				nodes.put(nodeID, currNode);
-				scan.nextLine();
-			}
-			edgeNodes = new LinkedHashMap<Long, Node>();
-			group = new LinkedList<LinkedList<Long>>();
-			for (int i = 0; i < numberEdges; i++) {
-				if (scan.hasNextLine()) {
-					long startID = scan.nextLong();
-					long endID = scan.nextLong();
-					double weight = scan.nextDouble();
-					int start = nodeIDs.indexOf(startID);
-					int end = nodeIDs.indexOf(endID);
-					DirectedEdge edge = new DirectedEdge(start, end, weight);
-					LinkedList<Long> subs = new LinkedList<Long>();
-					graph.addEdge(edge);
-					while (scan.hasNextLong()) {
-						if (scan.hasNextLong()) {
-							long currID = scan.nextLong();
-							subs.add(currID);
-							if (!scan.hasNextLong()) {
-								group.add(i, subs);
-							}
-						}
-					}
-					scan.nextLine();
-				}
-			}
-			scan.close();
-		} catch (FileNotFoundException e) {
+			index = RouteIndex.load(filename, args.length > 1 ? args[1]
+					: null);
+			routeCache.invalidate();
+		} catch (IOException e) {
 			e.printStackTrace();
+		} catch (MapFormatException e) {
+			System.out.println(filename + ": " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Get the map that is loaded now, with everything built for querying
+	 * it. The index is safe to use from any thread.
+	 * 
+	 * @return The current index, or null before a map has been loaded
+	 */
+	public static RouteIndex index() {
+		return index;
+	}
+
+	/**
+	 * Get the cache in front of getShortestPath, for its hit, miss and
+	 * eviction counts.
+	 * 
+	 * @return The route cache
+	 */
+	public static RouteCache getRouteCache() {
+		return routeCache;
+	}
+
 	/**
 	 * Get the bounding box for the map in latitude/longitude format
 	 * 
@@ -92,7 +68,7 @@ public class Main {
 	 *         where x is longitude and y is latitude
 	 */
 	public static double[] getMapBounds() {
-		return bounds;
+		return index.map().bounds();
 	}
 
 	/**
@@ -104,12 +80,12 @@ public class Main {
 	 *         node, returns NaN
 	 */
 	public static double getLatitude(long nodeID) {
-		for (int i = 0; i < nodeList.size(); i++) {
-			if (nodeList.get(i).getNodeID() == nodeID) {
-				return nodeList.get(i).getLatitude();
-			}
+		MapData map = index.map();
+		int i = map.indexOf(nodeID);
+		if (i < 0) {
+			return Double.NaN;
 		}
-		return Double.NaN;
+		return map.latitude(i);
 	}
 
 	/**
@@ -121,52 +97,86 @@ public class Main {
 	 *         node, returns NaN
 	 */
 	public static double getLongitude(long nodeID) {
-		for (int i = 0; i < nodeList.size(); i++) {
-			if (nodeList.get(i).getNodeID() == nodeID) {
-				return nodeList.get(i).getLongitude();
-			}
+		MapData map = index.map();
+		int i = map.indexOf(nodeID);
+		if (i < 0) {
+			return Double.NaN;
 		}
-		return Double.NaN;
+		return map.longitude(i);
 	}
 
 	/**
 	 * Given a location, search for the node in the graph that is nearest in
-	 * absolute distance. Uses the distance on a curved sphere of radius given
-	 * by the WGS84 ellipsoid, see:
+	 * absolute distance. Uses the distance on a curved sphere, see:
 	 * http://en.wikipedia.org/wiki/Great-circle_distance
 	 * 
+	 * The search runs on a k-d tree built when the map is loaded, so it
+	 * visits a few dozen nodes instead of all of them.
+	 * 
 	 * @param latitude
 	 *            The latitude of the starting point
 	 * @param longitude
 	 *            The longitude of the starting point
 	 * @return The nodeID of the node that is nearest to the starting point. In
 	 *         the unlikely event of a tie returns any of the tying nodes
-	 *         arbitrarily
+	 *         arbitrarily. Returns 0 if the map has no nodes
 	 */
 	public static long getNearestNode(double latitude, double longitude) {
-		double min = totalNodes;
-		long targetNode = 0;
-		for(int i = 0; i < nodeList.size(); i++){
-			double lat1 = latitude;
-			double lon1 = longitude;
-			double lat2 = nodeList.get(i).getLatitude();
-			double lon2 = nodeList.get(i).getLongitude();
-			double radius = 6371;
-			double deltaLat = Math.toRadians(lat2 - lat1);
-			double deltaLon = Math.toRadians(lon2 - lon1);
-			lat1 = Math.toRadians(lat1);
-			lat2 = Math.toRadians(lat2);
-			double insSqrt = Math.pow(Math.sin(deltaLat / 2), 2)
-					+ Math.cos(lat1) * Math.cos(lat2)
-					* Math.pow(Math.sin(deltaLon / 2), 2);
-			double result = 2 * Math.asin(Math.sqrt(insSqrt));
-			double total = radius * result;
-			if (total < min) {
-				targetNode = nodeList.get(i).getNodeID();
-				min = total;
-			}
-		}
-		return targetNode;
+		return index.nearestNode(latitude, longitude);
+	}
+
+	/**
+	 * Snap many locations at once to their nearest nodes, as
+	 * getNearestNode does for one. The locations are snapped in parallel.
+	 * 
+	 * @param latitudes
+	 *            The latitudes of the points
+	 * @param longitudes
+	 *            The longitudes of the points, in the same order
+	 * @return The nodeID of a nearest node for each point, in the same order
+	 */
+	public static long[] getNearestNodes(double[] latitudes,
+			double[] longitudes) {
+		return index.nearestNodes(latitudes, longitudes);
+	}
+
+	/**
+	 * Find all nodes within a distance of a point: the point is snapped to
+	 * the nearest node that starts or ends an edge, and a Dijkstra search
+	 * from there stops at the distance, so only the area within it is
+	 * searched.
+	 * 
+	 * @param latitude
+	 *            The latitude of the point
+	 * @param longitude
+	 *            The longitude of the point
+	 * @param meters
+	 *            The largest distance from the snapped node, along the
+	 *            shortest path
+	 * @return The node ID's reached and their distances, in order of
+	 *         distance, with the convex hull around them
+	 */
+	public static Isochrone getNodesWithin(double latitude, double longitude,
+			double meters) {
+		return index.isochrone(latitude, longitude, meters);
+	}
+
+	/**
+	 * Find all nodes within a distance of each of many points, searching
+	 * from the points in parallel.
+	 * 
+	 * @param latitudes
+	 *            The latitudes of the points
+	 * @param longitudes
+	 *            The longitudes of the points, in the same order
+	 * @param meters
+	 *            The largest distance from each snapped node
+	 * @return For each point, in order, the nodes reached and their
+	 *         distances
+	 */
+	public static Isochrone[] getNodesWithin(double[] latitudes,
+			double[] longitudes, double meters) {
+		return index.isochrones(latitudes, longitudes, meters);
 	}
 
 	/**
@@ -185,15 +195,8 @@ public class Main {
 	 */
 	public static double getEdgeLength(long startNodeID, long endNodeID)
 			throws EdgeNotFoundException {
-		if (!edgeNodes.containsKey(startNodeID)
-				|| !edgeNodes.containsKey(endNodeID)) {
-			throw new EdgeNotFoundException();
-		}
-		if (edgeNodes.get(startNodeID).getEndNode() != endNodeID) {
-			throw new EdgeNotFoundException();
-		}
-
-		return edgeNodes.get(startNodeID).getEdgeWeight();
+		MapData map = index.map();
+		return map.edgeWeight(edgeID(map, startNodeID, endNodeID));
 	}
 
 	/**
@@ -214,10 +217,107 @@ public class Main {
 	 */
 	public static List<Long> getEdgeSubNodes(long startNodeID, long endNodeID)
 			throws EdgeNotFoundException {
-		if (!nodes.containsKey(startNodeID) || !nodes.containsKey(endNodeID)) {
+		MapData map = index.map();
+		int i = edgeID(map, startNodeID, endNodeID);
+		int begin = map.subNodeBegin(i);
+		int end = map.subNodeEnd(i);
+		if (begin == end) {
+			// an edge record without sub-nodes still has its endpoints
+			List<Long> result = new ArrayList<Long>(2);
+			result.add(startNodeID);
+			result.add(endNodeID);
+			return result;
+		}
+		List<Long> result = new ArrayList<Long>(end - begin);
+		for (int k = begin; k < end; k++) {
+			result.add(map.subNodeID(k));
+		}
+		return result;
+	}
+
+	/**
+	 * Look up the edge between two nodes in constant time.
+	 * 
+	 * @param map
+	 *            The map to look in
+	 * @param startNodeID
+	 *            The starting node ID
+	 * @param endNodeID
+	 *            The ending node ID
+	 * @return The edge ID in the map; the shortest edge if the file has
+	 *         several between the two nodes
+	 * @throws EdgeNotFoundException
+	 *             Thrown when there is no edge from startNodeID to endNodeID
+	 */
+	private static int edgeID(MapData map, long startNodeID, long endNodeID)
+			throws EdgeNotFoundException {
+		int from = map.indexOf(startNodeID);
+		int to = map.indexOf(endNodeID);
+		if (from < 0 || to < 0) {
+			throw new EdgeNotFoundException();
+		}
+		int i = map.edgeBetween(from, to);
+		if (i < 0) {
 			throw new EdgeNotFoundException();
 		}
-		return null;
+		return i;
+	}
+
+	/**
+	 * Change the weight that shortest paths use for the edge between two
+	 * nodes, for example because of traffic. The length of the edge, as
+	 * getEdgeLength returns it, stays the same. Cached shortest paths are
+	 * dropped; cached shortest-path trees are repaired.
+	 * 
+	 * @param startNodeID
+	 *            The starting node ID
+	 * @param endNodeID
+	 *            The ending node ID
+	 * @param weight
+	 *            The new weight, zero or more
+	 * @throws EdgeNotFoundException
+	 *             Thrown when there is no edge from startNodeID to endNodeID.
+	 *             If the file has several, the shortest one is changed
+	 */
+	public static void setEdgeWeight(long startNodeID, long endNodeID,
+			double weight) throws EdgeNotFoundException {
+		RouteIndex current = index;
+		current.updateEdgeWeight(edgeID(current.map(), startNodeID, endNodeID),
+				weight);
+		routeCache.invalidate();
+	}
+
+	/**
+	 * Close the edge between two nodes, so that no shortest path uses it,
+	 * until it is reopened.
+	 * 
+	 * @param startNodeID
+	 *            The starting node ID
+	 * @param endNodeID
+	 *            The ending node ID
+	 * @throws EdgeNotFoundException
+	 *             Thrown when there is no edge from startNodeID to endNodeID
+	 */
+	public static void closeEdge(long startNodeID, long endNodeID)
+			throws EdgeNotFoundException {
+		setEdgeWeight(startNodeID, endNodeID, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Reopen the edge between two nodes at its length from the file, undoing
+	 * closeEdge or setEdgeWeight.
+	 * 
+	 * @param startNodeID
+	 *            The starting node ID
+	 * @param endNodeID
+	 *            The ending node ID
+	 * @throws EdgeNotFoundException
+	 *             Thrown when there is no edge from startNodeID to endNodeID
+	 */
+	public static void reopenEdge(long startNodeID, long endNodeID)
+			throws EdgeNotFoundException {
+		setEdgeWeight(startNodeID, endNodeID,
+				getEdgeLength(startNodeID, endNodeID));
 	}
 
 	/**
@@ -227,7 +327,7 @@ public class Main {
 	 *         each edge as subnodes)
 	 */
 	public static int getNumberOfVertices() {
-		return numberVertices;
+		return index.map().vertexCount();
 	}
 
 	/**
@@ -236,7 +336,7 @@ public class Main {
 	 * @return |E|
 	 */
 	public static int getNumberOfEdges() {
-		return numberEdges;
+		return index.map().edgeCount();
 	}
 
 	/**
@@ -254,22 +354,8 @@ public class Main {
 	 *         no such path can be found.
 	 */
 	public static List<Long> getPath(long startNodeID, long endNodeID) {
-		ArrayList<Long> notFound = new ArrayList<Long>();
-		if (!nodes.containsKey(startNodeID) || !nodes.containsKey(endNodeID)) {
-			return notFound;
-		}
-		DijkstraSP dij = new DijkstraSP(graph, nodeIDs.indexOf(startNodeID));	
-		Iterable<DirectedEdge> iter = dij.pathTo(nodeIDs.indexOf(endNodeID));
-		List<Long> result = new LinkedList<Long>();
-			for(DirectedEdge e: iter){
-				result.add(nodeIDs.get(e.from()));
-				result.add(nodeIDs.get(e.to()));
-			}
-		
-		return result;
+		return getShortestPath(startNodeID, endNodeID);
 	}
-	
-
 
 	/**
 	 * Find a path through the graph from the given starting node ID and ending
@@ -286,21 +372,7 @@ public class Main {
 	 *         order</b>. Returns an empty list if no such path can be found.
 	 */
 	public static List<Long> getDetailedPath(long startNodeID, long endNodeID) {
-		ArrayList<Long> notFound = new ArrayList<Long>();
-		if (!nodes.containsKey(startNodeID) || !nodes.containsKey(endNodeID)) {
-			return notFound;
-		}
-		DijkstraSP dij = new DijkstraSP(graph, nodeIDs.indexOf(startNodeID));	
-		Iterable<DirectedEdge> iter = dij.pathTo(nodeIDs.indexOf(endNodeID));
-		System.out.println(iter);
-		List<Long> result = new LinkedList<Long>();
-			for(DirectedEdge e: iter){
-				result.add(nodeIDs.get(e.from()));
-				result.add(nodeIDs.get(e.to()));
-			}
-			System.out.println(result);
-		
-		return result;
+		return getDetailedShortestPath(startNodeID, endNodeID);
 	}
 
 	/**
@@ -312,45 +384,79 @@ public class Main {
 	 *            List of node ID's that hold the path
 	 */
 	public static void writeKMLFile(String filename, List<Long> path) {
-		java.io.PrintWriter fout = null;
-		try {
-			fout = new java.io.PrintWriter(new java.io.BufferedWriter(
-					new java.io.OutputStreamWriter( // need to get to one that
-							// let's us set the Charset
-							new java.io.FileOutputStream(filename), "UTF-8")));
-		} catch (Exception e) {
+		// the stream is closed even if the writer cannot be made
+		try (FileOutputStream out = new FileOutputStream(filename);
+				RouteWriter writer = new RouteWriter(index.map(), out,
+						RouteWriter.Format.KML)) {
+			writer.write(null, path);
+		} catch (IOException e) {
 			e.printStackTrace();
-		} // don't do any handling
-			// quick and dirty way to make a valid KML file
-		fout.print(kmlHeader);
-		for (Long nid : path) {
-			fout.printf("%f,%f\n", getLongitude(nid.longValue()),
-					getLatitude(nid.longValue()));
 		}
-		fout.print(kmlFooter);
-		fout.close();
-	}
-
-	// from KML reference example
-	static String kmlHeader = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
-			+ "<kml xmlns=\"http://www.opengis.net/kml/2.2\">" + "  <Document>"
-			+ "    <name>CS 311 Lab 2 Path</name>"
-			+ "    <description>Path between two nodes.</description>"
-			+ "    <Style id=\"yellowLineGreenPoly\">" + "      <LineStyle>"
-			+ "        <color>7f00ffff</color>" + "        <width>4</width>"
-			+ "      </LineStyle>" + "      <PolyStyle>"
-			+ "        <color>7f00ff00</color>" + "      </PolyStyle>"
-			+ "    </Style>" + "    <Placemark>"
-			+ "      <name>Follows surface</name>"
-			+ "      <description>Transparent green</description>"
-			+ "      <styleUrl>#yellowLineGreenPoly</styleUrl>"
-			+ "      <LineString>" + "        <extrude>0</extrude>"
-			+ "        <tessellate>0</tessellate>"
-			+ "        <altitudeMode>clampToGround</altitudeMode>"
-			+ "        <coordinates> ";
-
-	static String kmlFooter = "</coordinates>" + "      </LineString>"
-			+ "    </Placemark>" + "  </Document>" + "</kml>";
+	}
+
+	/**
+	 * Write many paths to one file in a single pass, one line string per
+	 * path. The format follows the file name: GeoJSON for ".geojson" or
+	 * ".json", KML otherwise, and gzip-compressed if the name also ends in
+	 * ".gz".
+	 * 
+	 * @param filename
+	 *            File name for the file to write
+	 * @param paths
+	 *            The paths, each a list of node ID's; path i is named
+	 *            "route i"
+	 * @throws IOException
+	 *             Thrown when the file cannot be written
+	 * @throws IllegalArgumentException
+	 *             Thrown when a path holds a node ID that is not in the map
+	 */
+	public static void writeRouteFile(String filename, List<List<Long>> paths)
+			throws IOException {
+		RouteWriter writer = RouteWriter.open(index.map(), filename);
+		try {
+			int i = 0;
+			for (List<Long> path : paths) {
+				writer.write("route " + i++, path);
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write the convex hull of each area to one file as a polygon, named
+	 * after its origin and distance. The format follows the file name as in
+	 * writeRouteFile. An area whose nodes lie on one line has no polygon
+	 * and is written as a line string instead, an area of its origin alone
+	 * as a point, and an area without nodes is left out.
+	 * 
+	 * @param filename
+	 *            File name for the file to write
+	 * @param areas
+	 *            The areas, as getNodesWithin returns them
+	 * @throws IOException
+	 *             Thrown when the file cannot be written
+	 */
+	public static void writeIsochroneFile(String filename, Isochrone[] areas)
+			throws IOException {
+		RouteWriter writer = RouteWriter.open(index.map(), filename);
+		try {
+			for (Isochrone area : areas) {
+				String name = String.format("within %.0f m of %d",
+						area.budget(), area.origin());
+				long[] hull = area.hull();
+				if (hull.length >= 3) {
+					writer.writePolygon(name, hull);
+				} else if (hull.length == 2) {
+					writer.write(name, hull);
+				} else if (hull.length == 1) {
+					writer.writePoint(name, hull[0]);
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
 
 	/**
 	 * Find a shortest path from the given start node ID to the end node ID. A
@@ -369,20 +475,73 @@ public class Main {
 	 *         only, not subnodes. Returns an empty list if no path exists.
 	 */
 	public static List<Long> getShortestPath(long startNodeID, long endNodeID) {
-		ArrayList<Long> notFound = new ArrayList<Long>();
-		if (!nodes.containsKey(startNodeID) || !nodes.containsKey(endNodeID)) {
-			return notFound;
+		// read the epoch before the index, so a path computed on a map
+		// that is replaced meanwhile is not cached
+		int epoch = routeCache.epoch();
+		RouteIndex current = index;
+		Route route = routeCache.get(startNodeID, endNodeID);
+		if (route == null) {
+			route = current.route(startNodeID, endNodeID);
+			routeCache.put(startNodeID, endNodeID, route, epoch);
+		}
+		return route.toList();
+	}
+
+	/**
+	 * Find a shortest path from one start node to each of many end nodes.
+	 * One search from the start node answers all of them, and its
+	 * shortest-path tree is cached, so later queries from the same start
+	 * node, through this method or getShortestPath, need no search at all.
+	 * 
+	 * @param startNodeID
+	 *            the node to start the searches from
+	 * @param endNodeIDs
+	 *            the nodes to end the searches at
+	 * @return For each end node, in order, the list of node ID's of the major
+	 *         nodes on a shortest path, or an empty list if no path exists
+	 */
+	public static List<List<Long>> getShortestPaths(long startNodeID,
+			long[] endNodeIDs) {
+		Route[] routes = index.routesFrom(startNodeID, endNodeIDs);
+		List<List<Long>> result = new ArrayList<List<Long>>(routes.length);
+		for (Route route : routes) {
+			result.add(route.toList());
 		}
-		DijkstraSP dij = new DijkstraSP(graph, nodeIDs.indexOf(startNodeID));	
-		Iterable<DirectedEdge> iter = dij.pathTo(nodeIDs.indexOf(endNodeID));
-		List<Long> result = new LinkedList<Long>();
-			for(DirectedEdge e: iter){
-				result.add(nodeIDs.get(e.from()));
-				result.add(nodeIDs.get(e.to()));
-			}		
 		return result;
 	}
 
+	/**
+	 * Find alternative routes between two nodes: the k shortest paths that
+	 * do not visit any node twice, shortest first, by Yen's algorithm. The
+	 * first is a shortest path, as getShortestPath finds.
+	 *
+	 * @param startNodeID
+	 *            the node to start the search from
+	 * @param endNodeID
+	 *            the node to end the search at
+	 * @param k
+	 *            the most routes to find, e.g. 3 for a map display
+	 * @return Up to k routes in order of length, each with the node ID's of
+	 *         its major nodes and its length. Fewer if there are no more
+	 *         paths, and none if no path exists.
+	 */
+	public static Route[] getAlternativeRoutes(long startNodeID,
+			long endNodeID, int k) {
+		return index.alternativeRoutes(startNodeID, endNodeID, k);
+	}
+
+	/**
+	 * Compute and cache the shortest-path trees of the given start nodes, in
+	 * parallel, ahead of queries from them, e.g. for the depots of a
+	 * delivery fleet.
+	 * 
+	 * @param startNodeIDs
+	 *            the start nodes; ID's that are not in the map are skipped
+	 */
+	public static void preloadShortestPathTrees(long[] startNodeIDs) {
+		index.populateTrees(startNodeIDs);
+	}
+
 	/**
 	 * Find a shortest path from the given start node ID to the end node ID. A
 	 * shortest path is one that has the shortest possible path length, which is
@@ -401,16 +560,26 @@ public class Main {
 	 */
 	public static List<Long> getDetailedShortestPath(long startNodeID,
 			long endNodeID) {
-		DijkstraSP dij = new DijkstraSP(graph, nodeIDs.indexOf(startNodeID));	
-		Iterable<DirectedEdge> iter = dij.pathTo(nodeIDs.indexOf(endNodeID));
-		List<Long> result = new LinkedList<Long>();
-			for(DirectedEdge e: iter){
-				result.add(nodeIDs.get(e.from()));
-				result.add(nodeIDs.get(e.to()));
-			}
-			System.out.println(result);
-		return result;
-//		return null;
+		return index.detailedPath(startNodeID, endNodeID);
+	}
+
+	/**
+	 * Compute the shortest-path distance from every start node to every end
+	 * node. Each distinct start node is searched once, on all cores, and
+	 * each search stops once it has reached every end node.
+	 * 
+	 * @param startNodeIDs
+	 *            The node ID's of the rows
+	 * @param endNodeIDs
+	 *            The node ID's of the columns
+	 * @return A row-major table: entry i * endNodeIDs.length + j is the
+	 *         length in meters of a shortest path from startNodeIDs[i] to
+	 *         endNodeIDs[j]. Infinity if there is no path, NaN in the rows and
+	 *         columns of node ID's that are not in the map
+	 */
+	public static double[] getDistanceMatrix(long[] startNodeIDs,
+			long[] endNodeIDs) {
+		return index.distanceMatrix(startNodeIDs, endNodeIDs);
 	}
 
 	/**
@@ -428,11 +597,14 @@ public class Main {
 	 * which comes from the edge weights. Returns an empty list if no path
 	 * exists.
 	 * 
+	 * The first call runs Dijkstra's algorithm from every node with an edge,
+	 * in parallel on all cores, and later calls return the same path.
+	 * 
 	 * @return A list of node ID's that identify the path that corresponds to
 	 *         the diameter of the graph.
 	 */
 	public static List<Long> getLongestShortestPath() {
-		return null;
+		return new ArrayList<Long>(index.longestShortestPath());
 	}
 
 	/**
@@ -440,12 +612,27 @@ public class Main {
 	 * based on the weights of the edges (not GPS coordinates).
 	 * 
 	 * @param path
-	 *            A list of node ID's forming a path in the graph
-	 * @return the length of the path in meters
+	 *            A list of node ID's forming a path in the graph, either major
+	 *            nodes only or including sub-nodes
+	 * @return the length of the path in meters, or NaN if two consecutive
+	 *         nodes are not joined by an edge
 	 */
 	public static double pathLength(List<Long> path) {
+		return index.evaluator().length(path);
+	}
 
-		return Double.NaN;
+	/**
+	 * Calculate the lengths of many paths at once, in parallel, as pathLength
+	 * does for one. An invalid path does not stop the others; its first
+	 * invalid hop is reported instead.
+	 * 
+	 * @param paths
+	 *            The paths, each a list of node ID's as for pathLength
+	 * @return The length of each path in meters, NaN for invalid ones, and
+	 *         the position of the first invalid hop of each
+	 */
+	public static PathEvaluator.Scores pathLengths(List<List<Long>> paths) {
+		return index.evaluator().evaluate(paths);
 	}
 
 }// end class Main
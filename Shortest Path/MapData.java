@@ -0,0 +1,416 @@
+/*************************************************************************
+ *  Compilation:  javac MapData.java
+ *  Dependencies: CSRDigraph.java LongIntHashMap.java KosarajuSharirSCC.java
+ *                VertexOrder.java
+ *
+ *  The contents of a map file held in primitive arrays.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ *  The <tt>MapData</tt> class holds everything read from a map file:
+ *  the bounding boxes, the node records and the edge records with their
+ *  sub-node lists. Edges are numbered 0 through <em>E</em> - 1 in file
+ *  order and that number is the edge ID reported by
+ *  {@link CSRDigraph#edgeID}.
+ *  <p>
+ *  Nodes are numbered 0 through <em>N</em> - 1, but not in file order:
+ *  the nodes that are an endpoint of some edge come first, numbered 0
+ *  through <em>V</em> - 1, and they are the vertices of the routing
+ *  graph. The other nodes (sub-nodes, which only shape the edges, and
+ *  records no edge uses) follow, numbered <em>V</em> through
+ *  <em>N</em> - 1, and have coordinates but no place in the graph. A map
+ *  file has many more node records than endpoints (7254 against 798 in
+ *  lab2), so this keeps every array indexed by vertex, in searches,
+ *  heuristics and shortest-path trees, to the size of the routing graph.
+ *  The vertices are numbered along a Hilbert curve over their coordinates,
+ *  so that the ends of an edge usually have nearby numbers and a search
+ *  reads memory in runs; {@link #renumbered} gives other orders.
+ *  {@link #vertexOf} returns the vertex of a node ID, or -1 for a node
+ *  that is not one.
+ *  <p>
+ *  The sub-nodes of edge <tt>i</tt> are <tt>subNodeID(k)</tt> for
+ *  <tt>subNodeBegin(i)</tt> &le; <tt>k</tt> &lt; <tt>subNodeEnd(i)</tt>,
+ *  starting and ending with the edge's own endpoints as in the file.
+ *  All sub-node lists share one <tt>long[]</tt>, so a path can be expanded
+ *  into its sub-nodes without a list object per edge.
+ *  <p>
+ *  {@link #edgeBetween} finds the edge from one node to another in
+ *  constant expected time through a hash table keyed by the pair of node
+ *  numbers packed into one <tt>long</tt>. Where the file has parallel
+ *  edges, the table keeps the shortest, which is the one any shortest path
+ *  between the two nodes uses.
+ */
+public class MapData {
+    private final double[] bounds;           // {min lon, max lon, min lat, max lat}
+    private final double[] projectedBounds;  // the same box in projected meters
+    private final int numberVertices;        // as declared in the file header
+
+    private final long[] nodeIDs;            // nodeIDs[v] = OSM ID of node v
+    private final double[] latitude;
+    private final double[] longitude;
+    private final LongIntHashMap nodeIndex;  // OSM ID -> node number
+
+    private final int[] edgeFrom;            // indexed by edge ID
+    private final int[] edgeTo;
+    private final double[] edgeWeight;
+    private final int[] subNodeOffset;       // sub-nodes of edge i: subNodeOffset[i] .. subNodeOffset[i+1]-1
+    private final long[] subNodeIDs;
+    private final LongIntHashMap edgeIndex;  // (from << 32 | to) -> shortest edge ID
+
+    private final CSRDigraph graph;
+
+    /**
+     * Builds the map from arrays filled by a loader, with the nodes numbered
+     * in file order, and renumbers the nodes so that the endpoints of the
+     * edges come first, along a Hilbert curve (see {@link VertexOrder}),
+     * and the other nodes follow in file order. The node arrays are copied
+     * in the new order and <tt>nodeIndex</tt> is updated to match; the edge
+     * arrays are renumbered in place and kept.
+     */
+    static MapData compact(double[] bounds, double[] projectedBounds, int numberVertices,
+            long[] nodeIDs, double[] latitude, double[] longitude, LongIntHashMap nodeIndex,
+            int[] edgeFrom, int[] edgeTo, double[] edgeWeight,
+            int[] subNodeOffset, long[] subNodeIDs) {
+        int N = nodeIDs.length;
+        boolean[] endpoint = new boolean[N];
+        for (int i = 0; i < edgeFrom.length; i++) {
+            endpoint[edgeFrom[i]] = true;
+            endpoint[edgeTo[i]] = true;
+        }
+        int V = 0;
+        for (int v = 0; v < N; v++)
+            if (endpoint[v]) V++;
+        int[] endpoints = new int[V];
+        for (int v = 0, k = 0; v < N; v++)
+            if (endpoint[v]) endpoints[k++] = v;
+        endpoints = VertexOrder.hilbert(latitude, longitude, endpoints);
+
+        int[] number = new int[N];          // number[v] = new number of node v
+        for (int k = 0; k < V; k++)
+            number[endpoints[k]] = k;
+        for (int v = 0, next = V; v < N; v++)
+            if (!endpoint[v]) number[v] = next++;
+        return renumber(bounds, projectedBounds, numberVertices, nodeIDs, latitude, longitude,
+                nodeIndex, edgeFrom, edgeTo, edgeWeight, subNodeOffset, subNodeIDs, number, V);
+    }
+
+    // gives node v the number number[v], the first V of them the vertices:
+    // copies the node arrays, updates nodeIndex and renumbers the edge
+    // arrays in place
+    private static MapData renumber(double[] bounds, double[] projectedBounds, int numberVertices,
+            long[] nodeIDs, double[] latitude, double[] longitude, LongIntHashMap nodeIndex,
+            int[] edgeFrom, int[] edgeTo, double[] edgeWeight,
+            int[] subNodeOffset, long[] subNodeIDs, int[] number, int V) {
+        int N = nodeIDs.length;
+        long[] ids = new long[N];
+        double[] lat = new double[N];
+        double[] lon = new double[N];
+        for (int v = 0; v < N; v++) {
+            int w = number[v];
+            ids[w] = nodeIDs[v];
+            lat[w] = latitude[v];
+            lon[w] = longitude[v];
+            nodeIndex.put(nodeIDs[v], w);
+        }
+        for (int i = 0; i < edgeFrom.length; i++) {
+            edgeFrom[i] = number[edgeFrom[i]];
+            edgeTo[i] = number[edgeTo[i]];
+        }
+        return new MapData(bounds, projectedBounds, numberVertices, ids, lat, lon, nodeIndex,
+                edgeFrom, edgeTo, edgeWeight, subNodeOffset, subNodeIDs,
+                new CSRDigraph(V, edgeFrom, edgeTo, edgeWeight));
+    }
+
+    /**
+     * Initializes the map from arrays and an already built routing graph,
+     * as read back by {@link GraphSnapshot}. The nodes must already be
+     * numbered with the vertices of the graph first.
+     */
+    MapData(double[] bounds, double[] projectedBounds, int numberVertices,
+            long[] nodeIDs, double[] latitude, double[] longitude, LongIntHashMap nodeIndex,
+            int[] edgeFrom, int[] edgeTo, double[] edgeWeight,
+            int[] subNodeOffset, long[] subNodeIDs, CSRDigraph graph) {
+        if (graph.V() > nodeIDs.length || graph.E() != edgeFrom.length)
+            throw new IllegalArgumentException("Routing graph does not match the node and edge arrays");
+        this.bounds = bounds;
+        this.projectedBounds = projectedBounds;
+        this.numberVertices = numberVertices;
+        this.nodeIDs = nodeIDs;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.nodeIndex = nodeIndex;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeWeight = edgeWeight;
+        this.subNodeOffset = subNodeOffset;
+        this.subNodeIDs = subNodeIDs;
+        this.graph = graph;
+        this.edgeIndex = new LongIntHashMap(edgeFrom.length);
+        for (int i = 0; i < edgeFrom.length; i++) {
+            long pair = pair(edgeFrom[i], edgeTo[i]);
+            int j = edgeIndex.get(pair);
+            if (j == -1 || edgeWeight[i] < edgeWeight[j]) edgeIndex.put(pair, i);
+        }
+    }
+
+    private static long pair(int from, int to) {
+        return (long) from << 32 | (to & 0xffffffffL);
+    }
+
+    /**
+     * Returns the bounding box of the map.
+     * @return {min_x, max_x, min_y, max_y} where x is longitude and y is latitude
+     */
+    public double[] bounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Returns the bounding box of the map in projected coordinates.
+     * @return {min_x, max_x, min_y, max_y} in meters
+     */
+    public double[] projectedBounds() {
+        return projectedBounds.clone();
+    }
+
+    /**
+     * Returns the number of node records, including sub-nodes.
+     * @return the number of node records
+     */
+    public int nodeCount() {
+        return nodeIDs.length;
+    }
+
+    /**
+     * Returns the number of vertices declared in the file header.
+     * @return the number of major vertices
+     */
+    public int vertexCount() {
+        return numberVertices;
+    }
+
+    /**
+     * Returns the number of edge records.
+     * @return the number of edge records
+     */
+    public int edgeCount() {
+        return edgeFrom.length;
+    }
+
+    /**
+     * Returns the node number for an OSM node ID.
+     * @param nodeID the OSM node ID
+     * @return the node number, or -1 if there is no such node
+     */
+    public int indexOf(long nodeID) {
+        return nodeIndex.get(nodeID);
+    }
+
+    /**
+     * Returns the vertex of the routing graph for an OSM node ID.
+     * @param nodeID the OSM node ID
+     * @return the node number if the node is an endpoint of some edge, or
+     *    -1 if it is not or there is no such node
+     */
+    public int vertexOf(long nodeID) {
+        int v = nodeIndex.get(nodeID);
+        return v < graph.V() ? v : -1;
+    }
+
+    /**
+     * Is node <tt>v</tt> a vertex of the routing graph?
+     * @param v the node number
+     * @return <tt>true</tt> if the node is an endpoint of some edge
+     */
+    public boolean isVertex(int v) {
+        return v >= 0 && v < graph.V();
+    }
+
+    /**
+     * Returns the OSM node ID of node <tt>v</tt>.
+     * @param v the node number
+     * @return the OSM node ID
+     */
+    public long nodeID(int v) {
+        return nodeIDs[v];
+    }
+
+    /**
+     * Returns the latitude of node <tt>v</tt>.
+     * @param v the node number
+     * @return the latitude in decimal degrees
+     */
+    public double latitude(int v) {
+        return latitude[v];
+    }
+
+    /**
+     * Returns the longitude of node <tt>v</tt>.
+     * @param v the node number
+     * @return the longitude in decimal degrees
+     */
+    public double longitude(int v) {
+        return longitude[v];
+    }
+
+    /**
+     * Returns the tail node of edge <tt>i</tt>.
+     * @param i the edge ID
+     * @return the node number of the tail
+     */
+    public int edgeFrom(int i) {
+        return edgeFrom[i];
+    }
+
+    /**
+     * Returns the head node of edge <tt>i</tt>.
+     * @param i the edge ID
+     * @return the node number of the head
+     */
+    public int edgeTo(int i) {
+        return edgeTo[i];
+    }
+
+    /**
+     * Returns the weight of edge <tt>i</tt>.
+     * @param i the edge ID
+     * @return the length of the edge in meters
+     */
+    public double edgeWeight(int i) {
+        return edgeWeight[i];
+    }
+
+    /**
+     * Returns the edge from node <tt>from</tt> to node <tt>to</tt>; the
+     * shortest one if there are several.
+     * @param from the node number of the tail
+     * @param to the node number of the head
+     * @return the edge ID, or -1 if there is no such edge
+     */
+    public int edgeBetween(int from, int to) {
+        return edgeIndex.get(pair(from, to));
+    }
+
+    /**
+     * Returns the position of the first sub-node of edge <tt>i</tt>.
+     * @param i the edge ID
+     * @return the position of the first sub-node of edge <tt>i</tt>
+     */
+    public int subNodeBegin(int i) {
+        return subNodeOffset[i];
+    }
+
+    /**
+     * Returns one past the position of the last sub-node of edge <tt>i</tt>.
+     * @param i the edge ID
+     * @return one past the position of the last sub-node of edge <tt>i</tt>
+     */
+    public int subNodeEnd(int i) {
+        return subNodeOffset[i + 1];
+    }
+
+    /**
+     * Returns the OSM node ID of the sub-node at position <tt>k</tt>.
+     * @param k the position
+     * @return the OSM node ID of the sub-node
+     */
+    public long subNodeID(int k) {
+        return subNodeIDs[k];
+    }
+
+    // the backing arrays, for GraphSnapshot; callers must not modify them
+    long[] nodeIDs()         { return nodeIDs; }
+    double[] latitudes()     { return latitude; }
+    double[] longitudes()    { return longitude; }
+    LongIntHashMap nodeIndex() { return nodeIndex; }
+    int[] edgeFroms()        { return edgeFrom; }
+    int[] edgeTos()          { return edgeTo; }
+    double[] edgeWeights()   { return edgeWeight; }
+    int[] subNodeOffsets()   { return subNodeOffset; }
+    long[] subNodeIDs()      { return subNodeIDs; }
+
+    /**
+     * Returns the routing graph, whose vertices are the nodes numbered 0
+     * through <tt>graph().V()</tt> - 1.
+     * @return the routing graph
+     */
+    public CSRDigraph graph() {
+        return graph;
+    }
+
+    /**
+     * Returns a copy of the map with the vertices of the routing graph
+     * renumbered, for example in an order from {@link VertexOrder}. Node
+     * IDs, edge IDs and everything looked up by them stay the same, and
+     * the nodes that are not vertices keep their numbers.
+     * @param order the vertices in their new order: vertex
+     *    <tt>order[k]</tt> becomes vertex <tt>k</tt>
+     * @return the renumbered map
+     * @throws IllegalArgumentException if <tt>order</tt> is not a
+     *    permutation of the vertices
+     */
+    public MapData renumbered(int[] order) {
+        int V = graph.V(), N = nodeIDs.length;
+        if (order.length != V)
+            throw new IllegalArgumentException("order has " + order.length + " vertices, not " + V);
+        int[] number = new int[N];
+        Arrays.fill(number, 0, V, -1);
+        for (int k = 0; k < V; k++) {
+            int v = order[k];
+            if (v < 0 || v >= V || number[v] != -1)
+                throw new IllegalArgumentException("order is not a permutation of the vertices");
+            number[v] = k;
+        }
+        for (int v = V; v < N; v++)
+            number[v] = v;
+        return renumber(bounds, projectedBounds, numberVertices, nodeIDs, latitude, longitude,
+                new LongIntHashMap(N), edgeFrom.clone(), edgeTo.clone(), edgeWeight,
+                subNodeOffset, subNodeIDs, number, V);
+    }
+
+    /**
+     * Returns the map without its islands: only the edges within the
+     * largest strongly connected component of the routing graph are kept,
+     * so that every vertex left can reach every other. Edges of smaller
+     * components, and edges between components, which lead only one way,
+     * are dropped with their sub-node lists, and their endpoints become
+     * plain nodes; every node record is kept, with its ID and coordinates.
+     * Routes that start or end on an island are lost, so this is for
+     * callers that only route within the main network.
+     * Edges are renumbered, in file order among the ones kept.
+     * @return the pruned map, or this map if it has no islands
+     */
+    public MapData withoutIslands() {
+        KosarajuSharirSCC scc = new KosarajuSharirSCC(graph);
+        int largest = scc.largest();
+        int E = edgeFrom.length, kept = 0, keptSubNodes = 0;
+        for (int i = 0; i < E; i++) {
+            if (scc.id(edgeFrom[i]) == largest && scc.id(edgeTo[i]) == largest) {
+                kept++;
+                keptSubNodes += subNodeOffset[i + 1] - subNodeOffset[i];
+            }
+        }
+        if (kept == E) return this;
+
+        int[] from = new int[kept], to = new int[kept];
+        double[] weight = new double[kept];
+        int[] offset = new int[kept + 1];
+        long[] subIDs = new long[keptSubNodes];
+        int j = 0;
+        for (int i = 0; i < E; i++) {
+            if (scc.id(edgeFrom[i]) != largest || scc.id(edgeTo[i]) != largest) continue;
+            from[j] = edgeFrom[i];
+            to[j] = edgeTo[i];
+            weight[j] = edgeWeight[i];
+            int n = subNodeOffset[i + 1] - subNodeOffset[i];
+            System.arraycopy(subNodeIDs, subNodeOffset[i], subIDs, offset[j], n);
+            offset[j + 1] = offset[j] + n;
+            j++;
+        }
+        return compact(bounds, projectedBounds, numberVertices, nodeIDs, latitude, longitude,
+                new LongIntHashMap(nodeIDs.length), from, to, weight, offset, subIDs);
+    }
+}
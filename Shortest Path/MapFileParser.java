@@ -0,0 +1,400 @@
+/*************************************************************************
+ *  Compilation:  javac MapFileParser.java
+ *  Execution:    java MapFileParser lab2.osm.txt
+ *  Dependencies: MapData.java MapFormatException.java LongIntHashMap.java
+ *                KosarajuSharirSCC.java VertexOrder.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Byte-level parser for the map file format:
+ *
+ *    # comment line
+ *    min_lon max_lon min_lat max_lat
+ *    min_x max_x min_y max_y
+ *    totalNodes numberVertices numberEdges
+ *    nodeID lat lon ...                      (totalNodes lines)
+ *    startID endID weight subID subID ...    (numberEdges lines)
+ *
+ *  Fields are separated by tabs or spaces. Trailing fields on a node
+ *  line are ignored.
+ *
+ *  % java MapFileParser lab2.osm.txt
+ *  7254 nodes, 1052 vertices, 1982 edges, 5729 sub-nodes
+ *  ...
+ *  routing graph: 798 vertices, 11.0% of the nodes; without islands 798 vertices, 1982 edges
+ *  bytes                   all nodes     vertices   no islands
+ *  search workspace           290160        31920        31920
+ *  ...
+ *
+ *************************************************************************/
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  The <tt>MapFileParser</tt> class reads a map file into a {@link MapData}.
+ *  Unlike {@link java.util.Scanner} it works directly on the bytes of a
+ *  buffered stream: numbers are decoded in place without creating a
+ *  <tt>String</tt> per token, and node and edge records go straight into
+ *  primitive arrays, and the nodes are numbered with the endpoints of the
+ *  edges first, along a Hilbert curve, so that the routing graph has no
+ *  vertex for a sub-node and neighboring vertices have nearby numbers
+ *  (see {@link MapData} and {@link VertexOrder}). Decimal numbers with at most 15 significant digits
+ *  take an exact fast path; longer ones fall back to
+ *  {@link Double#parseDouble}.
+ *  <p>
+ *  Malformed input is reported with a {@link MapFormatException} naming
+ *  the line on which the problem was found. After parsing, the number of
+ *  bytes read and the throughput in MB/s are available.
+ */
+public class MapFileParser {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // exact powers of ten that a double can hold
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream in;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos, lim;                 // unread bytes are buf[pos..lim-1]
+    private byte[] tok = new byte[32];    // current token
+    private int tokLen;
+    private long line = 1;                // line number of the next byte
+    private long bytesRead;
+    private long elapsedNanos;
+
+    /**
+     * Initializes a parser for the named file.
+     * @param filename the map file to read
+     * @throws IOException if the file cannot be opened
+     */
+    public MapFileParser(String filename) throws IOException {
+        this(new FileInputStream(filename));
+    }
+
+    /**
+     * Initializes a parser for the given stream. The stream is closed by
+     * {@link #parse()}.
+     * @param in the stream to read
+     */
+    public MapFileParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the whole map.
+     * @return the map
+     * @throws IOException if reading fails
+     * @throws MapFormatException if the input does not follow the map format
+     */
+    public MapData parse() throws IOException, MapFormatException {
+        long start = System.nanoTime();
+        try {
+            return read();
+        } finally {
+            elapsedNanos = System.nanoTime() - start;
+            in.close();
+        }
+    }
+
+    private MapData read() throws IOException, MapFormatException {
+        while (peek() == '#')
+            skipLine();
+
+        double[] bounds = new double[4];
+        for (int i = 0; i < 4; i++)
+            bounds[i] = nextDouble("bounding box");
+        endLine();
+        double[] projectedBounds = new double[4];
+        for (int i = 0; i < 4; i++)
+            projectedBounds[i] = nextDouble("projected bounding box");
+        endLine();
+        int totalNodes = nextCount("node count");
+        int numberVertices = nextCount("vertex count");
+        int numberEdges = nextCount("edge count");
+        endLine();
+
+        long[] nodeIDs = new long[totalNodes];
+        double[] latitude = new double[totalNodes];
+        double[] longitude = new double[totalNodes];
+        LongIntHashMap nodeIndex = new LongIntHashMap(totalNodes);
+        for (int v = 0; v < totalNodes; v++) {
+            expectRecord("node", v, totalNodes);
+            long nodeID = nextLong("node ID");
+            if (nodeIndex.containsKey(nodeID))
+                throw error("duplicate node ID " + nodeID);
+            nodeIDs[v] = nodeID;
+            latitude[v] = nextDouble("latitude");
+            longitude[v] = nextDouble("longitude");
+            nodeIndex.put(nodeID, v);
+            skipLine();
+        }
+
+        int[] edgeFrom = new int[numberEdges];
+        int[] edgeTo = new int[numberEdges];
+        double[] edgeWeight = new double[numberEdges];
+        int[] subNodeOffset = new int[numberEdges + 1];
+        long[] subNodeIDs = new long[Math.max(16, 4 * numberEdges)];
+        int subNodes = 0;
+        for (int i = 0; i < numberEdges; i++) {
+            expectRecord("edge", i, numberEdges);
+            edgeFrom[i] = nextNode(nodeIndex, "start node ID");
+            edgeTo[i] = nextNode(nodeIndex, "end node ID");
+            double weight = nextDouble("edge weight");
+            if (!(weight >= 0))
+                throw error("invalid edge weight " + weight);
+            edgeWeight[i] = weight;
+            while (!atEndOfLine()) {
+                long subID = nextLong("sub-node ID");
+                if (subNodes == subNodeIDs.length)
+                    subNodeIDs = java.util.Arrays.copyOf(subNodeIDs, 2 * subNodes);
+                subNodeIDs[subNodes++] = subID;
+            }
+            subNodeOffset[i + 1] = subNodes;
+            endLine();
+        }
+        while (peek() != -1) {
+            if (!atEndOfLine()) throw error("unexpected data after the last edge record");
+            endLine();
+        }
+
+        return MapData.compact(bounds, projectedBounds, numberVertices,
+                nodeIDs, latitude, longitude, nodeIndex,
+                edgeFrom, edgeTo, edgeWeight,
+                subNodeOffset, java.util.Arrays.copyOf(subNodeIDs, subNodes));
+    }
+
+    /**
+     * Returns the number of bytes consumed by {@link #parse()}.
+     * @return the number of bytes read
+     */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the time taken by {@link #parse()}.
+     * @return the elapsed time in seconds
+     */
+    public double seconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    /**
+     * Returns the parsing throughput of the last call to {@link #parse()}.
+     * @return the throughput in megabytes (10<sup>6</sup> bytes) per second
+     */
+    public double throughput() {
+        return elapsedNanos == 0 ? 0.0 : bytesRead / 1e6 / seconds();
+    }
+
+    /*************************************************************************
+     *  Byte-level helpers.
+     *************************************************************************/
+
+    // next byte without consuming it, or -1 at end of input
+    private int peek() throws IOException {
+        if (pos == lim) {
+            lim = in.read(buf, 0, BUFFER_SIZE);
+            pos = 0;
+            if (lim <= 0) {
+                lim = 0;
+                return -1;
+            }
+            bytesRead += lim;
+        }
+        return buf[pos] & 0xff;
+    }
+
+    private void skipBlanks() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t' || c == '\r')
+            pos++;
+    }
+
+    private boolean atEndOfLine() throws IOException {
+        skipBlanks();
+        int c = peek();
+        return c == '\n' || c == -1;
+    }
+
+    // consume the end of the current line; anything but blanks before it is an error
+    private void endLine() throws IOException, MapFormatException {
+        if (!atEndOfLine()) throw error("unexpected text '" + readTokenString() + "'");
+        if (peek() == '\n') {
+            pos++;
+            line++;
+        }
+    }
+
+    // consume the rest of the current line, whatever it holds
+    private void skipLine() throws IOException {
+        int c;
+        while ((c = peek()) != -1) {
+            pos++;
+            if (c == '\n') {
+                line++;
+                return;
+            }
+        }
+    }
+
+    // copy the next blank-delimited token into tok; returns its length (0 at end of line)
+    private int readToken() throws IOException {
+        skipBlanks();
+        tokLen = 0;
+        int c;
+        while ((c = peek()) != -1 && c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+            if (tokLen == tok.length) tok = java.util.Arrays.copyOf(tok, 2 * tokLen);
+            tok[tokLen++] = (byte) c;
+            pos++;
+        }
+        return tokLen;
+    }
+
+    private String readTokenString() throws IOException {
+        readToken();
+        return new String(tok, 0, tokLen, StandardCharsets.US_ASCII);
+    }
+
+    private void expectRecord(String what, int i, int n) throws IOException, MapFormatException {
+        if (peek() == -1)
+            throw error("unexpected end of file: expected " + n + " " + what + " records, found " + i);
+    }
+
+    private MapFormatException error(String message) {
+        return new MapFormatException(line, message);
+    }
+
+    private long nextLong(String what) throws IOException, MapFormatException {
+        if (readToken() == 0) throw error("missing " + what);
+        int i = 0;
+        boolean negative = tok[0] == '-';
+        if (negative || tok[0] == '+') i++;
+        if (i == tokLen) throw error("malformed " + what + " '" + token() + "'");
+        long value = 0;
+        for (; i < tokLen; i++) {
+            int d = tok[i] - '0';
+            if (d < 0 || d > 9) throw error("malformed " + what + " '" + token() + "'");
+            // accumulate negatively so that Long.MIN_VALUE parses too
+            if (value < (Long.MIN_VALUE + d) / 10)
+                throw error(what + " out of range '" + token() + "'");
+            value = value * 10 - d;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) throw error(what + " out of range '" + token() + "'");
+            value = -value;
+        }
+        return value;
+    }
+
+    private int nextCount(String what) throws IOException, MapFormatException {
+        long n = nextLong(what);
+        if (n < 0 || n > Integer.MAX_VALUE - 1) throw error("invalid " + what + " " + n);
+        return (int) n;
+    }
+
+    private int nextNode(LongIntHashMap nodeIndex, String what) throws IOException, MapFormatException {
+        long nodeID = nextLong(what);
+        int v = nodeIndex.get(nodeID);
+        if (v < 0) throw error("unknown node ID " + nodeID);
+        return v;
+    }
+
+    private double nextDouble(String what) throws IOException, MapFormatException {
+        if (readToken() == 0) throw error("missing " + what);
+        int i = 0;
+        boolean negative = tok[0] == '-';
+        if (negative || tok[0] == '+') i++;
+        long mantissa = 0;
+        int digits = 0, scale = 0, exponent = 0;
+        boolean fast = false;
+        for (; i < tokLen; i++) {
+            int c = tok[i];
+            if (c >= '0' && c <= '9') {
+                fast = true;
+                if (mantissa != 0 || c != '0') digits++;
+                mantissa = mantissa * 10 + (c - '0');
+                if (scale > 0) scale++;
+            }
+            else if (c == '.' && scale == 0) scale = 1;
+            else if (c == 'e' || c == 'E') {
+                exponent = parseExponent(i + 1);
+                if (exponent == Integer.MIN_VALUE) fast = false;
+                break;
+            }
+            else {
+                fast = false;
+                break;
+            }
+        }
+        if (scale > 0) exponent -= scale - 1;
+        if (fast && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+            return negative ? -value : value;
+        }
+        // slow but exact: more digits than a long multiply can carry exactly
+        try {
+            return Double.parseDouble(token());
+        }
+        catch (NumberFormatException e) {
+            throw error("malformed " + what + " '" + token() + "'");
+        }
+    }
+
+    // the exponent that starts at tok[i], or Integer.MIN_VALUE if it is malformed or large
+    private int parseExponent(int i) {
+        boolean negative = i < tokLen && tok[i] == '-';
+        if (i < tokLen && (tok[i] == '-' || tok[i] == '+')) i++;
+        if (i == tokLen || tokLen - i > 3) return Integer.MIN_VALUE;
+        int value = 0;
+        for (; i < tokLen; i++) {
+            int d = tok[i] - '0';
+            if (d < 0 || d > 9) return Integer.MIN_VALUE;
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    private String token() {
+        return new String(tok, 0, tokLen, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parses the named map file and prints its size, the throughput, and
+     * the memory that sizing the routing graph to the endpoints of the
+     * edges, and then pruning its islands, saves in the arrays indexed by
+     * vertex.
+     */
+    public static void main(String[] args) throws IOException {
+        MapFileParser parser = new MapFileParser(args[0]);
+        try {
+            MapData map = parser.parse();
+            System.out.println(map.nodeCount() + " nodes, " + map.vertexCount() + " vertices, "
+                    + map.edgeCount() + " edges, " + map.subNodeBegin(map.edgeCount()) + " sub-nodes");
+            System.out.printf("%d bytes in %.1f ms: %.1f MB/s\n",
+                    parser.bytesRead(), 1000 * parser.seconds(), parser.throughput());
+
+            int N = map.nodeCount(), V = map.graph().V();
+            MapData pruned = map.withoutIslands();
+            int P = pruned.graph().V();
+            System.out.printf("routing graph: %d vertices, %.1f%% of the nodes; without islands %d vertices, %d edges\n",
+                    V, 100.0 * V / Math.max(N, 1), P, pruned.edgeCount());
+            // bytes per vertex: distTo, edgeTo, stamp and the indexed queue's
+            // four arrays; distTo and parentEdge; 4 landmarks, both directions;
+            // the CSR offsets
+            String[] names = { "search workspace", "shortest-path tree", "4 landmarks", "CSR offsets" };
+            int[] perVertex = { 40, 8, 32, 4 };
+            System.out.printf("%-20s %12s %12s %12s\n", "bytes", "all nodes", "vertices", "no islands");
+            for (int i = 0; i < names.length; i++)
+                System.out.printf("%-20s %12d %12d %12d\n", names[i],
+                        (long) perVertex[i] * N, (long) perVertex[i] * V, (long) perVertex[i] * P);
+        }
+        catch (MapFormatException e) {
+            System.out.println(args[0] + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * This exception indicates that the map file being read does not follow
+ * the expected format. The line number of the offending line is kept so
+ * that the problem can be found in the file.
+ */
+@SuppressWarnings("serial")
+public class MapFormatException extends Exception
+{
+	private final long lineNumber;
+
+	public MapFormatException( long lineNumber, String message )
+	{
+		super("line " + lineNumber + ": " + message);
+		this.lineNumber = lineNumber;
+	}
+
+	/**
+	 * Returns the 1-based line number at which the problem was found.
+	 * 
+	 * @return - The line number of the malformed input.
+	 */
+	public long getLineNumber()
+	{
+		return lineNumber;
+	}
+}
@@ -0,0 +1,374 @@
+/*************************************************************************
+ *  Compilation:  javac NodeKdTree.java
+ *  Execution:    java NodeKdTree lab2.osm.txt points
+ *  Dependencies: MapData.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Static 3-d tree over node positions on the unit sphere, for nearest
+ *  and k-nearest node queries.
+ *  The test client snaps random points inside the map bounds with a linear
+ *  haversine scan, with single queries and with the bulk API, and checks
+ *  that all three agree.
+ *
+ *  % java NodeKdTree lab2.osm.txt 100000
+ *
+ *************************************************************************/
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ *  The <tt>NodeKdTree</tt> class finds the nodes of a map nearest to a
+ *  point given by latitude and longitude. Each node is stored as a unit
+ *  vector, and the straight-line (chord) distance between unit vectors
+ *  grows with the great-circle distance, so the node nearest by chord is
+ *  the node nearest on the sphere: the answers are exact, with no
+ *  projection and no trigonometry per node visited.
+ *  <p>
+ *  The tree is built once in time proportional to <em>N</em> log <em>N</em>
+ *  and stored implicitly: the points are permuted so that every subtree is
+ *  a contiguous range with its splitting point in the middle, split on the
+ *  coordinate with the widest spread. A query descends toward the point
+ *  first and skips any subtree whose splitting plane is farther away than
+ *  the best distance found, so it visits a few dozen nodes instead of
+ *  <em>N</em>. The tree is immutable, so any number of threads may query
+ *  it at once.
+ */
+public class NodeKdTree {
+    private final int N;
+    private final double[] px, py, pz;  // unit vectors in tree order
+    private final int[] node;           // node[i] = node number of point i in tree order
+    private final byte[] axis;          // axis[mid] = splitting coordinate of the subtree around mid
+
+    /**
+     * Builds the tree over every node of <tt>map</tt>.
+     * @param map the map
+     */
+    public NodeKdTree(MapData map) {
+        this(map, map.nodeCount());
+    }
+
+    /**
+     * Builds the tree over nodes 0 through <tt>n</tt> - 1 of <tt>map</tt>;
+     * with <tt>n</tt> = <tt>map.graph().V()</tt>, over the vertices of the
+     * routing graph, which are numbered first.
+     * @param map the map
+     * @param n the number of nodes to take
+     * @throws IllegalArgumentException unless 0 &le; <tt>n</tt> &le; the
+     *    number of nodes of <tt>map</tt>
+     */
+    public NodeKdTree(MapData map, int n) {
+        if (n < 0 || n > map.nodeCount())
+            throw new IllegalArgumentException("node count " + n + " is not between 0 and " + map.nodeCount());
+        N = n;
+        px = new double[N];
+        py = new double[N];
+        pz = new double[N];
+        node = new int[N];
+        axis = new byte[N];
+        for (int v = 0; v < N; v++) {
+            double lat = Math.toRadians(map.latitude(v));
+            double lon = Math.toRadians(map.longitude(v));
+            px[v] = Math.cos(lat) * Math.cos(lon);
+            py[v] = Math.cos(lat) * Math.sin(lon);
+            pz[v] = Math.sin(lat);
+            node[v] = v;
+        }
+        build(0, N);
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * @return the number of nodes
+     */
+    public int size() {
+        return N;
+    }
+
+    /*************************************************************************
+     *  Construction.
+     *************************************************************************/
+
+    private void build(int lo, int hi) {
+        if (hi - lo <= 1) return;
+        int a = widestAxis(lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, a);
+        axis[mid] = (byte) a;
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    private int widestAxis(int lo, int hi) {
+        double minX = px[lo], maxX = px[lo], minY = py[lo], maxY = py[lo], minZ = pz[lo], maxZ = pz[lo];
+        for (int i = lo + 1; i < hi; i++) {
+            minX = Math.min(minX, px[i]); maxX = Math.max(maxX, px[i]);
+            minY = Math.min(minY, py[i]); maxY = Math.max(maxY, py[i]);
+            minZ = Math.min(minZ, pz[i]); maxZ = Math.max(maxZ, pz[i]);
+        }
+        double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        if (dx >= dy && dx >= dz) return 0;
+        return dy >= dz ? 1 : 2;
+    }
+
+    private double coord(int i, int a) {
+        return a == 0 ? px[i] : a == 1 ? py[i] : pz[i];
+    }
+
+    // rearrange lo..hi so that position k holds the point it would hold if
+    // sorted on coordinate a, with no larger coordinate before it and no
+    // smaller one after it (Hoare's quickselect, middle element as pivot)
+    private void select(int lo, int hi, int k, int a) {
+        while (lo < hi) {
+            double pivot = coord((lo + hi) >>> 1, a);
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (coord(i, a) < pivot) i++;
+                while (coord(j, a) > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (k <= j)      hi = j;
+            else if (k >= i) lo = i;
+            else             return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double t = px[i]; px[i] = px[j]; px[j] = t;
+        t = py[i]; py[i] = py[j]; py[j] = t;
+        t = pz[i]; pz[i] = pz[j]; pz[j] = t;
+        int n = node[i]; node[i] = node[j]; node[j] = n;
+    }
+
+    /*************************************************************************
+     *  Queries. A Search holds the query point and the best answers so
+     *  far; the best k are a max-heap on squared chord length.
+     *************************************************************************/
+
+    private static final class Search {
+        final double x, y, z;
+        final int k;
+        final int[] best;           // heap of tree positions, farthest on top
+        final double[] bestDist;    // squared chord lengths, parallel to best
+        int n;
+
+        Search(double latitude, double longitude, int k) {
+            double lat = Math.toRadians(latitude);
+            double lon = Math.toRadians(longitude);
+            x = Math.cos(lat) * Math.cos(lon);
+            y = Math.cos(lat) * Math.sin(lon);
+            z = Math.sin(lat);
+            this.k = k;
+            best = new int[k];
+            bestDist = new double[k];
+        }
+
+        // squared distance a point must beat to enter the answer
+        double bound() {
+            return n < k ? Double.POSITIVE_INFINITY : bestDist[0];
+        }
+
+        void offer(int i, double d) {
+            if (n < k) {
+                // sift up from the end
+                int c = n++;
+                while (c > 0 && bestDist[(c - 1) / 2] < d) {
+                    best[c] = best[(c - 1) / 2];
+                    bestDist[c] = bestDist[(c - 1) / 2];
+                    c = (c - 1) / 2;
+                }
+                best[c] = i;
+                bestDist[c] = d;
+            }
+            else if (d < bestDist[0]) {
+                // replace the farthest and sift down
+                int c = 0;
+                while (2 * c + 1 < n) {
+                    int j = 2 * c + 1;
+                    if (j + 1 < n && bestDist[j + 1] > bestDist[j]) j++;
+                    if (bestDist[j] <= d) break;
+                    best[c] = best[j];
+                    bestDist[c] = bestDist[j];
+                    c = j;
+                }
+                best[c] = i;
+                bestDist[c] = d;
+            }
+        }
+    }
+
+    private void search(Search q, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double dx = px[mid] - q.x, dy = py[mid] - q.y, dz = pz[mid] - q.z;
+            double d = dx*dx + dy*dy + dz*dz;
+            if (d < q.bound()) q.offer(mid, d);
+            if (hi - lo == 1) return;
+            double delta = axis[mid] == 0 ? q.x - px[mid] : axis[mid] == 1 ? q.y - py[mid] : q.z - pz[mid];
+            // near side first; recurse into it and loop on the far side if it can still help
+            if (delta < 0) {
+                search(q, lo, mid);
+                if (delta * delta >= q.bound()) return;
+                lo = mid + 1;
+            }
+            else {
+                search(q, mid + 1, hi);
+                if (delta * delta >= q.bound()) return;
+                hi = mid;
+            }
+        }
+    }
+
+    /**
+     * Returns the node nearest to a point.
+     * @param latitude the latitude of the point in decimal degrees
+     * @param longitude the longitude of the point in decimal degrees
+     * @return the node number of a nearest node, or -1 if the tree is empty
+     */
+    public int nearest(double latitude, double longitude) {
+        if (N == 0) return -1;
+        Search q = new Search(latitude, longitude, 1);
+        search(q, 0, N);
+        return node[q.best[0]];
+    }
+
+    /**
+     * Returns the <tt>k</tt> nodes nearest to a point, nearest first.
+     * @param latitude the latitude of the point in decimal degrees
+     * @param longitude the longitude of the point in decimal degrees
+     * @param k the number of nodes
+     * @return the node numbers of the min(<tt>k</tt>, <tt>N</tt>) nearest nodes, nearest first
+     * @throws IllegalArgumentException if <tt>k</tt> &lt; 0
+     */
+    public int[] nearest(double latitude, double longitude, int k) {
+        if (k < 0) throw new IllegalArgumentException("k must be nonnegative");
+        k = Math.min(k, N);
+        if (k == 0) return new int[0];
+        Search q = new Search(latitude, longitude, k);
+        search(q, 0, N);
+        // empty the max-heap from the back so the nearest ends up first
+        int[] result = new int[k];
+        for (int i = k - 1; i >= 0; i--) {
+            result[i] = node[q.best[0]];
+            int last = q.best[--q.n];
+            double lastDist = q.bestDist[q.n];
+            int c = 0;
+            while (2 * c + 1 < q.n) {
+                int j = 2 * c + 1;
+                if (j + 1 < q.n && q.bestDist[j + 1] > q.bestDist[j]) j++;
+                if (q.bestDist[j] <= lastDist) break;
+                q.best[c] = q.best[j];
+                q.bestDist[c] = q.bestDist[j];
+                c = j;
+            }
+            q.best[c] = last;
+            q.bestDist[c] = lastDist;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the node nearest to each of many points. The points are
+     * snapped in parallel.
+     * @param latitudes the latitudes of the points in decimal degrees
+     * @param longitudes the longitudes of the points, in the same order
+     * @return <tt>result[i]</tt> = the node number of a node nearest to point <tt>i</tt>,
+     *    or -1 if the tree is empty
+     * @throws IllegalArgumentException if the arrays have different lengths
+     */
+    public int[] nearest(final double[] latitudes, final double[] longitudes) {
+        if (latitudes.length != longitudes.length)
+            throw new IllegalArgumentException("latitude and longitude arrays differ in length");
+        final int[] result = new int[latitudes.length];
+        IntStream.range(0, result.length).parallel()
+                 .forEach(i -> result[i] = nearest(latitudes[i], longitudes[i]));
+        return result;
+    }
+
+    // the great-circle distance in kilometers, as Main computed it before the tree
+    private static double haversine(double lat1, double lon1, double lat2, double lon2) {
+        double deltaLat = Math.toRadians(lat2 - lat1);
+        double deltaLon = Math.toRadians(lon2 - lon1);
+        double a = Math.pow(Math.sin(deltaLat / 2), 2)
+                 + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                 * Math.pow(Math.sin(deltaLon / 2), 2);
+        return 6371 * 2 * Math.asin(Math.sqrt(a));
+    }
+
+    private static int linearScan(MapData map, double latitude, double longitude) {
+        double min = Double.POSITIVE_INFINITY;
+        int nearest = -1;
+        for (int v = 0; v < map.nodeCount(); v++) {
+            double d = haversine(latitude, longitude, map.latitude(v), map.longitude(v));
+            if (d < min) {
+                min = d;
+                nearest = v;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Snaps random points inside the map bounds by linear scan, by single
+     * tree queries and by the bulk API, and reports the time per point.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int points = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        long start = System.nanoTime();
+        NodeKdTree tree = new NodeKdTree(map);
+        System.out.printf("built tree over %d nodes in %.1f ms%n", tree.size(), (System.nanoTime() - start) / 1e6);
+
+        double[] bounds = map.bounds();
+        Random random = new Random(311);
+        double[] lat = new double[points], lon = new double[points];
+        for (int i = 0; i < points; i++) {
+            lon[i] = bounds[0] + random.nextDouble() * (bounds[1] - bounds[0]);
+            lat[i] = bounds[2] + random.nextDouble() * (bounds[3] - bounds[2]);
+        }
+        int scanned = Math.min(points, 500);        // the scan is too slow for all of them
+
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            int[] linear = new int[scanned];
+            start = System.nanoTime();
+            for (int i = 0; i < scanned; i++)
+                linear[i] = linearScan(map, lat[i], lon[i]);
+            long timeLinear = System.nanoTime() - start;
+
+            int[] single = new int[points];
+            start = System.nanoTime();
+            for (int i = 0; i < points; i++)
+                single[i] = tree.nearest(lat[i], lon[i]);
+            long timeSingle = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int[] bulk = tree.nearest(lat, lon);
+            long timeBulk = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int[][] five = new int[scanned][];
+            for (int i = 0; i < scanned; i++)
+                five[i] = tree.nearest(lat[i], lon[i], 5);
+            long timeFive = System.nanoTime() - start;
+
+            // a different node at the same distance is a tie, not an error
+            int mismatches = 0;
+            for (int i = 0; i < points; i++) {
+                if (bulk[i] != single[i]) mismatches++;
+                if (i < scanned) {
+                    double dl = haversine(lat[i], lon[i], map.latitude(linear[i]), map.longitude(linear[i]));
+                    double dt = haversine(lat[i], lon[i], map.latitude(single[i]), map.longitude(single[i]));
+                    double d5 = haversine(lat[i], lon[i], map.latitude(five[i][0]), map.longitude(five[i][0]));
+                    if (Math.abs(dl - dt) > 1e-9 || Math.abs(dl - d5) > 1e-9) mismatches++;
+                }
+            }
+            if (round < 2) continue;
+            System.out.printf("%d points, %d mismatches%n", points, mismatches);
+            System.out.printf("linear scan        %10.3f us/point%n", timeLinear / 1e3 / scanned);
+            System.out.printf("tree, single       %10.3f us/point%n", timeSingle / 1e3 / points);
+            System.out.printf("tree, bulk         %10.3f us/point (%d threads)%n", timeBulk / 1e3 / points,
+                    Runtime.getRuntime().availableProcessors());
+            System.out.printf("tree, 5 nearest    %10.3f us/point%n", timeFive / 1e3 / scanned);
+        }
+    }
+}
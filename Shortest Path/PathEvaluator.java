@@ -0,0 +1,327 @@
+/*************************************************************************
+ *  Compilation:  javac PathEvaluator.java
+ *  Execution:    java PathEvaluator lab2.osm.txt paths
+ *  Dependencies: MapData.java LongIntHashMap.java AStarSP.java
+ *                LandmarkHeuristic.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Length of node-ID paths, major or detailed, one at a time or in
+ *  parallel batches.
+ *  The test client scores random shortest paths, in both forms and with
+ *  some hops broken, checks the lengths against the searches, and reports
+ *  throughput.
+ *
+ *  % java PathEvaluator lab2.osm.txt 100000
+ *
+ *************************************************************************/
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ *  The <tt>PathEvaluator</tt> class computes the length of a path given as
+ *  a sequence of OSM node IDs, in meters of edge weight as given in the
+ *  map file. A path may list major nodes only, as
+ *  <tt>Main.getShortestPath</tt> returns them, or every sub-node, as
+ *  <tt>Main.getDetailedShortestPath</tt> does; both forms, and mixtures of
+ *  them, are read the same way.
+ *  <p>
+ *  At each node <tt>u</tt> the evaluator first looks for an edge whose
+ *  sub-node list continues the path. Edges are indexed by their first
+ *  hop, the pair of <tt>u</tt> and the second sub-node packed into one
+ *  <tt>long</tt>, in a {@link LongIntHashMap}; edges that share a first
+ *  hop are chained through an <tt>int[]</tt>. If several edges match, the
+ *  one that covers the most nodes wins. Otherwise the hop is looked up as
+ *  a major edge with {@link MapData#edgeBetween}. Either lookup takes
+ *  constant expected time, so scoring a path takes time linear in its
+ *  length, and nothing is allocated per hop.
+ *  <p>
+ *  A hop that neither lookup resolves, including one from or to a node ID
+ *  not in the map, makes the path invalid. {@link #length} returns NaN
+ *  for it, and {@link #evaluate(List)} scores many paths in parallel and
+ *  records the position of the first invalid hop of each rather than
+ *  throwing.
+ */
+public class PathEvaluator {
+    private final MapData map;
+    private final LongIntHashMap firstHop;  // (u << 32 | second sub-node) -> an edge starting so
+    private final int[] nextSameHop;        // next edge with the same first hop, or -1
+
+    /**
+     * The lengths of a batch of paths and the first invalid hop of each.
+     */
+    public static final class Scores {
+        private final double[] length;
+        private final int[] invalidHop;
+        private final int invalid;
+
+        private Scores(double[] length, int[] invalidHop) {
+            this.length = length;
+            this.invalidHop = invalidHop;
+            int n = 0;
+            for (int i : invalidHop)
+                if (i != -1) n++;
+            this.invalid = n;
+        }
+
+        /**
+         * Returns the number of paths scored.
+         * @return the number of paths
+         */
+        public int size()               { return length.length; }
+
+        /**
+         * Returns the length of path <tt>i</tt>.
+         * @param i the position of the path in the batch
+         * @return the length in meters, or NaN if the path is invalid
+         */
+        public double length(int i)     { return length[i]; }
+
+        /**
+         * Returns the first hop of path <tt>i</tt> that is not an edge of
+         * the map: hop <tt>k</tt> goes from node <tt>k</tt> to node
+         * <tt>k</tt> + 1 of the path.
+         * @param i the position of the path in the batch
+         * @return the position of the first invalid hop, or -1 if the path
+         *    is valid
+         */
+        public int invalidHop(int i)    { return invalidHop[i]; }
+
+        /**
+         * Is path <tt>i</tt> made of edges of the map?
+         * @param i the position of the path in the batch
+         * @return <tt>true</tt> if the path is valid
+         */
+        public boolean isValid(int i)   { return invalidHop[i] == -1; }
+
+        /**
+         * Returns the number of invalid paths in the batch.
+         * @return the number of invalid paths
+         */
+        public int invalidCount()       { return invalid; }
+    }
+
+    /**
+     * Indexes the edges of <tt>map</tt> by their first hop.
+     * @param map the map the paths run on
+     */
+    public PathEvaluator(MapData map) {
+        this.map = map;
+        int E = map.edgeCount();
+        firstHop = new LongIntHashMap(E);
+        nextSameHop = new int[E];
+        // backwards, so that each chain lists its edges in file order
+        for (int i = E - 1; i >= 0; i--) {
+            nextSameHop[i] = -1;
+            int second = second(i);
+            if (second < 0) continue;   // sub-node missing from the node records
+            long hop = pair(map.edgeFrom(i), second);
+            nextSameHop[i] = firstHop.get(hop);
+            firstHop.put(hop, i);
+        }
+    }
+
+    private static long pair(int from, int to) {
+        return (long) from << 32 | (to & 0xffffffffL);
+    }
+
+    // node number of the second node of edge i: its second sub-node, or its head
+    private int second(int i) {
+        int begin = map.subNodeBegin(i);
+        if (map.subNodeEnd(i) - begin < 2) return map.edgeTo(i);
+        return map.indexOf(map.subNodeID(begin + 1));
+    }
+
+    /**
+     * Returns the length of a path.
+     * @param path the node IDs of the path in order, major nodes only or
+     *    with sub-nodes
+     * @return the length in meters, 0.0 for a path of fewer than two nodes,
+     *    and NaN if some hop is not an edge of the map
+     */
+    public double length(List<Long> path) {
+        return length(toArray(path));
+    }
+
+    /**
+     * Returns the length of a path.
+     * @param path the node IDs of the path in order, major nodes only or
+     *    with sub-nodes
+     * @return the length in meters, 0.0 for a path of fewer than two nodes,
+     *    and NaN if some hop is not an edge of the map
+     */
+    public double length(long[] path) {
+        double[] length = new double[1];
+        return score(path, length) == -1 ? length[0] : Double.NaN;
+    }
+
+    /**
+     * Scores many paths in parallel.
+     * @param paths the paths, each as node IDs in order
+     * @return the length of each path and the first invalid hop of each
+     */
+    public Scores evaluate(final List<? extends List<Long>> paths) {
+        final int n = paths.size();
+        final double[] length = new double[n];
+        final int[] invalidHop = new int[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            double[] d = new double[1];
+            invalidHop[i] = score(toArray(paths.get(i)), d);
+            length[i] = invalidHop[i] == -1 ? d[0] : Double.NaN;
+        });
+        return new Scores(length, invalidHop);
+    }
+
+    /**
+     * Scores many paths in parallel.
+     * @param paths the paths, each as node IDs in order
+     * @return the length of each path and the first invalid hop of each
+     */
+    public Scores evaluate(final long[][] paths) {
+        final int n = paths.length;
+        final double[] length = new double[n];
+        final int[] invalidHop = new int[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            double[] d = new double[1];
+            invalidHop[i] = score(paths[i], d);
+            length[i] = invalidHop[i] == -1 ? d[0] : Double.NaN;
+        });
+        return new Scores(length, invalidHop);
+    }
+
+    // copies through an iterator so that linked lists take linear time too
+    private static long[] toArray(List<Long> path) {
+        long[] a = new long[path.size()];
+        Iterator<Long> it = path.iterator();
+        for (int i = 0; i < a.length; i++)
+            a[i] = it.next();
+        return a;
+    }
+
+    // adds up the path into length[0]; returns the first invalid hop, or -1
+    private int score(long[] path, double[] length) {
+        double sum = 0.0;
+        int n = path.length;
+        int u = n > 0 ? map.indexOf(path[0]) : 0;
+        if (u < 0) return 0;
+        int k = 0;
+        while (k < n - 1) {
+            int x = map.indexOf(path[k + 1]);
+            if (x < 0) return k;
+
+            // the edge whose sub-nodes continue the path farthest
+            int best = -1, bestEnd = k;
+            for (int i = firstHop.get(pair(u, x)); i != -1; i = nextSameHop[i]) {
+                int end = matchEnd(i, path, k);
+                if (end > bestEnd || (end == bestEnd && end > k && map.edgeWeight(i) < map.edgeWeight(best))) {
+                    best = i;
+                    bestEnd = end;
+                }
+            }
+            if (best == -1) {
+                best = map.edgeBetween(u, x);
+                if (best == -1) return k;
+                bestEnd = k + 1;
+            }
+            sum += map.edgeWeight(best);
+            k = bestEnd;
+            u = map.edgeTo(best);
+        }
+        length[0] = sum;
+        return -1;
+    }
+
+    // the position in path of the head of edge i if its sub-nodes match the
+    // path from position k on, and k otherwise; the first hop is known to match
+    private int matchEnd(int i, long[] path, int k) {
+        int begin = map.subNodeBegin(i), end = map.subNodeEnd(i);
+        if (end - begin < 2) return k + 1;
+        int last = k + end - begin - 1;
+        if (last >= path.length) return k;
+        for (int j = 2; j < end - begin; j++)
+            if (path[k + j] != map.subNodeID(begin + j)) return k;
+        return last;
+    }
+
+    /**
+     * Scores random shortest paths, major and detailed, some with a broken
+     * hop, checks them against the search distances and reports paths and
+     * hops per second.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        CSRDigraph G = map.graph();
+        LandmarkHeuristic h = new LandmarkHeuristic(G, 4);
+        SearchWorkspace ws = new SearchWorkspace(G.V());
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+
+        // a pool of paths in both forms, with their lengths
+        int distinct = Math.min(count, 1000);
+        long[][] major = new long[distinct][], detailed = new long[distinct][];
+        double[] expected = new double[distinct];
+        for (int p = 0; p < distinct; p++) {
+            int[] edges = null;
+            int s = 0;
+            while (edges == null) {
+                s = vertices[random.nextInt(n)];
+                AStarSP sp = new AStarSP(G, s, vertices[random.nextInt(n)], h, ws);
+                edges = sp.pathEdges();
+                if (edges != null) expected[p] = sp.distance();
+            }
+            major[p] = new long[edges.length + 1];
+            major[p][0] = map.nodeID(s);
+            long[] d = new long[1 + 16 * edges.length];
+            int len = 0;
+            d[len++] = map.nodeID(s);
+            for (int j = 0; j < edges.length; j++) {
+                int i = G.edgeID(edges[j]);
+                major[p][j + 1] = map.nodeID(G.to(edges[j]));
+                for (int k = map.subNodeBegin(i) + 1; k < map.subNodeEnd(i); k++) {
+                    if (len == d.length) d = java.util.Arrays.copyOf(d, 2 * len);
+                    d[len++] = map.subNodeID(k);
+                }
+            }
+            detailed[p] = java.util.Arrays.copyOf(d, len);
+        }
+
+        // every tenth path gets a hop to a node that is not its neighbor
+        long[][] batch = new long[count][];
+        long hops = 0;
+        int broken = 0;
+        for (int p = 0; p < count; p++) {
+            long[] path = (p % 2 == 0 ? major : detailed)[p % distinct];
+            if (p % 10 == 9 && path.length > 2) {
+                path = path.clone();
+                path[path.length / 2] = path[0];
+                broken++;
+            }
+            batch[p] = path;
+            hops += path.length - 1;
+        }
+
+        PathEvaluator evaluator = new PathEvaluator(map);
+        Scores scores = null;
+        long time = 0;
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            long start = System.nanoTime();
+            scores = evaluator.evaluate(batch);
+            time = System.nanoTime() - start;
+        }
+        int wrong = 0;
+        for (int p = 0; p < count; p++) {
+            if (batch[p] != major[p % distinct] && batch[p] != detailed[p % distinct]) continue;
+            if (Math.abs(scores.length(p) - expected[p % distinct]) > 1e-6) wrong++;
+        }
+        System.out.printf("%d paths, %d hops in %.1f ms: %.0f paths/s, %.0f hops/s%n",
+                count, hops, time / 1e6, count / (time / 1e9), hops / (time / 1e9));
+        System.out.printf("%d of %d broken paths reported invalid, %d valid lengths wrong%n",
+                scores.invalidCount(), broken, wrong);
+    }
+}
@@ -0,0 +1,205 @@
+/*************************************************************************
+ *  Compilation:  javac RadixHeap.java
+ *
+ *  Indexed monotone priority queue (radix heap) with double keys.
+ *  See IndexDoubleMinPQ for a benchmark against the other queues.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ *  The <tt>RadixHeap</tt> class is an indexed priority queue of integers
+ *  0 through <tt>NMAX</tt> - 1 keyed by nonnegative <tt>double</tt>s, for
+ *  algorithms such as Dijkstra's whose keys never drop below the last
+ *  minimum removed. Entries live in 65 buckets by the highest bit in which
+ *  their key differs from that last minimum; removing a minimum empties the
+ *  lowest nonempty bucket into lower ones, so each entry moves at most 64
+ *  times and no operation compares more than one bucket's worth of keys.
+ *  <p>
+ *  Bucket queues usually need integer keys, e.g. weights rounded to whole
+ *  millimeters. Here the keys are bucketed by their IEEE 754 bit patterns
+ *  instead: for nonnegative doubles, the order of the bit patterns read
+ *  as <tt>long</tt>s is the order of the values, so the queue is exact for
+ *  ordinary real-valued edge weights.
+ *  <p>
+ *  <tt>decreaseKey</tt> adds a new entry and the old one is discarded when
+ *  it is reached, as in the lazy mode of {@link IndexDoubleMinPQ}.
+ */
+public class RadixHeap {
+    private static final int BUCKETS = 65;
+
+    private final long[][] bucketKey = new long[BUCKETS][];
+    private final int[][] bucketVal = new int[BUCKETS][];
+    private final int[] bucketSize = new int[BUCKETS];
+    private final long[] keys;      // keys[i] = bit pattern of the current key of i
+    private final boolean[] queued; // queued[i] = is i in the queue?
+    private long last;              // bit pattern of the last minimum removed
+    private int live;               // number of indices in the queue
+
+    /**
+     * Initializes an empty radix heap with indices between 0 and
+     * <tt>NMAX</tt> - 1.
+     * @param NMAX the number of indices
+     * @throws IllegalArgumentException if <tt>NMAX</tt> &lt; 0
+     */
+    public RadixHeap(int NMAX) {
+        if (NMAX < 0) throw new IllegalArgumentException("NMAX must be nonnegative");
+        keys = new long[NMAX];
+        queued = new boolean[NMAX];
+        for (int b = 0; b < BUCKETS; b++) {
+            bucketKey[b] = new long[4];
+            bucketVal[b] = new int[4];
+        }
+    }
+
+    /**
+     * Is the priority queue empty?
+     * @return <tt>true</tt> if no index is in the queue
+     */
+    public boolean isEmpty() {
+        return live == 0;
+    }
+
+    /**
+     * Is <tt>i</tt> in the priority queue?
+     * @param i an index
+     * @return <tt>true</tt> if <tt>i</tt> is in the queue
+     */
+    public boolean contains(int i) {
+        return queued[i];
+    }
+
+    /**
+     * Returns the number of indices in the priority queue.
+     * @return the number of indices in the queue
+     */
+    public int size() {
+        return live;
+    }
+
+    /**
+     * Associates key with index <tt>i</tt>.
+     * @param i an index
+     * @param key the key, at least the last minimum removed
+     * @throws IllegalArgumentException if <tt>i</tt> is already in the queue,
+     *    or if <tt>key</tt> is NaN, negative or below the last minimum removed
+     */
+    public void insert(int i, double key) {
+        if (queued[i]) throw new IllegalArgumentException("index " + i + " is already in the priority queue");
+        long bits = bits(key);
+        queued[i] = true;
+        keys[i] = bits;
+        live++;
+        add(bits, i);
+    }
+
+    /**
+     * Decreases the key associated with index <tt>i</tt>.
+     * @param i an index
+     * @param key the new key, no larger than the current one and at least
+     *    the last minimum removed
+     * @throws IllegalArgumentException if <tt>key</tt> is out of range
+     * @throws NoSuchElementException if <tt>i</tt> is not in the queue
+     */
+    public void decreaseKey(int i, double key) {
+        if (!queued[i]) throw new NoSuchElementException("index " + i + " is not in the priority queue");
+        long bits = bits(key);
+        if (bits > keys[i]) throw new IllegalArgumentException("key does not decrease the key of index " + i);
+        if (bits == keys[i]) return;
+        keys[i] = bits;
+        add(bits, i);
+    }
+
+    /**
+     * Returns a minimum key.
+     * @return a minimum key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public double minKey() {
+        if (live == 0) throw new NoSuchElementException("Priority queue underflow");
+        refill();
+        return Double.longBitsToDouble(last);
+    }
+
+    /**
+     * Removes a minimum key and returns its associated index.
+     * @return an index associated with a minimum key
+     * @throws NoSuchElementException if the priority queue is empty
+     */
+    public int delMin() {
+        if (live == 0) throw new NoSuchElementException("Priority queue underflow");
+        refill();
+        int i = bucketVal[0][--bucketSize[0]];
+        queued[i] = false;
+        live--;
+        return i;
+    }
+
+    /**
+     * Removes every index from the priority queue and allows any key again.
+     */
+    public void clear() {
+        for (int b = 0; b < BUCKETS; b++) {
+            for (int j = 0; j < bucketSize[b]; j++)
+                queued[bucketVal[b][j]] = false;
+            bucketSize[b] = 0;
+        }
+        live = 0;
+        last = 0;
+    }
+
+    private long bits(double key) {
+        if (!(key >= 0.0)) throw new IllegalArgumentException("key must be a nonnegative number");
+        long bits = Double.doubleToLongBits(key + 0.0);     // + 0.0 turns -0.0 into 0.0
+        if (bits < last) throw new IllegalArgumentException("key is below the last minimum removed");
+        return bits;
+    }
+
+    private static int bucket(long bits, long last) {
+        return 64 - Long.numberOfLeadingZeros(bits ^ last);
+    }
+
+    private void add(long bits, int i) {
+        int b = bucket(bits, last);
+        if (bucketSize[b] == bucketKey[b].length) {
+            bucketKey[b] = Arrays.copyOf(bucketKey[b], 2 * bucketSize[b]);
+            bucketVal[b] = Arrays.copyOf(bucketVal[b], 2 * bucketSize[b]);
+        }
+        bucketKey[b][bucketSize[b]] = bits;
+        bucketVal[b][bucketSize[b]++] = i;
+    }
+
+    // is this entry still the current key of a queued index?
+    private boolean current(long bits, int i) {
+        return queued[i] && keys[i] == bits;
+    }
+
+    // make bucket 0 end with a current entry; the queue must not be empty
+    private void refill() {
+        while (true) {
+            // drop stale entries at the end of bucket 0
+            while (bucketSize[0] > 0) {
+                int n = bucketSize[0] - 1;
+                if (current(bucketKey[0][n], bucketVal[0][n])) return;
+                bucketSize[0] = n;
+            }
+            int b = 1;
+            while (bucketSize[b] == 0) b++;
+
+            // the new minimum is the smallest current key in bucket b
+            long min = Long.MAX_VALUE;
+            long[] k = bucketKey[b];
+            int[] val = bucketVal[b];
+            int n = bucketSize[b];
+            for (int j = 0; j < n; j++)
+                if (k[j] < min && current(k[j], val[j])) min = k[j];
+            bucketSize[b] = 0;
+            if (min == Long.MAX_VALUE) continue;    // bucket held only stale entries
+            last = min;
+            for (int j = 0; j < n; j++)
+                if (current(k[j], val[j])) add(k[j], val[j]);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*************************************************************************
+ *  Compilation:  javac Route.java
+ *
+ *  An immutable shortest path: its node IDs and its length.
+ *
+ *************************************************************************/
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  The <tt>Route</tt> class holds the result of one shortest-path query:
+ *  the OSM IDs of the major nodes on the path, packed in a <tt>long[]</tt>,
+ *  and the length of the path in meters. A query without an answer,
+ *  because a node is unknown or there is no path, gives a route with no
+ *  nodes and infinite length, so that "no route" can be cached like any
+ *  other answer.
+ */
+public final class Route {
+    // array header, fields and object header of a route, roughly, on a 64-bit JVM
+    private static final int OVERHEAD = 48;
+
+    private final long[] nodes;
+    private final double distance;
+
+    /**
+     * Initializes a route. The array is kept, not copied, and must not be
+     * changed afterwards.
+     * @param nodes the node IDs of the path in order; empty for no path
+     * @param distance the length of the path
+     */
+    Route(long[] nodes, double distance) {
+        this.nodes = nodes;
+        this.distance = distance;
+    }
+
+    /**
+     * Returns the number of nodes on the route.
+     * @return the number of nodes, 0 if there is no path
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Is there a path?
+     * @return <tt>true</tt> if the route has any nodes
+     */
+    public boolean exists() {
+        return nodes.length > 0;
+    }
+
+    /**
+     * Returns the node ID at position <tt>i</tt> of the route.
+     * @param i the position
+     * @return the OSM node ID
+     */
+    public long node(int i) {
+        return nodes[i];
+    }
+
+    /**
+     * Returns the length of the route.
+     * @return the length in meters, or <tt>Double.POSITIVE_INFINITY</tt>
+     *    if there is no path
+     */
+    public double distance() {
+        return distance;
+    }
+
+    /**
+     * Returns the node IDs as a new list, which the caller may change.
+     * @return the node IDs of the path in order, or an empty list
+     */
+    public List<Long> toList() {
+        List<Long> list = new ArrayList<Long>(nodes.length);
+        for (long id : nodes)
+            list.add(id);
+        return list;
+    }
+
+    /**
+     * Returns an estimate of the memory the route takes.
+     * @return the size in bytes
+     */
+    public long bytes() {
+        return OVERHEAD + 8L * nodes.length;
+    }
+}
@@ -0,0 +1,419 @@
+/*************************************************************************
+ *  Compilation:  javac RouteCache.java
+ *  Execution:    java RouteCache lab2.osm.txt queries pairs
+ *  Dependencies: Route.java RouteIndex.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Size-bounded LRU cache of shortest paths keyed by (start, end) node IDs.
+ *  The test client sends Zipf-distributed queries over a fixed set of
+ *  random pairs through caches of several sizes and reports hit rates and
+ *  queries per second against the uncached index.
+ *
+ *  % java RouteCache lab2.osm.txt 200000 20000
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *  The <tt>RouteCache</tt> class keeps recent answers to shortest-path
+ *  queries, keyed by the pair of start and end node IDs, within a limit on
+ *  the bytes the cached {@link Route}s take. When the limit is reached the
+ *  least recently used routes are evicted.
+ *  <p>
+ *  The cache is split into segments by the hash of the key, each with its
+ *  own lock, table and LRU list, and an equal share of the byte limit, so
+ *  threads that look up different pairs rarely wait for each other. A
+ *  segment keeps its entries in parallel primitive arrays: the two node
+ *  IDs of the key, the route, and <tt>int</tt> links for the hash chains
+ *  and the LRU list, with a free list for reuse. Looking up or adding a
+ *  pair allocates nothing but the route itself.
+ *  <p>
+ *  When the map is reloaded or edge weights change, {@link #invalidate}
+ *  empties the cache and starts a new epoch; a weight update calls it
+ *  after the new weights are in place. A caller reads {@link #epoch}
+ *  before it reads the index it computes a missing route on, and passes
+ *  the epoch to {@link #put}; a route computed on an index that was
+ *  replaced or reweighted meanwhile then carries an old epoch and is
+ *  dropped instead of cached.
+ *  <p>
+ *  Hits, misses and evictions are counted with <tt>LongAdder</tt>s.
+ */
+public class RouteCache {
+    private static final int SEGMENTS = 16;     // a power of two
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long maxBytes;
+    private volatile int epoch;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Initializes an empty cache.
+     * @param maxBytes the most bytes the cached routes may take
+     * @throws IllegalArgumentException if <tt>maxBytes</tt> is negative
+     */
+    public RouteCache(long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("byte limit must be nonnegative");
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+    }
+
+    // spread the bits of the pair over the whole int (MurmurHash3 finalizer)
+    private static int hash(long start, long end) {
+        long h = start * 0x9e3779b97f4a7c15L + end;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private Segment segment(int hash) {
+        return segments[hash >>> 28];   // top bits; the table uses the low ones
+    }
+
+    /**
+     * Returns the current epoch, to be passed to {@link #put}.
+     * @return the current epoch
+     */
+    public int epoch() {
+        return epoch;
+    }
+
+    /**
+     * Returns the cached route from <tt>start</tt> to <tt>end</tt>.
+     * @param start the OSM ID of the first node
+     * @param end the OSM ID of the last node
+     * @return the route, or <tt>null</tt> if it is not cached
+     */
+    public Route get(long start, long end) {
+        int h = hash(start, end);
+        Route route = segment(h).get(start, end, h);
+        if (route == null) misses.increment();
+        else               hits.increment();
+        return route;
+    }
+
+    /**
+     * Caches a route, evicting least recently used routes as needed. The
+     * route is not cached if <tt>epoch</tt> is not the current epoch or if
+     * the route alone is larger than a segment's share of the byte limit.
+     * @param start the OSM ID of the first node
+     * @param end the OSM ID of the last node
+     * @param route the route
+     * @param epoch the epoch read before the route was computed
+     */
+    public void put(long start, long end, Route route, int epoch) {
+        if (route == null) throw new NullPointerException("route is null");
+        int h = hash(start, end);
+        segment(h).put(start, end, route, h, epoch);
+    }
+
+    /**
+     * Empties the cache and starts a new epoch, so that routes computed
+     * before the call are no longer accepted by {@link #put}.
+     */
+    public void invalidate() {
+        // not atomic: two calls can both read the same epoch and set the
+        // next. Each caller changed the map or the weights (the latter
+        // under the index's write lock) before it got here, so both
+        // changes are in place before either writes, and a route put with
+        // the new epoch was computed on both.
+        epoch++;
+        for (Segment s : segments)
+            s.clear();
+    }
+
+    /**
+     * Returns the number of lookups that found a route.
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that found nothing.
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of routes evicted to stay within the byte limit.
+     * Routes dropped by {@link #invalidate} are not counted.
+     * @return the number of evictions
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the fraction of lookups that found a route.
+     * @return the hit rate, or NaN before the first lookup
+     */
+    public double hitRate() {
+        long h = hits(), n = h + misses();
+        return n == 0 ? Double.NaN : (double) h / n;
+    }
+
+    /**
+     * Returns the number of cached routes.
+     * @return the number of routes
+     */
+    public int size() {
+        int n = 0;
+        for (Segment s : segments)
+            n += s.size();
+        return n;
+    }
+
+    /**
+     * Returns the bytes the cached routes take, as estimated by
+     * {@link Route#bytes}.
+     * @return the size in bytes
+     */
+    public long bytes() {
+        long n = 0;
+        for (Segment s : segments)
+            n += s.bytes();
+        return n;
+    }
+
+    /**
+     * Returns the byte limit.
+     * @return the most bytes the cached routes may take
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns a one-line summary of the metrics.
+     * @return the summary
+     */
+    public String toString() {
+        return String.format("%d routes, %d of %d bytes, %d hits, %d misses (%.1f%%), %d evictions",
+                size(), bytes(), maxBytes, hits(), misses(), 100 * hitRate(), evictions());
+    }
+
+    // one lock's worth of the cache: a chained hash table with an LRU list
+    private final class Segment {
+        private static final int NIL = -1;
+
+        private final long limit;
+        private long bytes;
+        private int N;                  // number of entries
+        private int[] table;            // table[h & mask] = first entry of the chain
+        private int mask;
+
+        // entry arrays
+        private long[] start, end;
+        private Route[] route;
+        private int[] hash;
+        private int[] chain;            // next entry in the same chain, or in the free list
+        private int[] newer, older;     // LRU list
+        private int newest = NIL, oldest = NIL, free = NIL, used;
+
+        Segment(long limit) {
+            this.limit = limit;
+            allocate(16);
+        }
+
+        private void allocate(int capacity) {
+            table = new int[capacity];
+            Arrays.fill(table, NIL);
+            mask = capacity - 1;
+            start = new long[capacity];
+            end = new long[capacity];
+            route = new Route[capacity];
+            hash = new int[capacity];
+            chain = new int[capacity];
+            newer = new int[capacity];
+            older = new int[capacity];
+            N = 0;
+            used = 0;
+            bytes = 0;
+            newest = oldest = free = NIL;
+        }
+
+        synchronized int size()   { return N; }
+        synchronized long bytes() { return bytes; }
+
+        synchronized void clear() {
+            allocate(16);
+        }
+
+        synchronized Route get(long s, long t, int h) {
+            int e = find(s, t, h);
+            if (e == NIL) return null;
+            touch(e);
+            return route[e];
+        }
+
+        synchronized void put(long s, long t, Route r, int h, int ep) {
+            if (ep != epoch) return;
+            long size = r.bytes();
+            if (size > limit) return;
+            int e = find(s, t, h);
+            if (e != NIL) {
+                bytes += size - route[e].bytes();
+                route[e] = r;
+                touch(e);
+            }
+            else {
+                if (used == start.length && free == NIL) grow();
+                if (free != NIL) {
+                    e = free;
+                    free = chain[e];
+                }
+                else e = used++;
+                start[e] = s;
+                end[e] = t;
+                route[e] = r;
+                hash[e] = h;
+                chain[e] = table[h & mask];
+                table[h & mask] = e;
+                older[e] = NIL;
+                newer[e] = NIL;
+                linkNewest(e);
+                bytes += size;
+                N++;
+            }
+            while (bytes > limit) {
+                remove(oldest);
+                evictions.increment();
+            }
+        }
+
+        private int find(long s, long t, int h) {
+            for (int e = table[h & mask]; e != NIL; e = chain[e])
+                if (hash[e] == h && start[e] == s && end[e] == t) return e;
+            return NIL;
+        }
+
+        // make e the most recently used entry
+        private void touch(int e) {
+            if (e == newest) return;
+            unlink(e);
+            linkNewest(e);
+        }
+
+        private void linkNewest(int e) {
+            older[e] = newest;
+            newer[e] = NIL;
+            if (newest != NIL) newer[newest] = e;
+            newest = e;
+            if (oldest == NIL) oldest = e;
+        }
+
+        private void unlink(int e) {
+            if (older[e] != NIL) newer[older[e]] = newer[e];
+            else                 oldest = newer[e];
+            if (newer[e] != NIL) older[newer[e]] = older[e];
+            else                 newest = older[e];
+        }
+
+        private void remove(int e) {
+            unlink(e);
+            int b = hash[e] & mask;
+            if (table[b] == e) table[b] = chain[e];
+            else {
+                int p = table[b];
+                while (chain[p] != e)
+                    p = chain[p];
+                chain[p] = chain[e];
+            }
+            bytes -= route[e].bytes();
+            route[e] = null;
+            chain[e] = free;
+            free = e;
+            N--;
+        }
+
+        // double the entry arrays and the table; entries keep their numbers
+        private void grow() {
+            int capacity = 2 * start.length;
+            start = Arrays.copyOf(start, capacity);
+            end = Arrays.copyOf(end, capacity);
+            route = Arrays.copyOf(route, capacity);
+            hash = Arrays.copyOf(hash, capacity);
+            chain = Arrays.copyOf(chain, capacity);
+            newer = Arrays.copyOf(newer, capacity);
+            older = Arrays.copyOf(older, capacity);
+            table = new int[capacity];
+            Arrays.fill(table, NIL);
+            mask = capacity - 1;
+            for (int e = 0; e < used; e++) {    // the free list is empty when we grow
+                chain[e] = table[hash[e] & mask];
+                table[hash[e] & mask] = e;
+            }
+        }
+    }
+
+    /**
+     * Sends Zipf-distributed queries over random pairs of vertices through
+     * caches of several sizes and reports hit rates and throughput.
+     */
+    public static void main(String[] args) throws Exception {
+        RouteIndex index = RouteIndex.load(args[0], null);
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int pairs = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        MapData map = index.map();
+        CSRDigraph G = map.graph();
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        long[] s = new long[pairs], t = new long[pairs];
+        for (int i = 0; i < pairs; i++) {
+            s[i] = map.nodeID(vertices[random.nextInt(n)]);
+            t[i] = map.nodeID(vertices[random.nextInt(n)]);
+        }
+
+        // pair i is drawn with probability proportional to 1/(i+1)
+        double[] cdf = new double[pairs];
+        double total = 0;
+        for (int i = 0; i < pairs; i++)
+            cdf[i] = total += 1.0 / (i + 1);
+        int[] draw = new int[queries];
+        for (int q = 0; q < queries; q++) {
+            int i = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            draw[q] = i >= 0 ? i : Math.min(-i - 1, pairs - 1);
+        }
+
+        long start = System.nanoTime();
+        double check = 0;
+        for (int q = 0; q < queries; q++)
+            check += index.route(s[draw[q]], t[draw[q]]).size();
+        long uncached = System.nanoTime() - start;
+        System.out.printf("no cache      %8.0f queries/s%n", queries / (uncached / 1e9));
+
+        for (long mb : new long[] { 1, 4, 16 }) {
+            RouteCache cache = new RouteCache(mb << 20);
+            start = System.nanoTime();
+            double sum = 0;
+            for (int q = 0; q < queries; q++) {
+                long a = s[draw[q]], b = t[draw[q]];
+                Route r = cache.get(a, b);
+                if (r == null) {
+                    int epoch = cache.epoch();
+                    r = index.route(a, b);
+                    cache.put(a, b, r, epoch);
+                }
+                sum += r.size();
+            }
+            long time = System.nanoTime() - start;
+            System.out.printf("%2d MB cache   %8.0f queries/s  %s%s%n", mb, queries / (time / 1e9), cache,
+                    sum == check ? "" : "  (paths differ)");
+        }
+    }
+}
@@ -0,0 +1,747 @@
+/*************************************************************************
+ *  Compilation:  javac RouteIndex.java
+ *  Execution:    java RouteIndex lab2.osm.txt updates
+ *  Dependencies: MapData.java MapFileParser.java GraphSnapshot.java
+ *                LandmarkHeuristic.java ContractionHierarchy.java
+ *                NodeKdTree.java PathEvaluator.java AStarSP.java
+ *                SearchWorkspace.java GraphDiameter.java DistanceMatrix.java
+ *                Route.java ShortestPathTreeCache.java ShortestPathTree.java
+ *                Isochrone.java KShortestPaths.java DijkstraSP.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  A loaded map with everything built for querying it, safe to share
+ *  between threads, whose edge weights can be changed while it is used.
+ *  The test client changes weights at random, checks queries against
+ *  Dijkstra's algorithm after each change, and times the updates.
+ *
+ *************************************************************************/
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ *  The <tt>RouteIndex</tt> class bundles a {@link MapData} with the
+ *  structures built over it for answering queries: landmark lower bounds
+ *  for A*, an optional {@link ContractionHierarchy}, a {@link NodeKdTree}
+ *  for snapping points to nodes and a {@link PathEvaluator}. All of them
+ *  are fixed when the index is built. The one thing that changes is the
+ *  routing weight of edges, which {@link #updateEdgeWeights} sets in place
+ *  for traffic and road closures; queries hold the read lock of the index
+ *  and updates its write lock, so queries run side by side and an update
+ *  waits for them to finish. An index can therefore be handed to other
+ *  threads through any safe publication, such as a <tt>volatile</tt>
+ *  field, and queried from all of them at once.
+ *  <p>
+ *  Each query thread gets its own {@link SearchWorkspace} from a
+ *  <tt>ThreadLocal</tt> owned by the index, so queries share no mutable
+ *  state. Two things are computed on demand: the diameter path, once
+ *  under the index's lock, and the shortest-path trees of busy origins,
+ *  kept in a {@link ShortestPathTreeCache}. Path queries from an origin
+ *  whose tree is cached walk the tree instead of searching, and
+ *  {@link #routesFrom} builds the tree of its origin so that one-to-many
+ *  queries need one search in all. To switch to a new
+ *  map, build a new index and publish it in place of the old one; queries
+ *  running on the old index finish on it undisturbed.
+ *  <p>
+ *  A weight update repairs the cached trees in place rather than dropping
+ *  them (see {@link ShortestPathTree}). It drops the contraction hierarchy,
+ *  which is built for fixed weights and cannot be patched, so later
+ *  queries use A*. The landmark bounds stay valid for edges that get
+ *  longer or close; if an edge gets shorter than it was when they were
+ *  computed, they are scaled down by the same ratio, which keeps them
+ *  below the true distances at the price of some pruning. The reverse
+ *  digraph kept for the searches toward the target of
+ *  {@link #alternativeRoutes} gets the same weights. The recorded
+ *  edge lengths of the map, and with them {@link PathEvaluator}, do not
+ *  change. Routes cached outside the index, as by a {@link RouteCache},
+ *  are for the caller to invalidate.
+ */
+public final class RouteIndex {
+    // number of ALT landmarks; four gave the fastest A* queries on lab2
+    private static final int LANDMARKS = 4;
+    // bytes of shortest-path trees to keep; 8 bytes per vertex per tree
+    private static final long TREE_CACHE_BYTES = 64L << 20;
+    // a parallel stream only slows the spur searches down on one processor
+    private static final boolean PARALLEL_SPURS = Runtime.getRuntime().availableProcessors() > 1;
+
+    private final MapData map;
+    private final LandmarkHeuristic landmarks;
+    private final NodeKdTree nodeTree;
+    private final NodeKdTree vertexTree;            // the vertices only, for origins of searches
+    private final PathEvaluator evaluator;
+    private final ThreadLocal<SearchWorkspace> workspaces;
+    private final ThreadLocal<double[]> targetDistances;   // for KShortestPaths, one per thread
+    private final ShortestPathTreeCache trees;
+    private final int[] csrIndex;                   // csrIndex[i] = CSR index of input edge i
+    private final CSRDigraph reverse;               // the reverse of the graph, weights kept equal
+    private final int[] reverseIndex;               // reverseIndex[i] = CSR index of input edge i in reverse
+    private final double[] landmarkWeight;          // weight of each CSR edge when the landmarks were computed
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock: read by queries, written by weight updates
+    private DistanceHeuristic heuristic;            // the landmarks, scaled down if an edge got shorter
+    private ContractionHierarchy hierarchy;         // null if none was given or a weight changed
+    private double boundScale = 1.0;                // smallest ratio of a weight now to the landmarks' weight
+    private int scaleEdge = -1;                     // a CSR edge with that ratio, or -1 if it is 1
+
+    private List<Long> diameterPath;                // guarded by this; computed on first request
+
+    /**
+     * Builds the query structures for <tt>map</tt>.
+     * @param map the map
+     * @param hierarchy a contraction hierarchy of <tt>map.graph()</tt>, or
+     *    <tt>null</tt> to answer path queries with A*
+     * @throws IllegalArgumentException if the hierarchy was built for
+     *    another digraph
+     */
+    public RouteIndex(final MapData map, ContractionHierarchy hierarchy) {
+        if (hierarchy != null && hierarchy.V() != map.graph().V())
+            throw new IllegalArgumentException("contraction hierarchy does not match the map");
+        this.map = map;
+        this.hierarchy = hierarchy;
+        this.landmarks = new LandmarkHeuristic(map.graph(), LANDMARKS);
+        this.heuristic = landmarks;
+        this.nodeTree = new NodeKdTree(map);
+        this.vertexTree = new NodeKdTree(map, map.graph().V());
+        this.evaluator = new PathEvaluator(map);
+        this.trees = new ShortestPathTreeCache(map.graph(), TREE_CACHE_BYTES);
+        CSRDigraph G = map.graph();
+        this.csrIndex = new int[G.E()];
+        this.landmarkWeight = new double[G.E()];
+        for (int e = 0; e < G.E(); e++) {
+            csrIndex[G.edgeID(e)] = e;
+            landmarkWeight[e] = G.weight(e);
+        }
+        this.reverse = G.reverse();
+        this.reverseIndex = new int[G.E()];
+        for (int e = 0; e < G.E(); e++)
+            reverseIndex[reverse.edgeID(e)] = e;
+        this.workspaces = new ThreadLocal<SearchWorkspace>() {
+            protected SearchWorkspace initialValue() {
+                return new SearchWorkspace(map.graph().V());
+            }
+        };
+        this.targetDistances = new ThreadLocal<double[]>() {
+            protected double[] initialValue() {
+                return new double[map.graph().V()];
+            }
+        };
+    }
+
+    /**
+     * Loads a map, either a text map file or a {@link GraphSnapshot}, and
+     * builds an index over it.
+     * @param filename the map file
+     * @param hierarchyFile a contraction hierarchy file: loaded if it exists,
+     *    and otherwise built and written there; <tt>null</tt> for none
+     * @return the index
+     * @throws IOException if a file cannot be read or written
+     * @throws MapFormatException if the map file is malformed
+     */
+    public static RouteIndex load(String filename, String hierarchyFile)
+            throws IOException, MapFormatException {
+        MapData map;
+        if (GraphSnapshot.isSnapshot(filename)) map = GraphSnapshot.load(filename);
+        else                                    map = new MapFileParser(filename).parse();
+        ContractionHierarchy hierarchy = null;
+        if (hierarchyFile != null) {
+            if (new File(hierarchyFile).exists()) {
+                hierarchy = ContractionHierarchy.load(hierarchyFile, map.graph());
+            }
+            else {
+                hierarchy = new ContractionHierarchy(map.graph());
+                hierarchy.save(hierarchyFile);
+            }
+        }
+        return new RouteIndex(map, hierarchy);
+    }
+
+    /**
+     * Returns the map.
+     * @return the map
+     */
+    public MapData map() {
+        return map;
+    }
+
+    /**
+     * Returns the contraction hierarchy.
+     * @return the contraction hierarchy, or <tt>null</tt> if there is none
+     *    or an edge weight has changed since it was built
+     */
+    public ContractionHierarchy hierarchy() {
+        lock.readLock().lock();
+        try {
+            return hierarchy;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the path evaluator for the map.
+     * @return the path evaluator
+     */
+    public PathEvaluator evaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Returns the cache of shortest-path trees for this map.
+     * @return the tree cache
+     */
+    public ShortestPathTreeCache trees() {
+        return trees;
+    }
+
+    /**
+     * Returns the calling thread's search workspace for this map.
+     * @return a workspace sized for the routing graph
+     */
+    public SearchWorkspace workspace() {
+        return workspaces.get();
+    }
+
+    /**
+     * Returns the edges of a shortest path: from the cached tree of
+     * <tt>s</tt> if there is one, and otherwise from the contraction
+     * hierarchy if there is one and by A* if not. The path is shortest for
+     * the weights at the time of the call.
+     * @param s the source vertex
+     * @param t the target vertex
+     * @return the CSR indices of the edges in path order, and <tt>null</tt>
+     *    if there is no path
+     */
+    public int[] shortestPathEdges(int s, int t) {
+        lock.readLock().lock();
+        try {
+            return search(s, t);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // shortestPathEdges, with the read lock held
+    private int[] search(int s, int t) {
+        ShortestPathTree tree = trees.peek(s);
+        if (tree != null) return tree.pathEdgesTo(t);
+        if (hierarchy != null) return hierarchy.pathEdges(s, t);
+        return new AStarSP(map.graph(), s, t, heuristic, workspace()).pathEdges();
+    }
+
+    /**
+     * Returns the major nodes of a shortest path.
+     * @param startNodeID the OSM ID of the first node
+     * @param endNodeID the OSM ID of the last node
+     * @return the node IDs of the path, or an empty list if either node is
+     *    unknown or there is no path
+     */
+    public List<Long> shortestPath(long startNodeID, long endNodeID) {
+        return route(startNodeID, endNodeID).toList();
+    }
+
+    /**
+     * Returns a shortest path with its length, in the compact form that
+     * {@link RouteCache} keeps.
+     * @param startNodeID the OSM ID of the first node
+     * @param endNodeID the OSM ID of the last node
+     * @return the route; one without nodes if either node is unknown or
+     *    there is no path
+     */
+    public Route route(long startNodeID, long endNodeID) {
+        lock.readLock().lock();
+        try {
+            return route(startNodeID, pathEdges(startNodeID, endNodeID));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a shortest path from one node to each of many, all read from
+     * the shortest-path tree of the start node, which is built and cached
+     * if it is not cached yet.
+     * @param startNodeID the OSM ID of the first node
+     * @param endNodeIDs the OSM IDs of the last nodes
+     * @return the route to each end node; one without nodes if either node
+     *    is unknown or there is no path
+     */
+    public Route[] routesFrom(long startNodeID, long[] endNodeIDs) {
+        Route[] routes = new Route[endNodeIDs.length];
+        int s = map.vertexOf(startNodeID);
+        lock.readLock().lock();
+        try {
+            ShortestPathTree tree = s < 0 ? null : trees.tree(s);
+            for (int j = 0; j < routes.length; j++) {
+                int t = map.vertexOf(endNodeIDs[j]);
+                int[] edges;
+                if (endNodeIDs[j] == startNodeID && map.indexOf(startNodeID) >= 0) edges = new int[0];
+                else if (tree == null || t < 0)                                    edges = null;
+                else                                                               edges = tree.pathEdgesTo(t);
+                routes[j] = route(startNodeID, edges);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return routes;
+    }
+
+    /**
+     * Builds and caches the shortest-path trees of the given start nodes,
+     * in parallel, so that later queries from them need no search.
+     * @param startNodeIDs the OSM IDs of the start nodes; unknown IDs are
+     *    skipped
+     */
+    public void populateTrees(long[] startNodeIDs) {
+        int[] sources = new int[startNodeIDs.length];
+        int n = 0;
+        for (long id : startNodeIDs) {
+            int s = map.vertexOf(id);
+            if (s >= 0) sources[n++] = s;
+        }
+        lock.readLock().lock();
+        try {
+            trees.populate(java.util.Arrays.copyOf(sources, n));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the route along the given edges, which start at startNodeID
+    private Route route(long startNodeID, int[] edges) {
+        if (edges == null) return new Route(new long[0], Double.POSITIVE_INFINITY);
+        CSRDigraph G = map.graph();
+        long[] nodes = new long[edges.length + 1];
+        double distance = 0.0;
+        nodes[0] = startNodeID;
+        for (int i = 0; i < edges.length; i++) {
+            nodes[i + 1] = map.nodeID(G.to(edges[i]));
+            distance += G.weight(edges[i]);
+        }
+        return new Route(nodes, distance);
+    }
+
+    /**
+     * Returns all nodes of a shortest path, sub-nodes included. Every edge
+     * of the path is expanded from the map's packed sub-node array; the
+     * node shared by two consecutive edges is listed once.
+     * @param startNodeID the OSM ID of the first node
+     * @param endNodeID the OSM ID of the last node
+     * @return the node IDs of the path, or an empty list if either node is
+     *    unknown or there is no path
+     */
+    public List<Long> detailedPath(long startNodeID, long endNodeID) {
+        int[] edges;
+        lock.readLock().lock();
+        try {
+            edges = pathEdges(startNodeID, endNodeID);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        if (edges == null) return new ArrayList<Long>();
+        CSRDigraph G = map.graph();
+        int size = 1;
+        for (int e : edges) {
+            int i = G.edgeID(e);
+            size += Math.max(1, map.subNodeEnd(i) - map.subNodeBegin(i) - 1);
+        }
+        List<Long> result = new ArrayList<Long>(size);
+        long last = startNodeID;
+        result.add(last);
+        for (int e : edges) {
+            int i = G.edgeID(e);
+            int end = map.subNodeEnd(i);
+            for (int k = map.subNodeBegin(i); k < end; k++) {
+                long id = map.subNodeID(k);
+                if (id != last) {
+                    result.add(id);
+                    last = id;
+                }
+            }
+            long head = map.nodeID(G.to(e));
+            if (head != last) {     // the edge record has no sub-nodes
+                result.add(head);
+                last = head;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the shortest paths between two nodes that visit no node
+     * twice, for offering alternatives to the shortest route, found with
+     * {@link KShortestPaths}. The spur searches of a query run in parallel
+     * when there is more than one processor.
+     * @param startNodeID the OSM ID of the first node
+     * @param endNodeID the OSM ID of the last node
+     * @param k the most routes to return
+     * @return up to <tt>k</tt> routes in order of length, the first a
+     *    shortest path; none if either node is unknown or there is no path
+     * @throws IllegalArgumentException if <tt>k</tt> is negative
+     */
+    public Route[] alternativeRoutes(long startNodeID, long endNodeID, int k) {
+        if (k < 0) throw new IllegalArgumentException("k must be nonnegative, not " + k);
+        int s = map.indexOf(startNodeID);
+        int t = map.indexOf(endNodeID);
+        if (s < 0 || t < 0 || k == 0) return new Route[0];
+        if (s == t) return new Route[] { route(startNodeID, new int[0]) };
+        if (!map.isVertex(s) || !map.isVertex(t)) return new Route[0];
+        lock.readLock().lock();
+        try {
+            int[][] paths = KShortestPaths.pathEdges(map.graph(), reverse, s, t, k, workspaces::get,
+                                                      targetDistances.get(), PARALLEL_SPURS);
+            Route[] routes = new Route[paths.length];
+            for (int i = 0; i < paths.length; i++)
+                routes[i] = route(startNodeID, paths[i]);
+            return routes;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the edges of a shortest path; none from a known node to itself, even
+    // one that is not a vertex, and null if there is no path
+    private int[] pathEdges(long startNodeID, long endNodeID) {
+        int s = map.indexOf(startNodeID);
+        int t = map.indexOf(endNodeID);
+        if (s < 0 || t < 0) return null;
+        if (s == t) return new int[0];
+        if (!map.isVertex(s) || !map.isVertex(t)) return null;
+        return search(s, t);
+    }
+
+    /**
+     * Returns the node nearest to a point, by great-circle distance.
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @return the OSM ID of a nearest node, or 0 if the map has no nodes
+     */
+    public long nearestNode(double latitude, double longitude) {
+        int v = nodeTree.nearest(latitude, longitude);
+        return v < 0 ? 0 : map.nodeID(v);
+    }
+
+    /**
+     * Returns the node nearest to each of many points, found in parallel.
+     * @param latitudes the latitudes of the points
+     * @param longitudes the longitudes of the points, in the same order
+     * @return the OSM ID of a nearest node for each point, 0 if the map has
+     *    no nodes
+     */
+    public long[] nearestNodes(double[] latitudes, double[] longitudes) {
+        int[] nearest = nodeTree.nearest(latitudes, longitudes);
+        long[] result = new long[nearest.length];
+        for (int i = 0; i < nearest.length; i++)
+            result[i] = nearest[i] < 0 ? 0 : map.nodeID(nearest[i]);
+        return result;
+    }
+
+    /**
+     * Returns the nodes within a distance of the vertex of the routing
+     * graph nearest to a point, found by a Dijkstra search that stops at
+     * the distance. The point is snapped to a vertex, not to any node, since
+     * a sub-node has no edges of its own to search from.
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @param meters the distance budget, counted from the nearest vertex
+     * @return the isochrone; one without nodes if the map has no edges
+     * @throws IllegalArgumentException if <tt>meters</tt> is negative or NaN
+     */
+    public Isochrone isochrone(double latitude, double longitude, double meters) {
+        int s = vertexTree.nearest(latitude, longitude);
+        lock.readLock().lock();
+        try {
+            return isochrone(s, meters, workspace());
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the nodes within a distance of the vertex nearest to each of
+     * many points. The points are snapped to vertices as by
+     * {@link #isochrone(double, double, double)}, and the searches run in
+     * parallel, each thread in its own workspace.
+     * @param latitudes the latitudes of the points
+     * @param longitudes the longitudes of the points, in the same order
+     * @param meters the distance budget, counted from each nearest vertex
+     * @return the isochrone of each point
+     * @throws IllegalArgumentException if <tt>meters</tt> is negative or NaN
+     */
+    public Isochrone[] isochrones(double[] latitudes, double[] longitudes, final double meters) {
+        final int[] origins = vertexTree.nearest(latitudes, longitudes);
+        final Isochrone[] result = new Isochrone[origins.length];
+        lock.readLock().lock();
+        try {
+            IntStream.range(0, origins.length).parallel()
+                     .forEach(i -> result[i] = isochrone(origins[i], meters, workspace()));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    private Isochrone isochrone(int s, double meters, SearchWorkspace ws) {
+        return s < 0 ? new Isochrone(map, meters) : new Isochrone(map, s, meters, ws);
+    }
+
+    /**
+     * Returns the distance from every start node to every end node.
+     * @param startNodeIDs the OSM IDs of the rows
+     * @param endNodeIDs the OSM IDs of the columns
+     * @return the row-major table of distances in meters: infinity where
+     *    there is no path, NaN in the rows and columns of unknown node IDs
+     */
+    public double[] distanceMatrix(long[] startNodeIDs, long[] endNodeIDs) {
+        int[] sources = new int[startNodeIDs.length];
+        int[] targets = new int[endNodeIDs.length];
+        for (int i = 0; i < sources.length; i++)
+            sources[i] = map.indexOf(startNodeIDs[i]);
+        for (int j = 0; j < targets.length; j++)
+            targets[j] = map.indexOf(endNodeIDs[j]);
+
+        // search from and to vertices only, then fill in the other nodes
+        int[] knownSources = new int[sources.length];
+        int[] knownTargets = new int[targets.length];
+        for (int i = 0; i < sources.length; i++)
+            knownSources[i] = map.isVertex(sources[i]) ? sources[i] : 0;
+        for (int j = 0; j < targets.length; j++)
+            knownTargets[j] = map.isVertex(targets[j]) ? targets[j] : 0;
+        double[] matrix;
+        lock.readLock().lock();
+        try {
+            matrix = DistanceMatrix.compute(map.graph(), knownSources, knownTargets,
+                                            ForkJoinPool.commonPool(), workspaces::get);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        int M = targets.length;
+        for (int i = 0; i < sources.length; i++) {
+            for (int j = 0; j < M; j++) {
+                if (sources[i] < 0 || targets[j] < 0)
+                    matrix[i * M + j] = Double.NaN;
+                else if (!map.isVertex(sources[i]) || !map.isVertex(targets[j]))
+                    matrix[i * M + j] = sources[i] == targets[j] ? 0.0 : Double.POSITIVE_INFINITY;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Returns a longest shortest path of the map. The first call computes
+     * it with {@link GraphDiameter#exact}; later calls return the same path
+     * until an edge weight changes.
+     * @return the node IDs of the path, or an empty list if the map has no edges
+     */
+    public List<Long> longestShortestPath() {
+        lock.readLock().lock();
+        try {
+            synchronized (this) {
+                if (diameterPath == null) {
+                    List<Long> result = new ArrayList<Long>();
+                    for (int v : new GraphDiameter(map.graph()).exact(null).path())
+                        result.add(map.nodeID(v));
+                    diameterPath = Collections.unmodifiableList(result);
+                }
+                return diameterPath;
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Changes the routing weight of one edge.
+     * @param edgeID the edge ID in the map
+     * @param weight the new weight; <tt>Double.POSITIVE_INFINITY</tt>
+     *    closes the edge
+     * @throws IndexOutOfBoundsException if the edge ID is not in the map
+     * @throws IllegalArgumentException if the weight is negative or NaN
+     * @see #updateEdgeWeights
+     */
+    public void updateEdgeWeight(int edgeID, double weight) {
+        updateEdgeWeights(new int[] { edgeID }, new double[] { weight });
+    }
+
+    /**
+     * Changes the routing weights of edges in place, for traffic or road
+     * closures, and brings the structures built on them up to date: it
+     * repairs the cached shortest-path trees, drops the contraction
+     * hierarchy, and scales the landmark bounds down while any edge is
+     * shorter than when they were computed. Its cost is that of the tree
+     * repairs, except when the edge with the smallest ratio of new to old
+     * weight gets heavier: then finding the next smallest takes a scan of
+     * all the edges. The update waits for running queries and holds up
+     * new ones until it is done, so each query sees all of it or none.
+     * The edge lengths the map records are not changed.
+     * @param edgeIDs the edge IDs in the map
+     * @param weights the new weight of each; <tt>Double.POSITIVE_INFINITY</tt>
+     *    closes an edge, and its length in the map reopens it
+     * @throws IndexOutOfBoundsException if an edge ID is not in the map
+     * @throws IllegalArgumentException if the arrays have different
+     *    lengths, or a weight is negative or NaN; no weight is changed then
+     */
+    public void updateEdgeWeights(int[] edgeIDs, double[] weights) {
+        if (edgeIDs.length != weights.length)
+            throw new IllegalArgumentException("Edge and weight arrays must have the same length");
+        CSRDigraph G = map.graph();
+        for (int i = 0; i < edgeIDs.length; i++) {
+            if (edgeIDs[i] < 0 || edgeIDs[i] >= G.E())
+                throw new IndexOutOfBoundsException("edge " + edgeIDs[i] + " is not between 0 and " + (G.E()-1));
+            if (!(weights[i] >= 0))
+                throw new IllegalArgumentException("weight must be nonnegative, not " + weights[i]);
+        }
+        lock.writeLock().lock();
+        try {
+            boolean changed = false, rescan = false;
+            double scale = boundScale;
+            for (int i = 0; i < edgeIDs.length; i++) {
+                int e = csrIndex[edgeIDs[i]];
+                double old = G.weight(e);
+                if (weights[i] == old) continue;
+                G.setWeight(e, weights[i]);
+                reverse.setWeight(reverseIndex[edgeIDs[i]], weights[i]);
+                trees.repair(e, old);
+                changed = true;
+                double r = ratio(G, e);
+                if (r < scale) {
+                    scale = r;
+                    scaleEdge = e;
+                }
+                else if (e == scaleEdge && r > scale) rescan = true;
+            }
+            if (!changed) return;
+            hierarchy = null;
+            if (rescan) {
+                // the edge that set the scale got heavier: only a scan of
+                // all edges finds the new smallest ratio
+                scale = 1.0;
+                scaleEdge = -1;
+                for (int e = 0; e < G.E() && scale > 0; e++) {
+                    double r = ratio(G, e);
+                    if (r < scale) {
+                        scale = r;
+                        scaleEdge = e;
+                    }
+                }
+            }
+            if (scale != boundScale) rescaleBounds(scale);
+            synchronized (this) {
+                diameterPath = null;
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the ratio of the weight of CSR edge e now to its weight when the
+    // landmarks were computed, if that is below 1; an edge closed then and
+    // open now gives 0, and A* falls back to Dijkstra's algorithm
+    private double ratio(CSRDigraph G, int e) {
+        double w = G.weight(e);
+        return w < landmarkWeight[e] ? w / landmarkWeight[e] : 1.0;
+    }
+
+    // scales the landmark bounds by scale, the smallest ratio over all
+    // edges, so that they stay lower bounds. Called with the write lock.
+    private void rescaleBounds(double scale) {
+        final double k = boundScale = scale;
+        if (k == 1.0) heuristic = landmarks;
+        else if (k == 0.0) heuristic = new DistanceHeuristic() {
+            public double lowerBound(int v, int t) {
+                return 0.0;
+            }
+        };
+        else heuristic = new DistanceHeuristic() {
+            public double lowerBound(int v, int t) {
+                // infinite means t is unreachable from v, which no
+                // shorter edge changes
+                double bound = landmarks.lowerBound(v, t);
+                return bound == Double.POSITIVE_INFINITY ? bound : k * bound;
+            }
+        };
+    }
+
+    // two strongly connected pairs of vertices, 1-2 and 3-4, joined by the
+    // one-way edge 2->3: after 1->2 drops to weight 0 the landmark bounds
+    // scale to 0 while 3 still has an infinite bound to 1, which once made
+    // the search from 2 to 1 queue a NaN key
+    private static void zeroWeightCheck() throws Exception {
+        String text = "0.0 0.1 0.0 0.1\n0 1 0 1\n4 4 5\n"
+                + "1 0.00 0.00 0.0\n2 0.00 0.01 0.0\n3 0.01 0.01 0.0\n4 0.01 0.02 0.0\n"
+                + "1 2 1200.0 1 2\n2 1 1200.0 2 1\n2 3 1200.0 2 3\n3 4 1200.0 3 4\n4 3 1200.0 4 3\n";
+        MapData map = new MapFileParser(new ByteArrayInputStream(text.getBytes("US-ASCII"))).parse();
+        RouteIndex index = new RouteIndex(map, null);
+        index.updateEdgeWeight(0, 0.0);
+        List<Long> back = index.shortestPath(2, 1), across = index.shortestPath(1, 4);
+        if (!back.equals(Arrays.asList(2L, 1L)) || !across.equals(Arrays.asList(1L, 2L, 3L, 4L))
+                || !index.shortestPath(4, 1).isEmpty())
+            throw new IllegalStateException("wrong paths after a weight of 0: " + back + " " + across);
+    }
+
+    /**
+     * Checks the queries of a small map with an edge of weight 0; then
+     * changes the weights of random edges of the given map one at a time,
+     * by up to half either way, checks random queries against Dijkstra's
+     * algorithm after each change, and times the updates, with the trees
+     * of some origins cached so that they are repaired too.
+     * @throws IllegalStateException if a query gives a wrong answer
+     */
+    public static void main(String[] args) throws Exception {
+        zeroWeightCheck();
+        RouteIndex index = load(args[0], null);
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        CSRDigraph G = index.map().graph();
+        SearchWorkspace ws = new SearchWorkspace(G.V());
+        Random random = new Random(311);
+        long[] origins = new long[8];
+        for (int i = 0; i < origins.length; i++)
+            origins[i] = index.map().nodeID(random.nextInt(G.V()));
+        index.populateTrees(origins);
+
+        long elapsed = 0;
+        int checks = 0;
+        for (int i = 0; i < updates; i++) {
+            int e = random.nextInt(G.E());
+            double weight = index.map().edgeWeight(G.edgeID(e)) * (0.5 + random.nextDouble());
+            long start = System.nanoTime();
+            index.updateEdgeWeight(G.edgeID(e), weight);
+            elapsed += System.nanoTime() - start;
+
+            int s = random.nextInt(G.V()), t = random.nextInt(G.V());
+            double found = 0.0;
+            for (int f : index.shortestPathEdges(s, t))
+                found += G.weight(f);
+            DijkstraSP sp = new DijkstraSP(G, s, t, ws);
+            double expected = sp.hasPathTo(t) ? sp.distTo(t) : 0.0;
+            if (Math.abs(found - expected) > 1e-6 * expected)
+                throw new IllegalStateException("path from " + s + " to " + t + " has length " + found
+                        + " after " + (i + 1) + " updates, not " + expected);
+            checks++;
+        }
+        System.out.printf("%d updates, %.2f us each with %d cached trees; %d queries checked, landmark scale %.3f%n",
+                updates, elapsed / 1e3 / updates, origins.length, checks, index.boundScale);
+    }
+}
@@ -0,0 +1,301 @@
+/*************************************************************************
+ *  Compilation:  javac RouteService.java
+ *  Execution:    java RouteService lab2.osm.txt seconds clients1 clients2 ...
+ *  Dependencies: RouteIndex.java LatencyHistogram.java RouteCache.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Concurrent query facade over a RouteIndex, with latency histograms.
+ *  The test client is a closed-loop load generator: for each client count
+ *  given, that many threads send a mix of path and nearest-node queries
+ *  for the given number of seconds, each waiting for its answer before
+ *  sending the next, and the throughput and latency percentiles are
+ *  reported.
+ *
+ *  % java RouteService lab2.osm.txt 5 1 4 16 64
+ *
+ *************************************************************************/
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ *  The <tt>RouteService</tt> class runs route queries on a bounded pool of
+ *  worker threads and answers each with a <tt>CompletableFuture</tt>. The
+ *  pool has a fixed number of threads and a queue of fixed capacity; a
+ *  query that finds the queue full is rejected at once rather than
+ *  queued without limit, so an overloaded service pushes back on its
+ *  callers instead of running out of memory.
+ *  <p>
+ *  Queries run against a {@link RouteIndex}, held in a <tt>volatile</tt>
+ *  field: each query reads the field once and runs entirely on that
+ *  index, and {@link #reload} publishes a new one without stopping the
+ *  service. {@link #updateEdgeWeights} changes edge weights of the
+ *  current index in place; the index's lock keeps it apart from queries.
+ *  Beyond the index, queries share no mutable state; each worker thread
+ *  searches in its own workspace.
+ *  <p>
+ *  Shortest-path queries can be answered from a {@link RouteCache}: a hit
+ *  completes at once on the calling thread, and a miss is computed on the
+ *  pool and then cached. Reloading or a weight update empties the cache.
+ *  <p>
+ *  The time from submission to completion of every query, queueing
+ *  included, is recorded in a {@link LatencyHistogram} per kind of query.
+ */
+public class RouteService implements AutoCloseable {
+
+    /**
+     * The kinds of query, each with its own latency histogram.
+     */
+    public enum Query { SHORTEST_PATH, DETAILED_PATH, NEAREST_NODE }
+
+    private volatile RouteIndex index;
+    private final RouteCache cache;         // null for none
+    private final ThreadPoolExecutor pool;
+    private final LatencyHistogram[] latency = new LatencyHistogram[Query.values().length];
+
+    /**
+     * Starts a service with the given number of worker threads.
+     * @param index the index to answer queries from
+     * @param threads the number of worker threads
+     * @param queueCapacity the number of queries that may wait for a thread
+     * @throws IllegalArgumentException if <tt>threads</tt> or
+     *    <tt>queueCapacity</tt> is not positive
+     */
+    public RouteService(RouteIndex index, int threads, int queueCapacity) {
+        this(index, threads, queueCapacity, null);
+    }
+
+    /**
+     * Starts a service with the given number of worker threads that
+     * answers shortest-path queries from a cache when it can.
+     * @param index the index to answer queries from
+     * @param threads the number of worker threads
+     * @param queueCapacity the number of queries that may wait for a thread
+     * @param cache the cache for shortest paths, or <tt>null</tt> for none
+     * @throws IllegalArgumentException if <tt>threads</tt> or
+     *    <tt>queueCapacity</tt> is not positive
+     */
+    public RouteService(RouteIndex index, int threads, int queueCapacity, RouteCache cache) {
+        if (index == null) throw new NullPointerException("index is null");
+        if (threads < 1 || queueCapacity < 1)
+            throw new IllegalArgumentException("threads and queue capacity must be positive");
+        this.index = index;
+        this.cache = cache;
+        for (int i = 0; i < latency.length; i++)
+            latency[i] = new LatencyHistogram();
+        final AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "route-query-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), factory,
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.prestartAllCoreThreads();
+    }
+
+    /**
+     * Returns the index queries are answered from now.
+     * @return the current index
+     */
+    public RouteIndex index() {
+        return index;
+    }
+
+    /**
+     * Answers later queries from a new index and empties the cache.
+     * Queries already running finish on the old one.
+     * @param next the new index
+     */
+    public void reload(RouteIndex next) {
+        if (next == null) throw new NullPointerException("index is null");
+        index = next;
+        if (cache != null) cache.invalidate();
+    }
+
+    /**
+     * Changes the routing weights of edges of the current index and empties
+     * the cache. Queries already running finish with the old weights.
+     * @param edgeIDs the edge IDs in the map
+     * @param weights the new weight of each; <tt>Double.POSITIVE_INFINITY</tt>
+     *    closes an edge
+     * @see RouteIndex#updateEdgeWeights
+     */
+    public void updateEdgeWeights(int[] edgeIDs, double[] weights) {
+        index.updateEdgeWeights(edgeIDs, weights);
+        if (cache != null) cache.invalidate();
+    }
+
+    /**
+     * Returns the cache for shortest paths.
+     * @return the cache, or <tt>null</tt> if there is none
+     */
+    public RouteCache cache() {
+        return cache;
+    }
+
+    /**
+     * Returns the latency histogram of one kind of query.
+     * @param query the kind of query
+     * @return its latency histogram
+     */
+    public LatencyHistogram latency(Query query) {
+        return latency[query.ordinal()];
+    }
+
+    /**
+     * Finds the major nodes of a shortest path.
+     * @param startNodeID the OSM ID of the first node
+     * @param endNodeID the OSM ID of the last node
+     * @return the node IDs of the path, or an empty list if either node is
+     *    unknown or there is no path
+     * @throws RejectedExecutionException if the queue is full or the
+     *    service is closed
+     */
+    public CompletableFuture<List<Long>> shortestPath(final long startNodeID, final long endNodeID) {
+        if (cache == null)
+            return submit(Query.SHORTEST_PATH, idx -> idx.shortestPath(startNodeID, endNodeID));
+        long start = System.nanoTime();
+        final int epoch = cache.epoch();    // before the index is read, see RouteCache
+        Route route = cache.get(startNodeID, endNodeID);
+        if (route != null) {
+            List<Long> path = route.toList();
+            latency[Query.SHORTEST_PATH.ordinal()].record(System.nanoTime() - start);
+            return CompletableFuture.completedFuture(path);
+        }
+        return submit(Query.SHORTEST_PATH, idx -> {
+            Route r = idx.route(startNodeID, endNodeID);
+            cache.put(startNodeID, endNodeID, r, epoch);
+            return r.toList();
+        });
+    }
+
+    /**
+     * Finds all nodes of a shortest path, sub-nodes included.
+     * @param startNodeID the OSM ID of the first node
+     * @param endNodeID the OSM ID of the last node
+     * @return the node IDs of the path, or an empty list if either node is
+     *    unknown or there is no path
+     * @throws RejectedExecutionException if the queue is full or the
+     *    service is closed
+     */
+    public CompletableFuture<List<Long>> detailedPath(final long startNodeID, final long endNodeID) {
+        return submit(Query.DETAILED_PATH, idx -> idx.detailedPath(startNodeID, endNodeID));
+    }
+
+    /**
+     * Finds the node nearest to a point.
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @return the OSM ID of a nearest node, or 0 if the map has no nodes
+     * @throws RejectedExecutionException if the queue is full or the
+     *    service is closed
+     */
+    public CompletableFuture<Long> nearestNode(final double latitude, final double longitude) {
+        return submit(Query.NEAREST_NODE, idx -> idx.nearestNode(latitude, longitude));
+    }
+
+    private <T> CompletableFuture<T> submit(Query query, final Function<RouteIndex, T> task) {
+        final LatencyHistogram histogram = latency[query.ordinal()];
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final long start = System.nanoTime();
+        pool.execute(() -> {
+            try {
+                result.complete(task.apply(index));
+            }
+            catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+            finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stops accepting queries and waits for the queued ones to finish. If
+     * the calling thread is interrupted it stops waiting and keeps its
+     * interrupt status.
+     */
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a closed-loop load test for each client count given and reports
+     * queries per second and latency percentiles by kind of query.
+     */
+    public static void main(String[] args) throws Exception {
+        final RouteIndex index = RouteIndex.load(args[0], null);
+        final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        final MapData map = index.map();
+        final CSRDigraph G = map.graph();
+        int n = 0;
+        final int[] vertices = new int[G.V()];
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        final int count = n;
+        final double[] bounds = map.bounds();
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int a = 2; a < Math.max(3, args.length); a++) {
+            final int clients = args.length > 2 ? Integer.parseInt(args[a]) : 4;
+            final RouteService service = new RouteService(index, threads, 4 * clients);
+            final long deadline = System.nanoTime() + seconds * 1000000000L;
+            final AtomicInteger rejected = new AtomicInteger();
+            Thread[] load = new Thread[clients];
+            for (int c = 0; c < clients; c++) {
+                final Random random = new Random(311 + c);
+                load[c] = new Thread(() -> {
+                    while (System.nanoTime() < deadline) {
+                        try {
+                            int kind = random.nextInt(10);
+                            if (kind < 5) {
+                                service.nearestNode(
+                                        bounds[2] + random.nextDouble() * (bounds[3] - bounds[2]),
+                                        bounds[0] + random.nextDouble() * (bounds[1] - bounds[0])).join();
+                            }
+                            else {
+                                long s = map.nodeID(vertices[random.nextInt(count)]);
+                                long t = map.nodeID(vertices[random.nextInt(count)]);
+                                if (kind < 9) service.shortestPath(s, t).join();
+                                else          service.detailedPath(s, t).join();
+                            }
+                        }
+                        catch (RejectedExecutionException e) {
+                            rejected.incrementAndGet();
+                        }
+                    }
+                });
+                load[c].start();
+            }
+            for (Thread t : load)
+                t.join();
+            service.close();
+
+            long total = 0;
+            for (Query q : Query.values())
+                total += service.latency(q).count();
+            System.out.printf("%d clients, %d workers: %.0f queries/s, %d rejected%n",
+                    clients, threads, total / (double) seconds, rejected.get());
+            for (Query q : Query.values())
+                System.out.printf("  %-14s %s%n", q, service.latency(q));
+        }
+    }
+}
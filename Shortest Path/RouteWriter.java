@@ -0,0 +1,501 @@
+/*************************************************************************
+ *  Compilation:  javac RouteWriter.java
+ *  Execution:    java RouteWriter lab2.osm.txt routes output.kml[.gz]
+ *  Dependencies: MapData.java AStarSP.java LandmarkHeuristic.java
+ *                MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Streaming KML and GeoJSON export of routes, polygons and points,
+ *  optionally gzipped.
+ *  The test client writes random shortest paths to the named file, and
+ *  to a scratch file with PrintWriter.printf for comparison.
+ *
+ *  % java RouteWriter lab2.osm.txt 10000 routes.geojson.gz
+ *
+ *************************************************************************/
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *  The <tt>RouteWriter</tt> class writes routes, given as sequences of OSM
+ *  node IDs, as line strings in a KML or GeoJSON file. Routes are written
+ *  as they are added, any number per file, so an export never holds more
+ *  than one route in memory; {@link #close} writes the end of the document.
+ *  Polygons, such as the hull of an {@link Isochrone}, are written the same
+ *  way with {@link #writePolygon}, and single nodes with
+ *  {@link #writePoint}.
+ *  <p>
+ *  Coordinates are looked up by node ID through the map's hash index, and
+ *  numbers are formatted straight into a byte buffer with seven decimals,
+ *  the precision of OSM coordinates, with trailing zeros dropped. Nothing
+ *  goes through <tt>printf</tt> or a <tt>Writer</tt>. The output can be
+ *  compressed with gzip on the way out.
+ *  <p>
+ *  A route, polygon or point with a node ID that is not in the map is
+ *  rejected with an <tt>IllegalArgumentException</tt> before any of it is
+ *  written, so the file stays well-formed.
+ */
+public class RouteWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int DECIMALS = 7;
+    private static final long SCALE = 10000000L;    // 10^DECIMALS
+
+    /**
+     * The file formats a <tt>RouteWriter</tt> can write.
+     */
+    public enum Format { KML, GEOJSON }
+
+    // from KML reference example
+    private static final String KML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<kml xmlns=\"http://www.opengis.net/kml/2.2\">\n"
+            + "  <Document>\n"
+            + "    <name>CS 311 Lab 2 Path</name>\n"
+            + "    <description>Path between two nodes.</description>\n"
+            + "    <Style id=\"yellowLineGreenPoly\">\n"
+            + "      <LineStyle>\n"
+            + "        <color>7f00ffff</color>\n"
+            + "        <width>4</width>\n"
+            + "      </LineStyle>\n"
+            + "      <PolyStyle>\n"
+            + "        <color>7f00ff00</color>\n"
+            + "      </PolyStyle>\n"
+            + "    </Style>\n";
+    private static final String KML_FOOTER = "  </Document>\n</kml>\n";
+    private static final String GEOJSON_HEADER = "{\"type\":\"FeatureCollection\",\"features\":[";
+    private static final String GEOJSON_FOOTER = "\n]}\n";
+
+    private final MapData map;
+    private final Format format;
+    private final OutputStream out;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;                    // buf[0..pos-1] is waiting to be written
+    private int routes;                 // number of routes written
+    private int polygons;               // number of polygons written
+    private int points;                 // number of points written
+    private int[] vertices = new int[64];
+    private boolean closed;
+
+    /**
+     * Initializes a writer on the given stream and writes the start of the
+     * document. The stream is closed by {@link #close}.
+     * @param map the map the node IDs refer to
+     * @param out the stream to write to
+     * @param format the file format
+     * @throws IOException if writing fails
+     */
+    public RouteWriter(MapData map, OutputStream out, Format format) throws IOException {
+        if (map == null || out == null || format == null) throw new NullPointerException();
+        this.map = map;
+        this.out = out;
+        this.format = format;
+        ascii(format == Format.KML ? KML_HEADER : GEOJSON_HEADER);
+    }
+
+    /**
+     * Opens the named file for writing. The format is GeoJSON if the name
+     * ends in <tt>.geojson</tt> or <tt>.json</tt> and KML otherwise; a
+     * further <tt>.gz</tt> ending compresses the file with gzip.
+     * @param map the map the node IDs refer to
+     * @param filename the file to write
+     * @return a writer for the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static RouteWriter open(MapData map, String filename) throws IOException {
+        String name = filename.toLowerCase();
+        boolean gzip = name.endsWith(".gz");
+        if (gzip) name = name.substring(0, name.length() - 3);
+        Format format = name.endsWith(".geojson") || name.endsWith(".json") ? Format.GEOJSON : Format.KML;
+        OutputStream out = new FileOutputStream(filename);
+        try {
+            if (gzip) out = new GZIPOutputStream(out, BUFFER_SIZE);
+            return new RouteWriter(map, out, format);
+        }
+        catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the format this writer writes.
+     * @return the file format
+     */
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * Returns the number of routes written so far.
+     * @return the number of routes written
+     */
+    public int routes() {
+        return routes;
+    }
+
+    /**
+     * Returns the number of polygons written so far.
+     * @return the number of polygons written
+     */
+    public int polygons() {
+        return polygons;
+    }
+
+    /**
+     * Returns the number of points written so far.
+     * @return the number of points written
+     */
+    public int points() {
+        return points;
+    }
+
+    /**
+     * Writes a route.
+     * @param name the name of the route, or <tt>null</tt> for none
+     * @param path the node IDs of the route in order
+     * @throws IllegalArgumentException if a node ID is not in the map
+     * @throws IllegalStateException if the writer is closed
+     * @throws IOException if writing fails
+     */
+    public void write(String name, List<Long> path) throws IOException {
+        int n = path.size();
+        if (vertices.length < n) vertices = new int[Math.max(n, 2 * vertices.length)];
+        Iterator<Long> it = path.iterator();
+        for (int i = 0; i < n; i++)
+            vertices[i] = vertex(it.next());
+        write(name, n);
+    }
+
+    /**
+     * Writes a route.
+     * @param name the name of the route, or <tt>null</tt> for none
+     * @param path the node IDs of the route in order
+     * @throws IllegalArgumentException if a node ID is not in the map
+     * @throws IllegalStateException if the writer is closed
+     * @throws IOException if writing fails
+     */
+    public void write(String name, long[] path) throws IOException {
+        int n = path.length;
+        if (vertices.length < n) vertices = new int[Math.max(n, 2 * vertices.length)];
+        for (int i = 0; i < n; i++)
+            vertices[i] = vertex(path[i]);
+        write(name, n);
+    }
+
+    /**
+     * Writes a polygon. The ring is closed by repeating its first corner
+     * at the end, as both formats require.
+     * @param name the name of the polygon, or <tt>null</tt> for none
+     * @param ring the node IDs of the corners in order, the first not
+     *    repeated, such as {@link Isochrone#hull}
+     * @throws IllegalArgumentException if there are fewer than three
+     *    corners or a node ID is not in the map
+     * @throws IllegalStateException if the writer is closed
+     * @throws IOException if writing fails
+     */
+    public void writePolygon(String name, long[] ring) throws IOException {
+        int n = ring.length;
+        if (n < 3) throw new IllegalArgumentException("a polygon needs three corners, not " + n);
+        if (vertices.length <= n) vertices = new int[Math.max(n + 1, 2 * vertices.length)];
+        for (int i = 0; i < n; i++)
+            vertices[i] = vertex(ring[i]);
+        vertices[n] = vertices[0];
+        if (closed) throw new IllegalStateException("route writer is closed");
+        if (format == Format.KML) {
+            placemark(name);
+            ascii("      <Polygon>\n"
+                + "        <tessellate>1</tessellate>\n"
+                + "        <altitudeMode>clampToGround</altitudeMode>\n"
+                + "        <outerBoundaryIs>\n"
+                + "          <LinearRing>\n"
+                + "            <coordinates>\n");
+            coordinates(n + 1);
+            ascii("            </coordinates>\n"
+                + "          </LinearRing>\n"
+                + "        </outerBoundaryIs>\n"
+                + "      </Polygon>\n    </Placemark>\n");
+        }
+        else {
+            feature(name);
+            ascii("\"Polygon\",\"coordinates\":[[");
+            coordinates(n + 1);
+            ascii("]]}}");
+        }
+        polygons++;
+    }
+
+    /**
+     * Writes a single node as a point, such as an area that holds only its
+     * origin, which has no line string or polygon.
+     * @param name the name of the point, or <tt>null</tt> for none
+     * @param nodeID the node ID
+     * @throws IllegalArgumentException if the node ID is not in the map
+     * @throws IllegalStateException if the writer is closed
+     * @throws IOException if writing fails
+     */
+    public void writePoint(String name, long nodeID) throws IOException {
+        vertices[0] = vertex(nodeID);
+        if (closed) throw new IllegalStateException("route writer is closed");
+        if (format == Format.KML) {
+            placemark(name);
+            ascii("      <Point>\n"
+                + "        <altitudeMode>clampToGround</altitudeMode>\n"
+                + "        <coordinates>\n");
+            coordinates(1);
+            ascii("        </coordinates>\n      </Point>\n    </Placemark>\n");
+        }
+        else {
+            feature(name);
+            ascii("\"Point\",\"coordinates\":");
+            coordinates(1);
+            ascii("}}");
+        }
+        points++;
+    }
+
+    private int vertex(long nodeID) {
+        int v = map.indexOf(nodeID);
+        if (v < 0) throw new IllegalArgumentException("unknown node ID " + nodeID);
+        return v;
+    }
+
+    // writes the route through vertices[0..n-1]
+    private void write(String name, int n) throws IOException {
+        if (closed) throw new IllegalStateException("route writer is closed");
+        if (format == Format.KML) {
+            placemark(name);
+            ascii("      <LineString>\n"
+                + "        <extrude>0</extrude>\n"
+                + "        <tessellate>0</tessellate>\n"
+                + "        <altitudeMode>clampToGround</altitudeMode>\n"
+                + "        <coordinates>\n");
+            coordinates(n);
+            ascii("        </coordinates>\n      </LineString>\n    </Placemark>\n");
+        }
+        else {
+            feature(name);
+            ascii("\"LineString\",\"coordinates\":[");
+            coordinates(n);
+            ascii("]}}");
+        }
+        routes++;
+    }
+
+    // the start of a KML placemark, up to its geometry
+    private void placemark(String name) throws IOException {
+        ascii("    <Placemark>\n");
+        if (name != null) {
+            ascii("      <name>");
+            xml(name);
+            ascii("</name>\n");
+        }
+        ascii("      <styleUrl>#yellowLineGreenPoly</styleUrl>\n");
+    }
+
+    // the start of a GeoJSON feature, up to the value of the geometry type
+    private void feature(String name) throws IOException {
+        ascii(routes + polygons + points == 0 ? "\n" : ",\n");
+        ascii("{\"type\":\"Feature\",\"properties\":{");
+        if (name != null) {
+            ascii("\"name\":");
+            json(name);
+        }
+        ascii("},\"geometry\":{\"type\":");
+    }
+
+    // the coordinates of vertices[0..n-1], one per line in KML and as
+    // [lon,lat] pairs in GeoJSON
+    private void coordinates(int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            if (format == Format.KML) {
+                number(map.longitude(vertices[i]));
+                put(',');
+                number(map.latitude(vertices[i]));
+                put('\n');
+            }
+            else {
+                if (i > 0) put(',');
+                put('[');
+                number(map.longitude(vertices[i]));
+                put(',');
+                number(map.latitude(vertices[i]));
+                put(']');
+            }
+        }
+    }
+
+    /**
+     * Writes the end of the document and closes the stream.
+     * @throws IOException if writing fails
+     */
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            ascii(format == Format.KML ? KML_FOOTER : GEOJSON_FOOTER);
+            flush();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /*************************************************************************
+     *  Output helpers.
+     *************************************************************************/
+
+    private void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+
+    private void put(char c) throws IOException {
+        if (pos == BUFFER_SIZE) flush();
+        buf[pos++] = (byte) c;
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            put(s.charAt(i));
+    }
+
+    private void utf8(String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < b.length; i++) {
+            if (pos == BUFFER_SIZE) flush();
+            buf[pos++] = b[i];
+        }
+    }
+
+    private void xml(String s) throws IOException {
+        utf8(s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"));
+    }
+
+    private void json(String s) throws IOException {
+        StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') b.append('\\').append(c);
+            else if (c < 0x20)         b.append(String.format("\\u%04x", (int) c));
+            else                       b.append(c);
+        }
+        utf8(b.append('"').toString());
+    }
+
+    // x with DECIMALS decimals, trailing zeros dropped
+    private void number(double x) throws IOException {
+        if (!(Math.abs(x) < 1e11)) {    // out of the fixed-point range, or not a number
+            ascii(Double.toString(x));
+            return;
+        }
+        long scaled = Math.round(Math.abs(x) * SCALE);
+        if (pos + 32 > BUFFER_SIZE) flush();
+        if (x < 0 && scaled != 0) buf[pos++] = '-';
+        long whole = scaled / SCALE;
+        long fraction = scaled % SCALE;
+
+        // digits of the whole part, written backwards then reversed
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole != 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+        if (fraction == 0) return;
+        int digits = DECIMALS;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        buf[pos++] = '.';
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        pos += digits;
+    }
+
+    /**
+     * Writes random shortest paths to the named file and, for comparison,
+     * to a scratch KML file with <tt>PrintWriter.printf</tt>, and reports
+     * the time and size of each.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int count = Integer.parseInt(args[1]);
+        String filename = args[2];
+        CSRDigraph G = map.graph();
+        LandmarkHeuristic h = new LandmarkHeuristic(G, 4);
+        SearchWorkspace ws = new SearchWorkspace(G.V());
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        long[][] paths = new long[Math.min(count, 1000)][];
+        long points = 0;
+        for (int p = 0; p < paths.length; p++) {
+            int[] path = null;
+            while (path == null)
+                path = new AStarSP(G, vertices[random.nextInt(n)], vertices[random.nextInt(n)], h, ws).path();
+            paths[p] = new long[path.length];
+            for (int i = 0; i < path.length; i++)
+                paths[p][i] = map.nodeID(path[i]);
+        }
+        for (int p = 0; p < count; p++)
+            points += paths[p % paths.length].length;
+
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            long start = System.nanoTime();
+            RouteWriter writer = RouteWriter.open(map, filename);
+            try {
+                for (int p = 0; p < count; p++)
+                    writer.write("route " + p, paths[p % paths.length]);
+            }
+            finally {
+                writer.close();
+            }
+            long time = System.nanoTime() - start;
+
+            File scratch = File.createTempFile("printf", ".kml");
+            start = System.nanoTime();
+            PrintWriter fout = new PrintWriter(new OutputStreamWriter(
+                    new BufferedOutputStream(new FileOutputStream(scratch)), StandardCharsets.UTF_8));
+            for (int p = 0; p < count; p++) {
+                fout.print("<Placemark><LineString><coordinates>\n");
+                for (long id : paths[p % paths.length]) {
+                    int v = map.indexOf(id);
+                    fout.printf("%f,%f\n", map.longitude(v), map.latitude(v));
+                }
+                fout.print("</coordinates></LineString></Placemark>\n");
+            }
+            fout.close();
+            long printfTime = System.nanoTime() - start;
+            if (round < 2) {
+                scratch.delete();
+                continue;
+            }
+            System.out.printf("%d routes, %d points%n", count, points);
+            System.out.printf("RouteWriter %-24s %8.1f ms %10d bytes %10.0f points/s%n", filename,
+                    time / 1e6, new File(filename).length(), points / (time / 1e9));
+            System.out.printf("printf      %-24s %8.1f ms %10d bytes %10.0f points/s%n", "(KML, 6 decimals)",
+                    printfTime / 1e6, scratch.length(), points / (printfTime / 1e9));
+            scratch.delete();
+        }
+    }
+}
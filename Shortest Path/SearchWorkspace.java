@@ -0,0 +1,149 @@
+/*************************************************************************
+ *  Compilation:  javac SearchWorkspace.java
+ *  Execution:    java SearchWorkspace lab2.osm.txt queries
+ *  Dependencies: IndexDoubleMinPQ.java DijkstraSP.java AStarSP.java
+ *                LandmarkHeuristic.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Reusable per-search buffers reset by a generation counter.
+ *  The test client times early-exit Dijkstra and A* with a fresh set of
+ *  buffers per query and with one reused workspace.
+ *
+ *  % java SearchWorkspace lab2.osm.txt 10000
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *  The <tt>SearchWorkspace</tt> class holds the <tt>distTo</tt> and
+ *  <tt>edgeTo</tt> arrays and the priority queue of a single-source search,
+ *  so that a thread running many searches over the same digraph allocates
+ *  them once. Starting a search does not refill the arrays: each entry is
+ *  stamped with the generation that wrote it, and an entry from an older
+ *  generation reads as "infinitely far, no edge". Emptying the priority
+ *  queue only touches the entries left in it. A search that reaches few
+ *  vertices therefore costs time proportional to those vertices, not to
+ *  <em>V</em>.
+ *  <p>
+ *  A search object that ran on a workspace ({@link DijkstraSP},
+ *  {@link AStarSP}, {@link BidirectionalDijkstraSP}) reads its answers
+ *  from the workspace, so they are only available until the next search
+ *  starts on the same workspace; afterwards its methods throw
+ *  <tt>IllegalStateException</tt>. A workspace is not thread-safe: give
+ *  each thread its own, e.g. through a <tt>ThreadLocal</tt>.
+ */
+public class SearchWorkspace {
+    private final double[] distTo;
+    private final int[] edgeTo;
+    private final int[] stamp;          // distTo[v] and edgeTo[v] are valid iff stamp[v] == generation
+    private int generation;
+    private final IndexDoubleMinPQ pq;
+
+    /**
+     * Initializes a workspace for searches over digraphs with <tt>V</tt> vertices.
+     * @param V the number of vertices
+     * @throws IllegalArgumentException if <tt>V</tt> &lt; 0
+     */
+    public SearchWorkspace(int V) {
+        if (V < 0) throw new IllegalArgumentException("Number of vertices must be nonnegative");
+        distTo = new double[V];
+        edgeTo = new int[V];
+        stamp = new int[V];
+        pq = new IndexDoubleMinPQ(V);
+    }
+
+    /**
+     * Returns the number of vertices the workspace was sized for.
+     * @return the number of vertices
+     */
+    public int V() {
+        return stamp.length;
+    }
+
+    /**
+     * Returns the generation of the search now using the workspace.
+     * @return the current generation
+     */
+    public int generation() {
+        return generation;
+    }
+
+    // start a new search: forget every entry and empty the priority queue
+    int begin() {
+        if (++generation == 0) {
+            // after 2^32 searches the stamps wrap around; clear them once
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        pq.clear();
+        return generation;
+    }
+
+    double distTo(int v) {
+        return stamp[v] == generation ? distTo[v] : Double.POSITIVE_INFINITY;
+    }
+
+    int edgeTo(int v) {
+        return stamp[v] == generation ? edgeTo[v] : -1;
+    }
+
+    void set(int v, double dist, int e) {
+        stamp[v] = generation;
+        distTo[v] = dist;
+        edgeTo[v] = e;
+    }
+
+    IndexDoubleMinPQ pq() {
+        return pq;
+    }
+
+    /**
+     * Times early-exit Dijkstra and A* over random pairs of vertices with
+     * new buffers per query and with one reused workspace.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData map = new MapFileParser(args[0]).parse();
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        CSRDigraph G = map.graph();
+        LandmarkHeuristic h = new LandmarkHeuristic(G, 4);
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        int[] s = new int[queries], t = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            s[i] = vertices[random.nextInt(n)];
+            t[i] = vertices[random.nextInt(n)];
+        }
+
+        SearchWorkspace ws = new SearchWorkspace(G.V());
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            long[] time = new long[4];
+            double[] sum = new double[4];
+            for (int i = 0; i < queries; i++) {
+                long start = System.nanoTime();
+                sum[0] += new DijkstraSP(G, s[i], t[i]).distTo(t[i]);
+                long t1 = System.nanoTime();
+                sum[1] += new DijkstraSP(G, s[i], t[i], ws).distTo(t[i]);
+                long t2 = System.nanoTime();
+                sum[2] += new AStarSP(G, s[i], t[i], h).distance();
+                long t3 = System.nanoTime();
+                sum[3] += new AStarSP(G, s[i], t[i], h, ws).distance();
+                long t4 = System.nanoTime();
+                time[0] += t1 - start;
+                time[1] += t2 - t1;
+                time[2] += t3 - t2;
+                time[3] += t4 - t3;
+            }
+            if (round < 2) continue;
+            String[] names = { "Dijkstra, new arrays", "Dijkstra, workspace", "A*, new arrays", "A*, workspace" };
+            System.out.printf("%d queries, V = %d%n", queries, G.V());
+            for (int j = 0; j < 4; j++)
+                System.out.printf("%-22s %8.1f us/query%s%n", names[j], time[j] / 1e3 / queries,
+                        sum[j] == sum[j - j % 2] ? "" : "  (distances differ)");
+        }
+    }
+}
@@ -0,0 +1,382 @@
+/*************************************************************************
+ *  Compilation:  javac ShortestPathTree.java
+ *  Execution:    java ShortestPathTree lab2.osm.txt trees updates
+ *  Dependencies: CSRDigraph.java SearchWorkspace.java IndexDoubleMinPQ.java
+ *                RouteIndex.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  A compact single-source shortest-path tree, repaired in place when
+ *  an edge weight changes.
+ *  The test client changes random edge weights, repairs a few trees after
+ *  each change and compares the time with rebuilding them.
+ *
+ *  % java ShortestPathTree lab2.osm.txt 8 1000
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *  The <tt>ShortestPathTree</tt> class keeps the result of a full
+ *  Dijkstra search from one source in two arrays of <em>V</em> entries: the
+ *  distance to each vertex as a <tt>float</tt>, and the CSR index of the
+ *  edge that reaches it, from which its parent is found. That is 8 bytes
+ *  per vertex, against 12 or more for the <tt>double</tt> and <tt>int</tt>
+ *  arrays of a {@link DijkstraSP}, and nothing else is kept.
+ *  <p>
+ *  A path to any target is read off by walking parent edges back to the
+ *  source, in time proportional to its length (times log <em>V</em> for
+ *  {@link CSRDigraph#from}). {@link #distTo} has <tt>float</tt>
+ *  precision, about a millimeter over ten kilometers; {@link #pathLength}
+ *  adds up the exact edge weights along the path instead.
+ *  <p>
+ *  When the weight of an edge changes, {@link #repair} brings the tree up
+ *  to date without searching the whole digraph again, in the manner of
+ *  the dynamic shortest-path algorithm of Ramalingam and Reps. A shorter
+ *  edge can only improve the vertices it leads to, so a Dijkstra search
+ *  from its head that follows improving edges only is enough. A longer
+ *  (or closed) edge changes nothing unless it is in the tree; if it is,
+ *  only the subtree below it is affected, and each of its vertices is
+ *  reached again from the rest of the tree by a Dijkstra search confined
+ *  to the subtree. Both take time proportional to the part of the tree
+ *  that changes, rather than to the whole digraph.
+ *  <p>
+ *  Apart from repairs, the tree does not change, and it can be shared
+ *  between threads as long as none reads it during a repair;
+ *  {@link RouteIndex} makes sure of that with its read-write lock.
+ */
+public final class ShortestPathTree {
+    private final CSRDigraph G;
+    private final int s;
+    private final float[] distTo;       // distTo[v] = distance from s to v, +infinity if unreached
+    private final int[] parentEdge;     // parentEdge[v] = CSR index of the last edge on the path to v, -1 if none
+
+    /**
+     * Runs Dijkstra's algorithm from <tt>s</tt> over all of <tt>G</tt>.
+     * @param G the edge-weighted digraph
+     * @param s the source vertex
+     * @param ws the workspace to search in
+     * @throws IllegalArgumentException if an edge weight is negative, if
+     *    <tt>s</tt> is not a vertex, or if the workspace is sized for
+     *    another number of vertices
+     */
+    public ShortestPathTree(CSRDigraph G, int s, SearchWorkspace ws) {
+        if (G.hasNegativeWeights())
+            throw new IllegalArgumentException("digraph has an edge with negative weight");
+        int V = G.V();
+        if (s < 0 || s >= V) throw new IllegalArgumentException("vertex " + s + " is not between 0 and " + (V-1));
+        if (ws.V() != V) throw new IllegalArgumentException("workspace is sized for " + ws.V() + " vertices, not " + V);
+        this.G = G;
+        this.s = s;
+
+        ws.begin();
+        IndexDoubleMinPQ pq = ws.pq();
+        ws.set(s, 0.0, -1);
+        pq.insert(s, 0.0);
+        while (!pq.isEmpty()) {
+            int v = pq.delMin();
+            double dv = ws.distTo(v);
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                double dist = dv + G.weight(e);
+                if (ws.distTo(w) > dist) {
+                    ws.set(w, dist, e);
+                    if (pq.contains(w)) pq.decreaseKey(w, dist);
+                    else                pq.insert(w, dist);
+                }
+            }
+        }
+        distTo = new float[V];
+        parentEdge = new int[V];
+        for (int v = 0; v < V; v++) {
+            distTo[v] = (float) ws.distTo(v);
+            parentEdge[v] = ws.edgeTo(v);
+        }
+    }
+
+    /**
+     * Returns the source vertex.
+     * @return the source vertex
+     */
+    public int source() {
+        return s;
+    }
+
+    /**
+     * Returns the digraph the tree spans.
+     * @return the digraph
+     */
+    public CSRDigraph digraph() {
+        return G;
+    }
+
+    /**
+     * Returns the length of a shortest path from the source to <tt>v</tt>,
+     * rounded to <tt>float</tt> precision.
+     * @param v the target vertex
+     * @return the distance, or <tt>Double.POSITIVE_INFINITY</tt> if there
+     *    is no path
+     */
+    public double distTo(int v) {
+        return distTo[v];
+    }
+
+    /**
+     * Is there a path from the source to <tt>v</tt>?
+     * @param v the target vertex
+     * @return <tt>true</tt> if there is a path
+     */
+    public boolean hasPathTo(int v) {
+        return distTo[v] < Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Returns the edges on a shortest path from the source to <tt>v</tt>.
+     * @param v the target vertex
+     * @return the CSR indices of the edges in path order (none if
+     *    <tt>v</tt> is the source), or <tt>null</tt> if there is no path
+     */
+    public int[] pathEdgesTo(int v) {
+        if (!hasPathTo(v)) return null;
+        int n = 0;
+        for (int x = v; parentEdge[x] != -1; x = G.from(parentEdge[x]))
+            n++;
+        int[] edges = new int[n];
+        int x = v;
+        for (int i = n - 1; i >= 0; i--) {
+            edges[i] = parentEdge[x];
+            x = G.from(edges[i]);
+        }
+        return edges;
+    }
+
+    /**
+     * Returns the exact length of the path {@link #pathEdgesTo} returns.
+     * @param v the target vertex
+     * @return the sum of the edge weights along the path, or
+     *    <tt>Double.POSITIVE_INFINITY</tt> if there is no path
+     */
+    public double pathLength(int v) {
+        if (!hasPathTo(v)) return Double.POSITIVE_INFINITY;
+        double sum = 0.0;
+        for (int x = v; parentEdge[x] != -1; x = G.from(parentEdge[x]))
+            sum += G.weight(parentEdge[x]);
+        return sum;
+    }
+
+    /**
+     * Brings the tree up to date after the weight of edge <tt>e</tt> has
+     * changed from <tt>oldWeight</tt> to its present weight in the digraph.
+     * Several changed edges are repaired one at a time, in any order.
+     * @param e the CSR index of the changed edge
+     * @param oldWeight the weight of <tt>e</tt> the tree was built with
+     * @param r the scratch space for the digraph
+     */
+    void repair(int e, double oldWeight, Repair r) {
+        double w = G.weight(e);
+        if (w < oldWeight) decrease(e, r);
+        else if (w > oldWeight && parentEdge[G.to(e)] == e) increase(G.to(e), r);
+    }
+
+    // e got shorter: every vertex that improves is reached through it, so
+    // search from its head, following only edges that improve a distance
+    private void decrease(int e, Repair r) {
+        int v = G.to(e);
+        double dist = distTo[G.from(e)] + G.weight(e);
+        if (!((float) dist < distTo[v])) return;
+        distTo[v] = (float) dist;
+        parentEdge[v] = e;
+        r.pq.insert(v, dist);
+        settle(r, false);
+    }
+
+    // the tree edge into v got longer: the subtree of v loses its
+    // distances, and each of its vertices is reached again, first from
+    // outside the subtree and then from within it
+    private void increase(int v, Repair r) {
+        int stamp = r.nextStamp();
+        int n = 0;
+        r.subtree[n++] = v;
+        r.mark[v] = stamp;
+        for (int i = 0; i < n; i++) {
+            int x = r.subtree[i];
+            for (int f = G.begin(x); f < G.end(x); f++) {
+                int y = G.to(f);
+                if (parentEdge[y] == f) {
+                    r.subtree[n++] = y;
+                    r.mark[y] = stamp;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            distTo[r.subtree[i]] = Float.POSITIVE_INFINITY;
+            parentEdge[r.subtree[i]] = -1;
+        }
+        for (int i = 0; i < n; i++) {
+            int x = r.subtree[i];
+            double best = Double.POSITIVE_INFINITY;
+            int bestEdge = -1;
+            for (int k = r.inOffset[x]; k < r.inOffset[x + 1]; k++) {
+                int u = r.inTail[k];
+                if (r.mark[u] == stamp) continue;
+                double dist = distTo[u] + G.weight(r.inEdge[k]);
+                if (dist < best) {
+                    best = dist;
+                    bestEdge = r.inEdge[k];
+                }
+            }
+            if (bestEdge != -1) {
+                distTo[x] = (float) best;
+                parentEdge[x] = bestEdge;
+                r.pq.insert(x, best);
+            }
+        }
+        settle(r, true);
+    }
+
+    // Dijkstra's algorithm from the vertices in the queue, keyed by their
+    // distances; if confined, only vertices marked in r are relaxed
+    private void settle(Repair r, boolean confined) {
+        IndexDoubleMinPQ pq = r.pq;
+        while (!pq.isEmpty()) {
+            double dv = pq.minKey();
+            int v = pq.delMin();
+            for (int e = G.begin(v); e < G.end(v); e++) {
+                int w = G.to(e);
+                if (confined && r.mark[w] != r.stamp) continue;
+                double dist = dv + G.weight(e);
+                if ((float) dist < distTo[w]) {
+                    distTo[w] = (float) dist;
+                    parentEdge[w] = e;
+                    if (pq.contains(w)) pq.decreaseKey(w, dist);
+                    else                pq.insert(w, dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scratch space for {@link #repair}: the edges into each vertex, and a
+     * queue and marks sized for the digraph. All the trees of one digraph
+     * can share one, repairing one at a time.
+     */
+    static final class Repair {
+        final int[] inOffset;       // edges into v are at inOffset[v] .. inOffset[v+1]-1
+        final int[] inEdge;         // CSR index of each edge, grouped by head vertex
+        final int[] inTail;         // tail vertex of each edge, in the same order
+        final IndexDoubleMinPQ pq;
+        final int[] mark;           // mark[v] == stamp if v is in the subtree being repaired
+        final int[] subtree;
+        int stamp;
+
+        Repair(CSRDigraph G) {
+            int V = G.V();
+            inOffset = new int[V + 1];
+            inEdge = new int[G.E()];
+            inTail = new int[G.E()];
+            for (int e = 0; e < G.E(); e++)
+                inOffset[G.to(e) + 1]++;
+            for (int v = 0; v < V; v++)
+                inOffset[v + 1] += inOffset[v];
+            int[] next = Arrays.copyOf(inOffset, V);
+            for (int v = 0; v < V; v++) {
+                for (int e = G.begin(v); e < G.end(v); e++) {
+                    int k = next[G.to(e)]++;
+                    inEdge[k] = e;
+                    inTail[k] = v;
+                }
+            }
+            pq = new IndexDoubleMinPQ(V);
+            mark = new int[V];
+            subtree = new int[V];
+        }
+
+        // a stamp no vertex is marked with yet
+        int nextStamp() {
+            if (++stamp == 0) {
+                Arrays.fill(mark, 0);
+                stamp = 1;
+            }
+            return stamp;
+        }
+    }
+
+    /**
+     * Returns an estimate of the memory the tree takes.
+     * @return the size in bytes
+     */
+    public long bytes() {
+        return 64 + 8L * distTo.length;
+    }
+
+    /**
+     * Changes random edge weights one at a time, as traffic would: some
+     * edges get slower, some faster, some close and closed ones reopen.
+     * After each change it repairs the trees of a few random sources, then
+     * rebuilds them from scratch, compares the time of the two and checks
+     * that they agree.
+     */
+    public static void main(String[] args) throws Exception {
+        CSRDigraph G = RouteIndex.load(args[0], null).map().graph();
+        int sources = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int updates = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        double[] base = new double[G.E()];
+        for (int e = 0; e < G.E(); e++)
+            base[e] = G.weight(e);
+        SearchWorkspace ws = new SearchWorkspace(G.V());
+        Repair r = new Repair(G);
+
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            Random random = new Random(2011);
+            for (int e = 0; e < G.E(); e++)
+                G.setWeight(e, base[e]);
+            ShortestPathTree[] trees = new ShortestPathTree[sources];
+            for (int i = 0; i < sources; i++)
+                trees[i] = new ShortestPathTree(G, vertices[random.nextInt(n)], ws);
+
+            long[] time = new long[3];      // slower, faster, closed or reopened
+            int[] count = new int[3];
+            for (int k = 0; k < updates; k++) {
+                int e = random.nextInt(G.E());
+                double old = G.weight(e);
+                int kind = random.nextInt(3);
+                double w;
+                if (old == Double.POSITIVE_INFINITY) { w = base[e]; kind = 2; }
+                else if (kind == 0) w = old * (1.0 + 2.0 * random.nextDouble());
+                else if (kind == 1) w = old * (0.5 + 0.5 * random.nextDouble());
+                else                w = Double.POSITIVE_INFINITY;
+                G.setWeight(e, w);
+                long start = System.nanoTime();
+                for (ShortestPathTree tree : trees)
+                    tree.repair(e, old, r);
+                time[kind] += System.nanoTime() - start;
+                count[kind]++;
+            }
+
+            long start = System.nanoTime();
+            ShortestPathTree[] fresh = new ShortestPathTree[sources];
+            for (int i = 0; i < sources; i++)
+                fresh[i] = new ShortestPathTree(G, trees[i].source(), ws);
+            long rebuildTime = System.nanoTime() - start;
+            double error = 0.0;
+            for (int i = 0; i < sources; i++)
+                for (int v = 0; v < G.V(); v++) {
+                    double a = trees[i].distTo(v), b = fresh[i].distTo(v);
+                    if (a != b) error = Math.max(error, Math.abs(a - b) / b);
+                }
+            if (round < 2) continue;
+            System.out.printf("%d trees, %d updates, V = %d, E = %d%n", sources, updates, G.V(), G.E());
+            String[] names = { "slower edge", "faster edge", "closed/reopened" };
+            for (int i = 0; i < 3; i++)
+                System.out.printf("repair, %-16s %10.1f us per update (%d)%n",
+                        names[i], time[i] / 1e3 / Math.max(count[i], 1), count[i]);
+            System.out.printf("rebuild all trees        %10.1f us per update%n", rebuildTime / 1e3);
+            System.out.printf("largest relative error   %10.2g%n", error);
+        }
+    }
+}
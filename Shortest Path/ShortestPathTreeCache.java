@@ -0,0 +1,257 @@
+/*************************************************************************
+ *  Compilation:  javac ShortestPathTreeCache.java
+ *  Execution:    java ShortestPathTreeCache lab2.osm.txt origins targets
+ *  Dependencies: ShortestPathTree.java SearchWorkspace.java RouteIndex.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Origin-keyed LRU cache of shortest-path trees.
+ *  The test client answers one-to-many queries from a few depots by
+ *  point-to-point search and from cached trees, and compares the time.
+ *
+ *  % java ShortestPathTreeCache lab2.osm.txt 8 1000
+ *
+ *************************************************************************/
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ *  The <tt>ShortestPathTreeCache</tt> class keeps the
+ *  {@link ShortestPathTree}s of recently used sources of one digraph,
+ *  within a limit on the bytes they take. When a query comes from a source
+ *  whose tree is cached, every target is answered by walking parent edges,
+ *  without a search. When the limit is reached the least recently used
+ *  trees are evicted.
+ *  <p>
+ *  {@link #peek} only looks; {@link #tree} builds and caches a missing
+ *  tree, and {@link #populate} builds the trees of many sources at once in
+ *  parallel, for one-to-many workloads such as a depot serving many
+ *  customers. Trees are built outside the cache's lock, each thread in its
+ *  own {@link SearchWorkspace}, so a slow build does not hold up lookups.
+ *  Two threads that miss on the same source may both build its tree; the
+ *  first one cached wins.
+ *  <p>
+ *  When an edge weight of the digraph changes, {@link #repair} brings
+ *  every cached tree up to date in place, rather than dropping them.
+ *  <p>
+ *  A cache belongs to one digraph. {@link RouteIndex} owns one, so
+ *  reloading the map, which replaces the index, also discards its trees.
+ */
+public class ShortestPathTreeCache {
+    private final CSRDigraph G;
+    private final long maxBytes;
+    private final ThreadLocal<SearchWorkspace> workspaces;
+
+    // guarded by this; access order, so the eldest entry is the least recently used
+    private final LinkedHashMap<Integer, ShortestPathTree> trees =
+            new LinkedHashMap<Integer, ShortestPathTree>(16, 0.75f, true);
+    private long bytes;
+    private long hits, misses, evictions;
+    private ShortestPathTree.Repair repair;     // guarded by this; made on the first weight change
+
+    /**
+     * Initializes an empty cache for trees of <tt>G</tt>.
+     * @param G the edge-weighted digraph
+     * @param maxBytes the most bytes the cached trees may take
+     * @throws IllegalArgumentException if <tt>maxBytes</tt> is negative
+     */
+    public ShortestPathTreeCache(final CSRDigraph G, long maxBytes) {
+        if (maxBytes < 0) throw new IllegalArgumentException("byte limit must be nonnegative");
+        this.G = G;
+        this.maxBytes = maxBytes;
+        this.workspaces = new ThreadLocal<SearchWorkspace>() {
+            protected SearchWorkspace initialValue() {
+                return new SearchWorkspace(G.V());
+            }
+        };
+    }
+
+    /**
+     * Returns the cached tree of source <tt>s</tt>, if there is one.
+     * @param s the source vertex
+     * @return the tree, or <tt>null</tt> if it is not cached
+     */
+    public synchronized ShortestPathTree peek(int s) {
+        ShortestPathTree tree = trees.get(s);
+        if (tree == null) misses++;
+        else              hits++;
+        return tree;
+    }
+
+    /**
+     * Returns the tree of source <tt>s</tt>, building and caching it if
+     * it is not cached.
+     * @param s the source vertex
+     * @return the tree
+     * @throws IllegalArgumentException if <tt>s</tt> is not a vertex
+     */
+    public ShortestPathTree tree(int s) {
+        ShortestPathTree tree = peek(s);
+        if (tree != null) return tree;
+        return add(new ShortestPathTree(G, s, workspaces.get()));
+    }
+
+    /**
+     * Builds and caches the trees of all the given sources that are not
+     * cached yet, in parallel. With more sources than fit, the ones built
+     * last stay cached.
+     * @param sources the source vertices
+     * @throws IllegalArgumentException if a source is not a vertex
+     */
+    public void populate(int[] sources) {
+        final int[] missing = IntStream.of(sources).distinct().filter(s -> !contains(s)).toArray();
+        IntStream.range(0, missing.length).parallel()
+                 .forEach(i -> add(new ShortestPathTree(G, missing[i], workspaces.get())));
+    }
+
+    private synchronized boolean contains(int s) {
+        return trees.containsKey(s);
+    }
+
+    // caches tree unless its source is cached already; returns the cached tree
+    private synchronized ShortestPathTree add(ShortestPathTree tree) {
+        ShortestPathTree old = trees.get(tree.source());
+        if (old != null) return old;
+        if (tree.bytes() > maxBytes) return tree;
+        trees.put(tree.source(), tree);
+        bytes += tree.bytes();
+        Iterator<Map.Entry<Integer, ShortestPathTree>> it = trees.entrySet().iterator();
+        while (bytes > maxBytes) {
+            ShortestPathTree eldest = it.next().getValue();
+            it.remove();
+            bytes -= eldest.bytes();
+            evictions++;
+        }
+        return tree;
+    }
+
+    /**
+     * Repairs every cached tree after the weight of edge <tt>e</tt> has
+     * changed from <tt>oldWeight</tt> to its present weight in the digraph.
+     * Nothing may read the trees meanwhile, nor build new ones.
+     * @param e the CSR index of the changed edge
+     * @param oldWeight the weight of <tt>e</tt> before the change
+     */
+    public synchronized void repair(int e, double oldWeight) {
+        if (trees.isEmpty()) return;
+        if (repair == null) repair = new ShortestPathTree.Repair(G);
+        for (ShortestPathTree tree : trees.values())
+            tree.repair(e, oldWeight, repair);
+    }
+
+    /**
+     * Removes every tree.
+     */
+    public synchronized void clear() {
+        trees.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the number of cached trees.
+     * @return the number of trees
+     */
+    public synchronized int size() {
+        return trees.size();
+    }
+
+    /**
+     * Returns the bytes the cached trees take.
+     * @return the size in bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of lookups that found a tree.
+     * @return the number of hits
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that found nothing.
+     * @return the number of misses
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of trees evicted to stay within the byte limit.
+     * @return the number of evictions
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns a one-line summary of the metrics.
+     * @return the summary
+     */
+    public synchronized String toString() {
+        return String.format("%d trees, %d of %d bytes, %d hits, %d misses, %d evictions",
+                trees.size(), bytes, maxBytes, hits, misses, evictions);
+    }
+
+    /**
+     * Answers one-to-many queries from a few random depots to many random
+     * targets, by A* per pair and from cached trees, and compares the time.
+     */
+    public static void main(String[] args) throws Exception {
+        RouteIndex index = RouteIndex.load(args[0], null);
+        int origins = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int targets = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        CSRDigraph G = index.map().graph();
+        int[] vertices = new int[G.V()];
+        int n = 0;
+        for (int v = 0; v < G.V(); v++)
+            if (G.outdegree(v) > 0) vertices[n++] = v;
+        Random random = new Random(311);
+        int[] s = new int[origins], t = new int[targets];
+        for (int i = 0; i < origins; i++)
+            s[i] = vertices[random.nextInt(n)];
+        for (int j = 0; j < targets; j++)
+            t[j] = vertices[random.nextInt(n)];
+
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            long start = System.nanoTime();
+            double direct = 0;
+            for (int i = 0; i < origins; i++)
+                for (int j = 0; j < targets; j++) {
+                    int[] edges = index.shortestPathEdges(s[i], t[j]);
+                    if (edges != null)
+                        for (int e : edges)
+                            direct += G.weight(e);
+                }
+            long searchTime = System.nanoTime() - start;
+
+            // a cache of our own, so that the point-to-point searches above
+            // do not go through the index's trees
+            ShortestPathTreeCache cache = new ShortestPathTreeCache(G, 64L << 20);
+            start = System.nanoTime();
+            cache.populate(s);
+            long buildTime = System.nanoTime() - start;
+            double cached = 0;
+            for (int i = 0; i < origins; i++) {
+                ShortestPathTree tree = cache.peek(s[i]);
+                for (int j = 0; j < targets; j++) {
+                    if (tree.hasPathTo(t[j])) cached += tree.pathLength(t[j]);
+                }
+            }
+            long walkTime = System.nanoTime() - start - buildTime;
+            if (round < 2) continue;
+            System.out.printf("%d origins x %d targets, V = %d%n", origins, targets, G.V());
+            System.out.printf("point-to-point search   %8.1f ms%n", searchTime / 1e6);
+            System.out.printf("build %d trees           %8.1f ms%n", origins, buildTime / 1e6);
+            System.out.printf("walk parents            %8.1f ms%s%n", walkTime / 1e6,
+                    Math.abs(direct - cached) <= 1e-9 * direct ? "" : "  (distances differ)");
+            System.out.println(cache);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*************************************************************************
+ *  Compilation:  javac VertexOrder.java
+ *  Execution:    java VertexOrder lab2.osm.txt queries
+ *  Dependencies: MapData.java CSRDigraph.java SearchWorkspace.java
+ *                DijkstraSP.java ShortestPathTree.java MapFileParser.java
+ *  Data files:   lab2.osm.txt
+ *
+ *  Orders of the vertices of a routing graph that keep neighbors close
+ *  in memory: along a Hilbert curve over the coordinates, and breadth
+ *  first. The test client renumbers a map in each order and times the
+ *  same searches on it.
+ *
+ *  % java VertexOrder lab2.osm.txt 2000
+ *  798 vertices, 1982 edges, 2000 queries, 100 trees
+ *  order                 edge span   us per query    us per tree
+ *  random                    273.5           62.0          115.8   (6102655 m in all)
+ *  Hilbert curve              13.6           62.0          100.8   (6102655 m in all)
+ *  breadth first              18.3           66.1          108.7   (6102655 m in all)
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *  The <tt>VertexOrder</tt> class computes numberings of the vertices of
+ *  a routing graph under which the edges mostly join vertices with nearby
+ *  numbers. A search reads <tt>distTo</tt>, the queue's index and the
+ *  CSR offsets at the numbers of the vertices it reaches, and the edges
+ *  out of a vertex sit at the vertex's place in the edge arrays, so under
+ *  such an order it touches a few runs of memory instead of cache lines
+ *  scattered over the whole graph. Map files list their nodes in no
+ *  useful order.
+ *  <p>
+ *  {@link #hilbert} sorts nodes by their position on a Hilbert curve
+ *  through the bounding box of their coordinates. Nodes close on the curve
+ *  are close on the map, and roads join nodes close on the map, so this
+ *  works from the coordinates alone, before the graph is built.
+ *  {@link MapFileParser} numbers the vertices this way. {@link #breadthFirst}
+ *  numbers the vertices in the order of a breadth-first search that follows
+ *  edges both ways, as in the Cuthill-McKee ordering of a sparse matrix.
+ *  <p>
+ *  Either order goes to {@link MapData#renumbered}, which changes only the
+ *  vertex numbers: node IDs and edge IDs, and everything looked up by them,
+ *  stay the same.
+ */
+public class VertexOrder {
+    private static final int BITS = 15;     // bits per coordinate on the curve
+
+    // this class should not be instantiated
+    private VertexOrder() { }
+
+    /**
+     * Returns the vertices of <tt>map</tt> along a Hilbert curve.
+     * @param map the map
+     * @return the vertices 0 through <em>V</em> - 1 in curve order, so that
+     *    <tt>map.renumbered(hilbert(map))</tt> numbers them in that order
+     */
+    public static int[] hilbert(MapData map) {
+        int V = map.graph().V();
+        double[] latitude = new double[V];
+        double[] longitude = new double[V];
+        int[] vertices = new int[V];
+        for (int v = 0; v < V; v++) {
+            latitude[v] = map.latitude(v);
+            longitude[v] = map.longitude(v);
+            vertices[v] = v;
+        }
+        return hilbert(latitude, longitude, vertices);
+    }
+
+    /**
+     * Returns the given nodes sorted along a Hilbert curve through the
+     * bounding box of their coordinates. Nodes at the same point of the
+     * curve keep their relative order.
+     * @param latitude the latitudes, indexed by node number
+     * @param longitude the longitudes, indexed by node number
+     * @param nodes the node numbers to sort
+     * @return the node numbers in curve order, as a new array
+     */
+    static int[] hilbert(double[] latitude, double[] longitude, int[] nodes) {
+        int n = nodes.length;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int v : nodes) {
+            minLat = Math.min(minLat, latitude[v]);
+            maxLat = Math.max(maxLat, latitude[v]);
+            minLon = Math.min(minLon, longitude[v]);
+            maxLon = Math.max(maxLon, longitude[v]);
+        }
+        int side = 1 << BITS;
+        double xScale = maxLon > minLon ? (side - 1) / (maxLon - minLon) : 0.0;
+        double yScale = maxLat > minLat ? (side - 1) / (maxLat - minLat) : 0.0;
+
+        // the curve position in the high bits and the place in nodes in the
+        // low ones, so that one sort of primitives orders them
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int x = (int) ((longitude[nodes[i]] - minLon) * xScale);
+            int y = (int) ((latitude[nodes[i]] - minLat) * yScale);
+            keys[i] = curvePosition(x, y) << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = nodes[(int) keys[i]];
+        return order;
+    }
+
+    // the distance along the Hilbert curve of the square of side 2^BITS to
+    // the cell (x, y), rotating the quadrant at each level
+    private static long curvePosition(int x, int y) {
+        int n = 1 << BITS;
+        long d = 0;
+        for (int s = n / 2; s > 0; s >>= 1) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Returns the vertices of <tt>G</tt> in breadth-first order, following
+     * edges in both directions. Each search starts from the lowest-numbered
+     * vertex not yet reached.
+     * @param G the digraph
+     * @return the vertices 0 through <em>V</em> - 1 in breadth-first order
+     */
+    public static int[] breadthFirst(CSRDigraph G) {
+        int V = G.V();
+        CSRDigraph R = G.reverse();
+        boolean[] marked = new boolean[V];
+        int[] order = new int[V];               // doubles as the queue
+        int tail = 0;
+        for (int s = 0; s < V; s++) {
+            if (marked[s]) continue;
+            marked[s] = true;
+            int head = tail;
+            order[tail++] = s;
+            while (head < tail) {
+                int v = order[head++];
+                for (int e = G.begin(v); e < G.end(v); e++) {
+                    int w = G.to(e);
+                    if (!marked[w]) {
+                        marked[w] = true;
+                        order[tail++] = w;
+                    }
+                }
+                for (int e = R.begin(v); e < R.end(v); e++) {
+                    int w = R.to(e);
+                    if (!marked[w]) {
+                        marked[w] = true;
+                        order[tail++] = w;
+                    }
+                }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Returns the mean distance in vertex numbers between the ends of an
+     * edge: a measure of how far apart in memory a search's reads are.
+     * @param G the digraph
+     * @return the mean of |<em>v</em> - <em>w</em>| over the edges
+     *    <em>v</em>-&gt;<em>w</em>, or 0 if there are none
+     */
+    public static double meanEdgeSpan(CSRDigraph G) {
+        long sum = 0;
+        for (int v = 0; v < G.V(); v++)
+            for (int e = G.begin(v); e < G.end(v); e++)
+                sum += Math.abs(G.to(e) - v);
+        return G.E() == 0 ? 0.0 : (double) sum / G.E();
+    }
+
+    /**
+     * Renumbers the map at random, as the node order of a map file is,
+     * along the Hilbert curve and breadth first, and times the same random
+     * point-to-point searches and full shortest-path trees in each. The
+     * cache misses themselves can be counted by running it under a
+     * profiler such as <tt>perf stat -e cache-misses</tt>, one order at a
+     * time.
+     */
+    public static void main(String[] args) throws Exception {
+        MapData loaded = new MapFileParser(args[0]).parse();
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int V = loaded.graph().V();
+
+        int[] shuffled = new int[V];
+        for (int v = 0; v < V; v++)
+            shuffled[v] = v;
+        Random random = new Random(311);
+        for (int i = V - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = t;
+        }
+        MapData[] maps = new MapData[3];
+        maps[0] = loaded.renumbered(shuffled);
+        maps[1] = maps[0].renumbered(hilbert(maps[0]));
+        maps[2] = maps[0].renumbered(breadthFirst(maps[0].graph()));
+        String[] names = { "random", "Hilbert curve", "breadth first" };
+
+        // the same queries in every order, by node ID
+        long[] s = new long[queries], t = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            s[i] = loaded.nodeID(random.nextInt(V));
+            t[i] = loaded.nodeID(random.nextInt(V));
+        }
+        int trees = Math.max(1, queries / 20);
+
+        System.out.printf("%d vertices, %d edges, %d queries, %d trees%n", V, loaded.edgeCount(), queries, trees);
+        System.out.printf("%-20s %10s %14s %14s%n", "order", "edge span", "us per query", "us per tree");
+        for (int round = 0; round < 3; round++) {   // the first rounds warm up the JIT
+            for (int k = 0; k < maps.length; k++) {
+                MapData map = maps[k];
+                CSRDigraph G = map.graph();
+                SearchWorkspace ws = new SearchWorkspace(V);
+                double total = 0;               // the same in every order
+                long start = System.nanoTime();
+                for (int i = 0; i < queries; i++) {
+                    int v = map.vertexOf(t[i]);
+                    DijkstraSP sp = new DijkstraSP(G, map.vertexOf(s[i]), v, ws);
+                    if (sp.hasPathTo(v)) total += sp.distTo(v);
+                }
+                long queryTime = System.nanoTime() - start;
+                start = System.nanoTime();
+                for (int i = 0; i < trees; i++)
+                    new ShortestPathTree(G, map.vertexOf(s[i]), ws);
+                long treeTime = System.nanoTime() - start;
+                if (round < 2) continue;
+                System.out.printf("%-20s %10.1f %14.1f %14.1f   (%.0f m in all)%n", names[k], meanEdgeSpan(G),
+                        queryTime / 1e3 / queries, treeTime / 1e3 / trees, total);
+            }
+        }
+    }
+}
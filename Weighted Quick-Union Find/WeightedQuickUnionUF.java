@@ -1,11 +1,25 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
 /**
- *  Weighted Quick-Union Union-Find data structure from Sedgewick and Wayne.
+ *  Weighted Quick-Union Union-Find data structure from Sedgewick and Wayne,
+ *  with path halving.
+ *  <p>
+ *  The forest is kept in a single array: <tt>parent[i]</tt> is the parent
+ *  of site <tt>i</tt>, or minus the size of its tree if <tt>i</tt> is a
+ *  root. Union by size keeps the trees shallow, and every <tt>find</tt>
+ *  points each site it passes to its grandparent, so repeated queries on
+ *  the same sites get cheaper; together they make any sequence of
+ *  operations take nearly constant amortized time per operation.
  */
-public class WeightedQuickUnionUF 
+public class WeightedQuickUnionUF
 {
-    private int[] id;    // id[i] = parent of i
-    private int[] sz;    // sz[i] = number of objects in subtree rooted at i
-    private int count;   // number of components
+    private int[] parent;   // parent[i] = parent of i, or -(size of its tree) if i is a root
+    private int count;      // number of components
 
     /**
      * Initializes an empty union-find data structure with N isolated components 0 through N-1.
@@ -14,14 +28,10 @@ public class WeightedQuickUnionUF
      */
     public WeightedQuickUnionUF(int N)
 	{
+        if (N < 0) throw new IllegalArgumentException("Number of objects must be nonnegative");
         count = N;
-        id = new int[N];
-        sz = new int[N];
-        for (int i = 0; i < N; i++)
-		{
-            id[i] = i;
-            sz[i] = 1;
-        }
+        parent = new int[N];
+        Arrays.fill(parent, -1);
     }
 
     /**
@@ -41,9 +51,14 @@ public class WeightedQuickUnionUF
      */
     public int find(int p)
 	{
-        while (p != id[p])
+        while (parent[p] >= 0)
 		{
-            p = id[p];
+            int q = parent[p];
+            if (parent[q] >= 0)
+			{
+                parent[p] = parent[q];    // path halving: skip to the grandparent
+			}
+            p = parent[p];
 		}
         return p;
     }
@@ -60,7 +75,7 @@ public class WeightedQuickUnionUF
 	{
         return (find(p) == find(q));
     }
-  
+
     /**
      * Merges the component containing site<tt>p</tt> with the component
      * containing site <tt>q</tt>.
@@ -74,9 +89,88 @@ public class WeightedQuickUnionUF
         int j = find(q);
         if (i == j) return;
 
-        // make smaller root point to larger one
-        if   (sz[i] < sz[j]) { id[i] = j; sz[j] += sz[i]; }
-        else                 { id[j] = i; sz[i] += sz[j]; }
+        // make smaller root point to larger one; sizes are stored negated
+        if   (parent[i] > parent[j]) { parent[j] += parent[i]; parent[i] = j; }
+        else                         { parent[i] += parent[j]; parent[j] = i; }
         count--;
     }
+
+    /**
+     * Times the unions of a friend-relationship file, pairs of user IDs as
+     * Main reads them, and then as many connected queries between random
+     * users, and prints the number of groups.
+     */
+    public static void main(String[] args) throws IOException
+	{
+        int[] pairs = readPairs(args[0]);
+        int N = 0;
+        for (int id : pairs)
+		{
+            N = Math.max(N, id + 1);
+		}
+        int M = pairs.length / 2;
+        Random random = new Random(311);
+        int[] queries = new int[2 * M];
+        for (int k = 0; k < queries.length; k++)
+		{
+            queries[k] = random.nextInt(N);
+		}
+
+        for (int round = 0; round < 5; round++)     // the first rounds warm up the JIT
+		{
+            long start = System.nanoTime();
+            WeightedQuickUnionUF uf = new WeightedQuickUnionUF(N);
+            for (int k = 0; k < pairs.length; k += 2)
+			{
+                if (!uf.connected(pairs[k], pairs[k + 1])) uf.union(pairs[k], pairs[k + 1]);
+			}
+            long unionTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            int connected = 0;
+            for (int k = 0; k < queries.length; k += 2)
+			{
+                if (uf.connected(queries[k], queries[k + 1])) connected++;
+			}
+            long queryTime = System.nanoTime() - start;
+            if (round < 3) continue;
+            System.out.printf("%d users, %d pairs, %d groups: unions %.1f ms, %d queries %.1f ms (%d connected)%n",
+                    N, M, uf.count(), unionTime / 1e6, M, queryTime / 1e6, connected);
+		}
+    }
+
+    // all the integers in the file, read without a Scanner so that large files load quickly
+    private static int[] readPairs(String filename) throws IOException
+	{
+        InputStream in = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+        int[] values = new int[1 << 16];
+        int n = 0, value = 0;
+        boolean inNumber = false;
+        try
+		{
+            for (int c = in.read(); ; c = in.read())
+			{
+                if (c >= '0' && c <= '9')
+				{
+                    value = 10 * value + (c - '0');
+                    inNumber = true;
+				}
+                else
+				{
+                    if (inNumber)
+					{
+                        if (n == values.length) values = Arrays.copyOf(values, 2 * n);
+                        values[n++] = value;
+                        value = 0;
+                        inNumber = false;
+					}
+                    if (c == -1) break;
+				}
+			}
+		}
+        finally
+		{
+            in.close();
+		}
+        return Arrays.copyOf(values, n & ~1);
+    }
 } // end class WeightedQuickUnionUF